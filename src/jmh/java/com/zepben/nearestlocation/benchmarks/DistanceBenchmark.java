@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation.benchmarks;
+
+import com.zepben.nearestlocation.DistanceMetric;
+import com.zepben.nearestlocation.LocationUtility;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a single distance calculation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceBenchmark {
+
+    private static final int COUNT = 1024;
+
+    private final double[] lats = new double[COUNT];
+    private final double[] lons = new double[COUNT];
+    private final double[] eles = new double[COUNT];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        for (int i = 0; i < COUNT; ++i) {
+            lats[i] = -40 + random.nextDouble() * 15;
+            lons[i] = 140 + random.nextDouble() * 15;
+            eles[i] = random.nextInt(500);
+        }
+    }
+
+    @Benchmark
+    public double calculateSquaredDistance() {
+        int i = next++ & (COUNT - 1);
+        int j = (i + 1) & (COUNT - 1);
+        return LocationUtility.calculateSquaredDistance(lats[i], lons[i], eles[i], lats[j], lons[j], eles[j]);
+    }
+
+    @Benchmark
+    public double calculateDistance() {
+        int i = next++ & (COUNT - 1);
+        int j = (i + 1) & (COUNT - 1);
+        return LocationUtility.calculateDistance(lats[i], lons[i], eles[i], lats[j], lons[j], eles[j]);
+    }
+
+    @Benchmark
+    public double equirectangularDistance() {
+        int i = next++ & (COUNT - 1);
+        int j = (i + 1) & (COUNT - 1);
+        return DistanceMetric.equirectangular().distance(lats[i], lons[i], eles[i], lats[j], lons[j], eles[j]);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation.benchmarks;
+
+import com.zepben.nearestlocation.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link NearestLocations} implementations on the same POIs and queries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"MOVABLE", "COLUMNAR", "STATIC", "DYNAMIC"})
+    public String engine;
+
+    @Param({"1000", "100000"})
+    public int poiCount;
+
+    @Param({"1", "10"})
+    public int n;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public Poi.Distribution distribution;
+
+    private NearestLocations<Poi> nearestLocations;
+    private List<Poi> queries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        MissingLocationHandler missingLocationHandler = (id, cause) -> {
+        };
+
+        List<Poi> pois = distribution.generate(poiCount, 1);
+        switch (engine) {
+            case "MOVABLE":
+                nearestLocations = new NearestLocationsMovablePoi<>(pois, Poi.HAND_WRITTEN_PROVIDER, missingLocationHandler);
+                break;
+            case "COLUMNAR":
+                nearestLocations = new NearestLocationsColumnarPoi<>(pois, Poi.HAND_WRITTEN_PROVIDER, missingLocationHandler);
+                break;
+            case "STATIC":
+                nearestLocations = new NearestLocationsStaticPoi<>(pois, Poi.HAND_WRITTEN_PROVIDER, missingLocationHandler);
+                break;
+            case "DYNAMIC":
+                nearestLocations = new NearestLocationsDynamicPoi<>(pois, Poi.HAND_WRITTEN_PROVIDER, missingLocationHandler);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+        queries = distribution.generate(QUERY_COUNT, 2);
+    }
+
+    @Benchmark
+    public List<Poi> find() {
+        return nearestLocations.find(queries.get(next++ & (QUERY_COUNT - 1)), Poi.HAND_WRITTEN_PROVIDER, n);
+    }
+
+}
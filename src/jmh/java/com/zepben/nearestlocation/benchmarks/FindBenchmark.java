@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation.benchmarks;
+
+import com.zepben.nearestlocation.LocationProvider;
+import com.zepben.nearestlocation.MissingLocationHandler;
+import com.zepben.nearestlocation.NearestLocations;
+import com.zepben.nearestlocation.NearestLocationsMovablePoi;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link NearestLocationsMovablePoi#find} across POI counts, result sizes, POI distributions and location
+ * providers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FindBenchmark {
+
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int poiCount;
+
+    @Param({"1", "10", "100"})
+    public int n;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public Poi.Distribution distribution;
+
+    @Param({"BUILDER", "HAND_WRITTEN"})
+    public String provider;
+
+    private NearestLocations<Poi> nearestLocations;
+    private LocationProvider<Poi> lcpr;
+    private List<Poi> queries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        MissingLocationHandler missingLocationHandler = (id, cause) -> {
+        };
+
+        lcpr = "BUILDER".equals(provider) ? Poi.BUILDER_PROVIDER : Poi.HAND_WRITTEN_PROVIDER;
+        nearestLocations = new NearestLocationsMovablePoi<>(distribution.generate(poiCount, 1), lcpr, missingLocationHandler);
+        queries = distribution.generate(QUERY_COUNT, 2);
+    }
+
+    @Benchmark
+    public List<Poi> find() {
+        return nearestLocations.find(queries.get(next++ & (QUERY_COUNT - 1)), lcpr, n);
+    }
+
+}
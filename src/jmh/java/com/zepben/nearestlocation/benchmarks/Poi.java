@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation.benchmarks;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+import com.zepben.nearestlocation.LocationProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A location used as both a POI and a query entity in the benchmarks.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class Poi {
+
+    /**
+     * Reads locations through the lambdas of {@link LocationProvider.Builder}.
+     */
+    static final LocationProvider<Poi> BUILDER_PROVIDER = LocationProvider.<Poi>builder()
+        .latitudeProvider(p -> p.lat)
+        .longitudeProvider(p -> p.lon)
+        .elevationProvider(p -> p.ele)
+        .idProvider(p -> p.id)
+        .hasLocationProvider(p -> true)
+        .build();
+
+    /**
+     * Reads locations directly from the fields.
+     */
+    static final LocationProvider<Poi> HAND_WRITTEN_PROVIDER = new LocationProvider<Poi>() {
+        @Override
+        public double lon(Poi poi) {
+            return poi.lon;
+        }
+
+        @Override
+        public double lat(Poi poi) {
+            return poi.lat;
+        }
+
+        @Override
+        public double ele(Poi poi) {
+            return poi.ele;
+        }
+
+        @Override
+        public String id(Poi poi) {
+            return poi.id;
+        }
+
+        @Override
+        public boolean hasLocation(Poi poi) {
+            return true;
+        }
+    };
+
+    public enum Distribution {
+
+        /**
+         * Locations spread evenly over a 15 degree square.
+         */
+        UNIFORM,
+
+        /**
+         * Locations grouped around 20 centres within a 15 degree square, like POIs in towns.
+         */
+        CLUSTERED;
+
+        List<Poi> generate(int count, long seed) {
+            Random random = new Random(seed);
+            double[][] centres = new double[20][];
+            for (int i = 0; i < centres.length; ++i)
+                centres[i] = new double[]{-40 + random.nextDouble() * 15, 140 + random.nextDouble() * 15};
+
+            List<Poi> pois = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                if (this == UNIFORM) {
+                    pois.add(new Poi(-40 + random.nextDouble() * 15, 140 + random.nextDouble() * 15, random.nextInt(500), "p" + i));
+                } else {
+                    double[] centre = centres[random.nextInt(centres.length)];
+                    double lat = Math.max(-90, Math.min(90, centre[0] + random.nextGaussian() * 0.1));
+                    double lon = Math.max(-180, Math.min(180, centre[1] + random.nextGaussian() * 0.1));
+                    pois.add(new Poi(lat, lon, random.nextInt(500), "p" + i));
+                }
+            }
+            return pois;
+        }
+
+    }
+
+    final double lat;
+    final double lon;
+    final double ele;
+    final String id;
+
+    Poi(double lat, double lon, double ele, String id) {
+        this.lat = lat;
+        this.lon = lon;
+        this.ele = ele;
+        this.id = id;
+    }
+
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Base class for the {@link NearestLocations} implementations in this package.
+ * <p>
+ * Implementations identify their POIs by an index, which is also used to break ties between POIs at the same distance, and
+ * only need to offer candidate POIs to a {@link NearestQuery}. This class handles reading and validating the entity
+ * location and converting the selected indexes back into POIs.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+abstract class AbstractNearestLocations<T> implements NearestLocations<T> {
+
+    final MissingLocationHandler missingLocationHandler;
+    final DistanceMetric metric;
+
+    private volatile NearestLocationsMetrics metrics = NearestLocationsMetrics.none();
+    private long buildNanos = -1;
+
+    AbstractNearestLocations(MissingLocationHandler missingLocationHandler, DistanceMetric metric) {
+        this.missingLocationHandler = missingLocationHandler;
+        this.metric = metric;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n) {
+        return pois(search(entity, lcprEntity, n, Double.POSITIVE_INFINITY, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The distance is measured using the {@link DistanceMetric} of this instance.
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<T> findWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return pois(search(entity, lcprEntity, maxN, maxRank(radius), null));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Distances are measured using the {@link DistanceMetric} of this instance.
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<Neighbour<T>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+        return neighbours(search(entity, lcprEntity, n, Double.POSITIVE_INFINITY, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Distances are measured using the {@link DistanceMetric} of this instance.
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<Neighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return neighbours(search(entity, lcprEntity, maxN, maxRank(radius), null));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Distances are measured using the {@link DistanceMetric} of this instance.
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> int find(U entity, LocationProvider<U> lcprEntity, T[] pois, double[] distances) {
+        if (distances.length < pois.length)
+            throw new IllegalArgumentException("The distances array must be at least as long as the POI array");
+
+        NearestQuery query = search(entity, lcprEntity, pois.length, Double.POSITIVE_INFINITY, null);
+        if (query == null)
+            return 0;
+
+        try {
+            int count = query.heap.size();
+            for (int i = 0; i < count; ++i) {
+                pois[i] = poi(query.heap.index(i));
+                distances[i] = metric.rankToMetres(query.heap.key(i));
+            }
+            return count;
+        } finally {
+            query.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The filter is checked while searching, before POIs are ranked. Filters created by the {@code attribute} method of
+     * an engine also let the search skip the parts of its index without any matching POIs.
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n, Predicate<? super T> filter) {
+        return pois(search(entity, lcprEntity, n, Double.POSITIVE_INFINITY, null, 0, Integer.MAX_VALUE, filter));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The nearest POIs of the previous entity are ranked against each entity before searching. Nearby entities usually
+     * share most of their nearest POIs, so this gives the search a tight bound from the start.
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> void join(Collection<U> entities, LocationProvider<U> lcprEntity, int k, BiConsumer<? super U, ? super List<T>> consumer) {
+        JoinSeed seed = new JoinSeed();
+        for (U entity : SpaceFillingCurve.sort(entities, lcprEntity))
+            consumer.accept(entity, pois(search(entity, lcprEntity, k, Double.POSITIVE_INFINITY, seed)));
+    }
+
+    /**
+     * Finds the nearest POIs to an entity, allowing the search to skip parts of the index that cannot hold a POI that is
+     * more than a factor of (1 + epsilon) closer than the furthest POI found so far. Only implementations that check
+     * {@link NearestQuery#visit} use the limits, others return an exact result.
+     *
+     * @throws IllegalArgumentException if epsilon is negative or maxNodes is not positive
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    <U> ApproximateResult<T> findApproximate(U entity, LocationProvider<U> lcprEntity, int n, double epsilon, int maxNodes) {
+        if (!(epsilon >= 0) || (epsilon == Double.POSITIVE_INFINITY))
+            throw new IllegalArgumentException("Epsilon must be a finite value that is not negative");
+        if (maxNodes <= 0)
+            throw new IllegalArgumentException("The maximum number of nodes must be positive");
+
+        NearestQuery query = search(entity, lcprEntity, n, Double.POSITIVE_INFINITY, null, epsilon, maxNodes, null);
+        if (query == null)
+            return new ApproximateResult<>(Collections.emptyList(), true, 0);
+
+        boolean exact = query.isExact();
+        int nodesVisited = query.nodesVisited();
+        return new ApproximateResult<>(neighbours(query), exact, nodesVisited);
+    }
+
+    /**
+     * Starts tracking the 'n' nearest POIs of an entity that moves between searches. Each call to
+     * {@link NearestLocationsTracker#find} reads the current location of the entity, and only searches the POIs again if the
+     * entity has left the region where the previous nearest POIs are guaranteed to still be the nearest.
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity, which may return a different location on each call
+     * @param n          number of POI to be found
+     * @return the tracker, which has not searched yet
+     * @throws IllegalArgumentException if n is not positive
+     */
+    public <U> NearestLocationsTracker<T, U> track(U entity, LocationProvider<U> lcprEntity, int n) {
+        return new NearestLocationsTracker<>(this, entity, lcprEntity, n);
+    }
+
+    /**
+     * @return the metric used to rank POIs
+     */
+    public DistanceMetric metric() {
+        return metric;
+    }
+
+    /**
+     * @return the metrics that searches report to
+     */
+    public NearestLocationsMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Reports the work done by each search to the given metrics. Engines that build an index over their POIs report the time
+     * taken to build it and its size straight away.
+     *
+     * @param metrics the metrics to report to, or {@link NearestLocationsMetrics#none()} to stop reporting
+     */
+    public void metrics(NearestLocationsMetrics metrics) {
+        this.metrics = metrics;
+        if (buildNanos >= 0)
+            metrics.indexBuilt(buildNanos, poiCount());
+    }
+
+    /**
+     * Records the time taken to build the index of an engine, to be reported when metrics are attached. Call this at the end
+     * of the constructor.
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the build started
+     */
+    void built(long startNanos) {
+        buildNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Reports an entity or POI without a location to the metrics and the {@link MissingLocationHandler}.
+     *
+     * @param id the ID of the entity or POI
+     */
+    void missingLocation(String id) {
+        metrics.missingLocation();
+        missingLocationHandler.handle(id, null);
+    }
+
+    /**
+     * Used to detect changes to the POIs, for example by {@link CachingNearestLocations}.
+     *
+     * @return a value that changes whenever POIs are added, removed or moved
+     */
+    long version() {
+        return 0;
+    }
+
+    /**
+     * Converts a filter on POIs into a filter on the indexes of the POIs. Engines that precalculate attributes of their POIs
+     * override this to use the precalculated values.
+     *
+     * @param filter accepts the POIs that can be found
+     * @return accepts the indexes of the POIs that can be found
+     */
+    IntPredicate indexFilter(Predicate<? super T> filter) {
+        return index -> filter.test(poi(index));
+    }
+
+    /**
+     * @param filter accepts the POIs that can be found
+     * @return the nodes of the index that hold at least one POI accepted by the filter, or null if every node must be
+     * searched
+     */
+    @Nullable
+    BitSet filterNodes(Predicate<? super T> filter) {
+        return null;
+    }
+
+    /**
+     * @return the number of POIs that could be returned by a search
+     */
+    abstract int poiCount();
+
+    /**
+     * @param index the index of a POI offered to a query
+     * @return the POI with the given index
+     */
+    abstract T poi(int index);
+
+    /**
+     * Offers every POI that could be closer than the current bound of the query to the query.
+     *
+     * @param query the query to search for
+     */
+    abstract void search(NearestQuery query);
+
+    /**
+     * Ranks a POI against the query location without offering it to the query.
+     *
+     * @param query the query to rank the POI for
+     * @param index the index of a POI
+     * @return the rank of the POI, or infinity if it cannot be ranked
+     */
+    abstract double rank(NearestQuery query, int index);
+
+    private double maxRank(double radius) {
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Radius must not be negative");
+
+        return metric.metresToRank(radius);
+    }
+
+    /**
+     * Searches for the nearest POIs to an entity.
+     *
+     * @return the query holding the sorted results, which must be released by the caller, or null if there can be no results
+     */
+    @Nullable
+    private <U> NearestQuery search(U entity, LocationProvider<U> lcprEntity, int n, double maxRank, @Nullable JoinSeed seed) {
+        return search(entity, lcprEntity, n, maxRank, seed, 0, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Searches for the nearest POIs to an entity that are accepted by a filter, within the limits of an approximate search.
+     *
+     * @return the query holding the sorted results, which must be released by the caller, or null if there can be no results
+     */
+    @Nullable
+    private <U> NearestQuery search(U entity,
+                                    LocationProvider<U> lcprEntity,
+                                    int n,
+                                    double maxRank,
+                                    @Nullable JoinSeed seed,
+                                    double epsilon,
+                                    int maxNodes,
+                                    @Nullable Predicate<? super T> filter) {
+        if (!lcprEntity.hasLocation(entity)) {
+            missingLocation(lcprEntity.id(entity));
+            return null;
+        }
+
+        double entityLat = lcprEntity.lat(entity);
+        double entityLon = lcprEntity.lon(entity);
+        double entityEle = lcprEntity.ele(entity);
+
+        if (!LocationUtility.validateLocation(entityLat, entityLon, entityEle))
+            throw new InvalidLocationException();
+
+        int capacity = Math.min(n, poiCount());
+        if (capacity <= 0)
+            return null;
+
+        NearestLocationsMetrics metrics = this.metrics;
+        long startNanos = metrics == NearestLocationsMetrics.none() ? 0 : System.nanoTime();
+
+        NearestQuery query = NearestQuery.acquire().start(metric, entityLat, entityLon, entityEle, capacity, maxRank);
+        try {
+            if (seed != null)
+                seed.limit(this, query, capacity);
+            if ((epsilon > 0) || (maxNodes < Integer.MAX_VALUE))
+                query.approximate(epsilon, maxNodes);
+            if (filter != null)
+                query.filter(indexFilter(filter), filterNodes(filter));
+
+            search(query);
+            query.heap.sort();
+
+            if (seed != null)
+                seed.update(query.heap);
+
+            if (metrics != NearestLocationsMetrics.none())
+                metrics.query(System.nanoTime() - startNanos, query.evaluated + query.pruned, query.evaluated, query.pruned);
+
+            return query;
+        } catch (RuntimeException | Error e) {
+            query.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Searches for the nearest POIs to a tracked entity. The previous POIs of the entity, held by the seed, limit the search
+     * and are then replaced with the new POIs.
+     *
+     * @return the query holding the sorted results, which must be released by the caller, or null if there can be no results
+     */
+    @Nullable
+    <U> NearestQuery search(U entity, LocationProvider<U> lcprEntity, int n, JoinSeed seed) {
+        return search(entity, lcprEntity, n, Double.POSITIVE_INFINITY, seed);
+    }
+
+    /**
+     * Ranks the first 'count' POIs held by a seed against a location, without searching any other POIs.
+     *
+     * @return the query holding the sorted POIs, which must be released by the caller
+     */
+    NearestQuery rank(double lat, double lon, double ele, JoinSeed seed, int count) {
+        NearestQuery query = NearestQuery.acquire().start(metric, lat, lon, ele, count);
+        try {
+            for (int i = 0; i < count; ++i)
+                query.heap.offer(rank(query, seed.indices[i]), seed.indices[i]);
+
+            query.heap.sort();
+            return query;
+        } catch (RuntimeException | Error e) {
+            query.release();
+            throw e;
+        }
+    }
+
+    private List<T> pois(@Nullable NearestQuery query) {
+        if (query == null)
+            return Collections.emptyList();
+
+        try {
+            int count = query.heap.size();
+            List<T> results = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                results.add(poi(query.heap.index(i)));
+
+            return results;
+        } finally {
+            query.release();
+        }
+    }
+
+    private List<Neighbour<T>> neighbours(@Nullable NearestQuery query) {
+        if (query == null)
+            return Collections.emptyList();
+
+        try {
+            int count = query.heap.size();
+            List<Neighbour<T>> results = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                results.add(new Neighbour<>(poi(query.heap.index(i)), metric.rankToMetres(query.heap.key(i))));
+
+            return results;
+        } finally {
+            query.release();
+        }
+    }
+
+    /**
+     * The indexes of the nearest POIs of the previous entity in a join, or of the previous location of a tracked entity.
+     */
+    static final class JoinSeed {
+
+        private int[] indices = new int[0];
+        private int count;
+
+        /**
+         * Limits a query to the rank of the furthest of the previous POIs. There are at least as many of those POIs as the
+         * query needs, so the nearest POIs for the query can be no further away.
+         */
+        void limit(AbstractNearestLocations<?> nearestLocations, NearestQuery query, int capacity) {
+            if (count < capacity)
+                return;
+
+            double maxRank = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; ++i)
+                maxRank = Math.max(maxRank, nearestLocations.rank(query, indices[i]));
+
+            if (maxRank < Double.POSITIVE_INFINITY)
+                query.limit(maxRank);
+        }
+
+        int count() {
+            return count;
+        }
+
+        /**
+         * Forgets the previous POIs, such as when their indexes may have changed.
+         */
+        void clear() {
+            count = 0;
+        }
+
+        void update(NeighbourHeap heap) {
+            count = heap.size();
+            if (indices.length < count)
+                indices = new int[count];
+
+            for (int i = 0; i < count; ++i)
+                indices[i] = heap.index(i);
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Records the IDs of entities and POIs without a location and logs a summary of them at most once per interval, instead of
+ * logging every time a location is missing.
+ * <p>
+ * Each ID is recorded once, and summaries list the IDs that are new since the previous summary. Summaries are only written
+ * while locations are being reported, so call {@link #summarise} to log anything recorded since the last summary, for
+ * example when a batch of searches has finished.
+ * <p>
+ * Engines that read POI locations on every search report each POI without a location once rather than on every search
+ * when using this handler. See {@link MissingLocationHandler#repeatMissingPois}.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class AggregatingMissingLocationHandler implements MissingLocationHandler {
+
+    /**
+     * The default time between summaries.
+     */
+    public static final Duration DEFAULT_SUMMARY_INTERVAL = Duration.ofMinutes(1);
+
+    /**
+     * The largest number of new IDs listed in a summary.
+     */
+    public static final int MAX_LISTED_IDS = 20;
+
+    private final Logger logger;
+    private final long intervalNanos;
+    private final LongSupplier nanoTime;
+
+    private final Set<String> ids = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<String> newIds = new ConcurrentLinkedQueue<>();
+    private final LongAdder reports = new LongAdder();
+    private final LongAdder unsummarisedReports = new LongAdder();
+    private final AtomicLong nextSummary;
+
+    public AggregatingMissingLocationHandler(Logger logger) {
+        this(logger, DEFAULT_SUMMARY_INTERVAL);
+    }
+
+    /**
+     * @param summaryInterval the shortest time between summaries
+     */
+    public AggregatingMissingLocationHandler(Logger logger, Duration summaryInterval) {
+        this(logger, summaryInterval, System::nanoTime);
+    }
+
+    AggregatingMissingLocationHandler(Logger logger, Duration summaryInterval, LongSupplier nanoTime) {
+        this.logger = logger;
+        this.intervalNanos = summaryInterval.toNanos();
+        this.nanoTime = nanoTime;
+        this.nextSummary = new AtomicLong(nanoTime.getAsLong());
+    }
+
+    @Override
+    public void handle(String id, @Nullable Throwable cause) {
+        reports.increment();
+        unsummarisedReports.increment();
+        if (ids.add(id))
+            newIds.add(id);
+
+        long now = nanoTime.getAsLong();
+        long next = nextSummary.get();
+        if ((now - next >= 0) && nextSummary.compareAndSet(next, now + intervalNanos))
+            summarise();
+    }
+
+    /**
+     * @return false, as each ID is only recorded once
+     */
+    @Override
+    public boolean repeatMissingPois() {
+        return false;
+    }
+
+    /**
+     * Logs the IDs recorded since the last summary, if there are any reports since then.
+     */
+    public void summarise() {
+        long count = unsummarisedReports.sumThenReset();
+        List<String> listed = new ArrayList<>();
+        int newCount = 0;
+        for (String id = newIds.poll(); id != null; id = newIds.poll()) {
+            if (listed.size() < MAX_LISTED_IDS)
+                listed.add(id);
+            ++newCount;
+        }
+
+        if ((count == 0) && (newCount == 0))
+            return;
+
+        String more = newCount > listed.size() ? String.format(" and %d more", newCount - listed.size()) : "";
+        logger.warn(String.format("%d locations missing since the last summary, %d new IDs without location data%s%s, %d IDs in total",
+            count,
+            newCount,
+            listed.isEmpty() ? "" : ": " + String.join(", ", listed),
+            more,
+            ids.size()));
+    }
+
+    /**
+     * @return the IDs recorded so far
+     */
+    public Set<String> missingIds() {
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * @return the number of times a missing location has been reported, including repeats of the same ID
+     */
+    public long reportCount() {
+        return reports.sum();
+    }
+
+    Logger logger() {
+        return logger;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The POIs found by an approximate search, along with whether they are guaranteed to be the exact nearest POIs.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class ApproximateResult<T> {
+
+    private final List<Neighbour<T>> neighbours;
+    private final boolean exact;
+    private final int nodesVisited;
+
+    ApproximateResult(List<Neighbour<T>> neighbours, boolean exact, int nodesVisited) {
+        this.neighbours = Collections.unmodifiableList(neighbours);
+        this.exact = exact;
+        this.nodesVisited = nodesVisited;
+    }
+
+    /**
+     * @return the POIs found and their distances, ordered from nearest to furthest
+     */
+    public List<Neighbour<T>> neighbours() {
+        return neighbours;
+    }
+
+    /**
+     * @return the POIs found, ordered from nearest to furthest
+     */
+    public List<T> pois() {
+        return neighbours.stream().map(Neighbour::poi).collect(toList());
+    }
+
+    /**
+     * @return true if the search did not skip anything that could have changed the result, in which case the result matches
+     * an exact search. Otherwise, each POI is no more than a factor of (1 + epsilon) further away than the POI at the same
+     * position in the exact result, unless the search was stopped by its node limit.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return the number of index nodes visited by the search
+     */
+    public int nodesVisited() {
+        return nodesVisited;
+    }
+
+    @Override
+    public String toString() {
+        return "ApproximateResult{neighbours=" + neighbours + ", exact=" + exact + ", nodesVisited=" + nodesVisited + '}';
+    }
+
+}
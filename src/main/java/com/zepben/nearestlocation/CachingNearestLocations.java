@@ -0,0 +1,331 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of {@link #find(Object, LocationProvider, int)} and
+ * {@link #findWithin(Object, LocationProvider, double, int)} for another {@link NearestLocations}.
+ * <p>
+ * Results are cached by the entity location, rounded to a configurable precision, and the search parameters, so entities
+ * at the same or nearly the same location share results. With a precision of zero, only entities at exactly the same
+ * location share results. Other searches, including those that return distances, are passed to the wrapped instance
+ * without caching.
+ * <p>
+ * Large caches are split into up to 16 segments by the hash of the search, each with its own lock and an equal share of
+ * the entries, so concurrent searches rarely wait for each other. The least recently used results of a segment are evicted
+ * once the segment is full, so eviction is only approximately least recently used across the whole cache. Caches of fewer
+ * than 128 results use a single segment, with a single lock.
+ * <p>
+ * Cached results do not change when the POIs change. Call {@link #invalidate} after changing the POIs of the wrapped
+ * instance. Changes to a {@link NearestLocationsDynamicPoi} through its {@code add}, {@code remove} and {@code moved}
+ * methods, and to a {@link NearestLocationsSnapshotPoi} through its {@code replace} method, are detected automatically.
+ * This class is thread safe if the wrapped instance supports concurrent searches.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class CachingNearestLocations<T> implements NearestLocations<T> {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    private final NearestLocations<T> delegate;
+    private final double locationPrecision;
+    private final double elevationPrecision;
+
+    private final Segment<T>[] segments;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long delegateVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param delegate   the instance to cache the results of
+     * @param maxEntries the maximum number of cached results
+     */
+    public CachingNearestLocations(NearestLocations<T> delegate, int maxEntries) {
+        this(delegate, maxEntries, 0, 0);
+    }
+
+    /**
+     * @param delegate           the instance to cache the results of
+     * @param maxEntries         the maximum number of cached results
+     * @param locationPrecision  the precision, in degrees, that latitudes and longitudes are rounded to. 0.0001 degrees is
+     *                           about 11 metres of latitude.
+     * @param elevationPrecision the precision, in metres, that elevations are rounded to
+     * @throws IllegalArgumentException if the maximum number of results is not positive, or a precision is negative
+     */
+    public CachingNearestLocations(NearestLocations<T> delegate, int maxEntries, double locationPrecision, double elevationPrecision) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("The maximum number of cached results must be positive");
+        if (!(locationPrecision >= 0) || !(elevationPrecision >= 0))
+            throw new IllegalArgumentException("Precisions must not be negative");
+
+        this.delegate = delegate;
+        this.locationPrecision = locationPrecision;
+        this.elevationPrecision = elevationPrecision;
+        this.delegateVersion = version(delegate);
+
+        // The number of segments is a power of two, so a segment can be chosen by masking the hash.
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)));
+        @SuppressWarnings("unchecked")
+        Segment<T>[] segments = (Segment<T>[]) new Segment<?>[segmentCount];
+        for (int i = 0; i < segmentCount; ++i)
+            segments[i] = new Segment<>(maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0));
+        this.segments = segments;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned list can not be modified.
+     */
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n) {
+        if (!lcprEntity.hasLocation(entity))
+            return delegate.find(entity, lcprEntity, n);
+
+        Key key = key(entity, lcprEntity, n, Double.NaN);
+        return cached(key, () -> delegate.find(entity, lcprEntity, n));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned list can not be modified.
+     */
+    @Override
+    public <U> List<T> findWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        if (!lcprEntity.hasLocation(entity))
+            return delegate.findWithin(entity, lcprEntity, radius, maxN);
+
+        Key key = key(entity, lcprEntity, maxN, radius);
+        return cached(key, () -> delegate.findWithin(entity, lcprEntity, radius, maxN));
+    }
+
+    @Override
+    public <U> List<Neighbour<T>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+        return delegate.findNeighbours(entity, lcprEntity, n);
+    }
+
+    @Override
+    public <U> List<Neighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return delegate.findNeighboursWithin(entity, lcprEntity, radius, maxN);
+    }
+
+    @Override
+    public <U> int find(U entity, LocationProvider<U> lcprEntity, T[] pois, double[] distances) {
+        return delegate.find(entity, lcprEntity, pois, distances);
+    }
+
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n, Predicate<? super T> filter) {
+        return delegate.find(entity, lcprEntity, n, filter);
+    }
+
+    /**
+     * Removes all cached results. Call this after changing the POIs of the wrapped instance.
+     */
+    public void invalidate() {
+        long current = generation.incrementAndGet();
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                segment.update(current);
+            }
+        }
+    }
+
+    /**
+     * @return the number of searches that were answered from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of searches that were passed to the wrapped instance
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public int size() {
+        long current = currentGeneration();
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                segment.update(current);
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private List<T> cached(Key key, Supplier<List<T>> search) {
+        int hash = key.hashCode();
+        Segment<T> segment = segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+
+        long searchGeneration = currentGeneration();
+        synchronized (segment) {
+            if (segment.update(searchGeneration)) {
+                List<T> results = segment.get(key);
+                if (results != null) {
+                    hits.increment();
+                    return results;
+                }
+            }
+        }
+
+        misses.increment();
+        List<T> results = Collections.unmodifiableList(search.get());
+
+        // Results found while the cache was invalidated may be out of date, so are not cached.
+        if (currentGeneration() == searchGeneration) {
+            synchronized (segment) {
+                if (segment.update(searchGeneration))
+                    segment.put(key, results);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return the generation of the cached results, which changes each time the cache is invalidated, including when the
+     * version of the wrapped instance changes
+     */
+    private long currentGeneration() {
+        long version = version(delegate);
+        if (version != delegateVersion) {
+            synchronized (generation) {
+                if (version != delegateVersion) {
+                    delegateVersion = version;
+                    generation.incrementAndGet();
+                }
+            }
+        }
+        return generation.get();
+    }
+
+    private <U> Key key(U entity, LocationProvider<U> lcprEntity, int n, double radius) {
+        return new Key(quantise(lcprEntity.lat(entity), locationPrecision),
+            quantise(lcprEntity.lon(entity), locationPrecision),
+            quantise(lcprEntity.ele(entity), elevationPrecision),
+            n,
+            Double.doubleToLongBits(radius));
+    }
+
+    private static long quantise(double value, double precision) {
+        if (precision == 0)
+            return Double.doubleToLongBits(value);
+
+        return Math.round(value / precision);
+    }
+
+    private static long version(NearestLocations<?> nearestLocations) {
+        if (nearestLocations instanceof AbstractNearestLocations)
+            return ((AbstractNearestLocations<?>) nearestLocations).version();
+        else if (nearestLocations instanceof NearestLocationsSnapshotPoi)
+            return ((NearestLocationsSnapshotPoi<?>) nearestLocations).version();
+
+        return 0;
+    }
+
+    /**
+     * A least recently used map of results, holding the results of a single generation. Access is guarded by the lock of
+     * the segment.
+     */
+    private static final class Segment<T> extends LinkedHashMap<Key, List<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+        private long generation = 0;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Clears the segment if its results are from an older generation.
+         *
+         * @return true if the segment holds results of the generation, false if it holds results of a newer generation
+         */
+        boolean update(long current) {
+            if (current > generation) {
+                clear();
+                generation = current;
+            }
+            return current == generation;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, List<T>> eldest) {
+            return size() > maxEntries;
+        }
+
+    }
+
+    private static final class Key {
+
+        private final long lat;
+        private final long lon;
+        private final long ele;
+        private final int n;
+        private final long radius;
+
+        Key(long lat, long lon, long ele, int n, long radius) {
+            this.lat = lat;
+            this.lon = lon;
+            this.ele = ele;
+            this.n = n;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return lat == key.lat && lon == key.lon && ele == key.ele && n == key.n && radius == key.radius;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(lat);
+            result = 31 * result + Long.hashCode(lon);
+            result = 31 * result + Long.hashCode(ele);
+            result = 31 * result + n;
+            result = 31 * result + Long.hashCode(radius);
+            return result;
+        }
+
+    }
+
+}
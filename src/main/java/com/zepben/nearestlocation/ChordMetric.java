@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Ranks locations by the squared straight line distance between their earth-centred, earth-fixed coordinates. Terms are
+ * the x, y and z coordinates in metres.
+ */
+@EverythingIsNonnullByDefault
+final class ChordMetric implements DistanceMetric {
+
+    static final ChordMetric INSTANCE = new ChordMetric();
+
+    private ChordMetric() {
+    }
+
+    @Override
+    public int termCount() {
+        return 3;
+    }
+
+    @Override
+    public void computeTerms(double lat, double lon, double ele, double[] terms, int offset) {
+        double radius = UnitSphere.EARTH_RADIUS + ele;
+        terms[offset] = UnitSphere.x(lat, lon) * radius;
+        terms[offset + 1] = UnitSphere.y(lat, lon) * radius;
+        terms[offset + 2] = UnitSphere.z(lat) * radius;
+    }
+
+    @Override
+    public double rank(double[] queryTerms, int queryOffset, double[] poiTerms, int poiOffset) {
+        double dx = poiTerms[poiOffset] - queryTerms[queryOffset];
+        double dy = poiTerms[poiOffset + 1] - queryTerms[queryOffset + 1];
+        double dz = poiTerms[poiOffset + 2] - queryTerms[queryOffset + 2];
+        return (dx * dx) + (dy * dy) + (dz * dz);
+    }
+
+    @Override
+    public double rankToMetres(double rank) {
+        return Math.sqrt(rank);
+    }
+
+    @Override
+    public double metresToRank(double metres) {
+        return metres * metres;
+    }
+
+    @Override
+    public double maxCentralAngle(double metres) {
+        // Elevations are never negative, so the chord is at least as long as the chord between the same directions at sea level.
+        double halfChord = metres / (2 * UnitSphere.EARTH_RADIUS);
+        return halfChord >= 1 ? Math.PI : 2 * Math.asin(halfChord);
+    }
+
+    @Override
+    public String toString() {
+        return "chord";
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A {@link LocationProvider} that can read the locations of many POIs in one call.
+ * <p>
+ * Engines that index their POIs when they are created, such as {@link NearestLocationsStaticPoi},
+ * {@link NearestLocationsColumnarPoi} and {@link NearestLocationsRasterPoi}, read all of the locations through this interface
+ * when the provider implements it, rather than calling the provider for each coordinate of each POI. Implement it when the
+ * locations are already held in arrays, or can be copied out of the POIs in a single loop. The per-POI methods are still
+ * used for searches, and for the IDs of POIs that are reported as missing or invalid.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+public interface ColumnarLocationSource<T> extends LocationProvider<T> {
+
+    /**
+     * Reads the locations of a list of POIs. The values for the POI at each index of the list are stored at the same index
+     * of the arrays, which are at least as long as the list. Values for POIs without a location are ignored.
+     *
+     * @param pois        the POIs to read
+     * @param lats        filled with the latitude of each POI in degrees
+     * @param lons        filled with the longitude of each POI in degrees
+     * @param eles        filled with the elevation of each POI in metres
+     * @param hasLocation set at the index of each POI that has a location. All bits are clear when this is called.
+     */
+    void readLocations(List<T> pois, double[] lats, double[] lons, double[] eles, BitSet hasLocation);
+
+}
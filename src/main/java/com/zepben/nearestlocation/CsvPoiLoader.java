@@ -0,0 +1,453 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loads POIs from delimited text files, such as CSV files, into {@link PoiColumns}.
+ * <p>
+ * Files are read as a stream, and only the ID and location columns of each row are kept, so no object is created for each
+ * row. Fields may be quoted with double quotes, with a doubled double quote inside a quoted field representing a double
+ * quote. By default the loader reads files with a header row, which is the first row that is not empty, and the columns:
+ * name, site ID, latitude, longitude and elevation. A byte order mark at the start of the file is ignored.
+ * <p>
+ * Rows that are empty or only hold white space are skipped. Rows with an empty latitude or longitude are reported to the
+ * {@link MissingLocationHandler} and skipped, as are rows with a location that can not be parsed, which are reported along
+ * with the cause. An empty elevation is treated as zero.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class CsvPoiLoader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int NO_COLUMN = -1;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    // Numbers with at most this many significant digits, scaled by a power of ten that is exact as a double, are parsed
+    // with a single correctly rounded multiplication or division. Other numbers are left to Double.parseDouble.
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+    private final char delimiter;
+    private final boolean hasHeader;
+    private final int idColumn;
+    private final int latitudeColumn;
+    private final int longitudeColumn;
+    private final int elevationColumn;
+    private final int requiredColumns;
+
+    /**
+     * @return a builder for a loader
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private CsvPoiLoader(Builder builder) {
+        delimiter = builder.delimiter;
+        hasHeader = builder.hasHeader;
+        idColumn = builder.idColumn;
+        latitudeColumn = builder.latitudeColumn;
+        longitudeColumn = builder.longitudeColumn;
+        elevationColumn = builder.elevationColumn;
+        requiredColumns = 1 + Math.max(Math.max(idColumn, latitudeColumn), Math.max(longitudeColumn, elevationColumn));
+    }
+
+    /**
+     * Loads the POIs from a UTF-8 encoded file.
+     *
+     * @see #load(Path, Charset, MissingLocationHandler)
+     */
+    public PoiColumns load(Path file, MissingLocationHandler missingLocationHandler) throws IOException {
+        return load(file, StandardCharsets.UTF_8, missingLocationHandler);
+    }
+
+    /**
+     * Loads the POIs from a file.
+     *
+     * @param file                   the file to load
+     * @param charset                the encoding of the file
+     * @param missingLocationHandler handler for rows without a valid location
+     * @return the loaded POIs, in the order of the rows
+     * @throws IOException              if the file could not be read, or a row has too few columns
+     * @throws InvalidLocationException if a location is not in the valid range
+     */
+    public PoiColumns load(Path file, Charset charset, MissingLocationHandler missingLocationHandler) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, charset)) {
+            return load(reader, missingLocationHandler);
+        }
+    }
+
+    /**
+     * Loads the POIs from a reader. The reader is not closed.
+     *
+     * @param reader                 the reader to load from
+     * @param missingLocationHandler handler for rows without a valid location
+     * @return the loaded POIs, in the order of the rows
+     * @throws IOException              if the reader could not be read, or a row has too few columns
+     * @throws InvalidLocationException if a location is not in the valid range
+     */
+    public PoiColumns load(Reader reader, MissingLocationHandler missingLocationHandler) throws IOException {
+        return new Parser(missingLocationHandler).parse(reader);
+    }
+
+    /**
+     * The state of a single load, which collects the wanted fields of the current row.
+     */
+    private final class Parser {
+
+        private final MissingLocationHandler missingLocationHandler;
+        private final PoiColumns columns = new PoiColumns();
+
+        private final StringBuilder id = new StringBuilder();
+        private final StringBuilder lat = new StringBuilder();
+        private final StringBuilder lon = new StringBuilder();
+        private final StringBuilder ele = new StringBuilder();
+
+        private int line = 1;
+        private int column = 0;
+        private boolean rowIsEmpty = true;
+        private boolean fieldStart = true;
+        private boolean headerSkipped = !hasHeader;
+
+        Parser(MissingLocationHandler missingLocationHandler) {
+            this.missingLocationHandler = missingLocationHandler;
+        }
+
+        PoiColumns parse(Reader reader) throws IOException {
+            char[] buffer = new char[BUFFER_SIZE];
+            boolean inQuotes = false;
+            boolean quoteInQuotes = false;
+            boolean afterCarriageReturn = false;
+
+            boolean firstChar = true;
+            int count;
+            while ((count = reader.read(buffer)) >= 0) {
+                for (int i = 0; i < count; ++i) {
+                    char c = buffer[i];
+                    if (firstChar) {
+                        firstChar = false;
+                        if (c == BYTE_ORDER_MARK)
+                            continue;
+                    }
+
+                    if (quoteInQuotes) {
+                        quoteInQuotes = false;
+                        if (c == '"') {
+                            append(c);
+                            continue;
+                        }
+                        inQuotes = false;
+                    }
+
+                    if (inQuotes) {
+                        if (c == '"')
+                            quoteInQuotes = true;
+                        else
+                            append(c);
+                        continue;
+                    }
+
+                    boolean skipNewLine = afterCarriageReturn && c == '\n';
+                    afterCarriageReturn = c == '\r';
+                    if (skipNewLine)
+                        continue;
+
+                    if (c == '\r' || c == '\n') {
+                        endRow();
+                    } else if (c == delimiter) {
+                        ++column;
+                        rowIsEmpty = false;
+                        fieldStart = true;
+                    } else if (c == '"' && fieldStart) {
+                        inQuotes = true;
+                        rowIsEmpty = false;
+                        fieldStart = false;
+                    } else {
+                        append(c);
+                    }
+                }
+            }
+
+            if (!rowIsEmpty)
+                endRow();
+
+            columns.trim();
+            return columns;
+        }
+
+        private void append(char c) {
+            // Rows holding only white space, such as at the end of exported files, are skipped like empty rows.
+            if (!Character.isWhitespace(c))
+                rowIsEmpty = false;
+            fieldStart = false;
+            StringBuilder field = field();
+            if (field != null)
+                field.append(c);
+        }
+
+        @Nullable
+        private StringBuilder field() {
+            if (column == idColumn)
+                return id;
+            else if (column == latitudeColumn)
+                return lat;
+            else if (column == longitudeColumn)
+                return lon;
+            else if (column == elevationColumn)
+                return ele;
+            else
+                return null;
+        }
+
+        private void endRow() throws IOException {
+            try {
+                if (rowIsEmpty)
+                    return;
+
+                if (!headerSkipped) {
+                    headerSkipped = true;
+                    return;
+                }
+
+                if (column + 1 < requiredColumns)
+                    throw new IOException(String.format("Line %d has %d columns, but at least %d are required", line, column + 1, requiredColumns));
+
+                addRow();
+            } finally {
+                ++line;
+                column = 0;
+                rowIsEmpty = true;
+                fieldStart = true;
+                id.setLength(0);
+                lat.setLength(0);
+                lon.setLength(0);
+                ele.setLength(0);
+            }
+        }
+
+        private void addRow() {
+            if (isBlank(lat) || isBlank(lon)) {
+                missingLocationHandler.handle(id.toString(), null);
+                return;
+            }
+
+            double poiLat;
+            double poiLon;
+            double poiEle;
+            try {
+                poiLat = parseDouble(lat);
+                poiLon = parseDouble(lon);
+                poiEle = isBlank(ele) ? 0 : parseDouble(ele);
+            } catch (NumberFormatException e) {
+                missingLocationHandler.handle(id.toString(), e);
+                return;
+            }
+
+            if (!LocationUtility.validateLocation(poiLat, poiLon, poiEle))
+                throw new InvalidLocationException(String.format("%s has an invalid location", id));
+
+            columns.add(id, poiLat, poiLon, poiEle);
+        }
+
+        /**
+         * Parses a number without creating a string, unless it is in a form that needs {@link Double#parseDouble}.
+         */
+        private double parseDouble(StringBuilder field) {
+            double value = parseSimpleDouble(field);
+            return Double.isNaN(value) ? Double.parseDouble(field.toString()) : value;
+        }
+
+        /**
+         * Parses a plain decimal number, such as "-35.25" or "1.5e3", surrounded by optional white space.
+         *
+         * @return the number, which is the same as {@link Double#parseDouble} would return, or NaN if the number is in any
+         * other form or has too many significant digits to be parsed exactly
+         */
+        private double parseSimpleDouble(StringBuilder field) {
+            int start = 0;
+            int end = field.length();
+            while ((start < end) && (field.charAt(start) <= ' '))
+                ++start;
+            while ((end > start) && (field.charAt(end - 1) <= ' '))
+                --end;
+
+            int i = start;
+            boolean negative = false;
+            if ((i < end) && ((field.charAt(i) == '-') || (field.charAt(i) == '+')))
+                negative = field.charAt(i++) == '-';
+
+            long mantissa = 0;
+            int digits = 0;
+            int significantDigits = 0;
+            int scale = 0;
+            boolean afterPoint = false;
+            for (; i < end; ++i) {
+                char c = field.charAt(i);
+                if ((c >= '0') && (c <= '9')) {
+                    ++digits;
+                    if (afterPoint)
+                        --scale;
+                    if ((mantissa == 0) && (c == '0'))
+                        continue;
+                    if (++significantDigits > MAX_FAST_DIGITS)
+                        return Double.NaN;
+                    mantissa = mantissa * 10 + (c - '0');
+                } else if ((c == '.') && !afterPoint) {
+                    afterPoint = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0)
+                return Double.NaN;
+
+            if ((i < end) && ((field.charAt(i) == 'e') || (field.charAt(i) == 'E'))) {
+                ++i;
+                boolean negativeExponent = false;
+                if ((i < end) && ((field.charAt(i) == '-') || (field.charAt(i) == '+')))
+                    negativeExponent = field.charAt(i++) == '-';
+
+                int exponent = 0;
+                int exponentStart = i;
+                for (; (i < end) && (field.charAt(i) >= '0') && (field.charAt(i) <= '9'); ++i) {
+                    if (i - exponentStart >= 4)
+                        return Double.NaN;
+                    exponent = exponent * 10 + (field.charAt(i) - '0');
+                }
+                if (i == exponentStart)
+                    return Double.NaN;
+
+                scale += negativeExponent ? -exponent : exponent;
+            }
+            if (i != end)
+                return Double.NaN;
+
+            double value;
+            if (mantissa == 0)
+                value = 0;
+            else if ((scale >= 0) && (scale < POWERS_OF_TEN.length))
+                value = mantissa * POWERS_OF_TEN[scale];
+            else if ((scale < 0) && (-scale < POWERS_OF_TEN.length))
+                value = mantissa / POWERS_OF_TEN[-scale];
+            else
+                return Double.NaN;
+
+            return negative ? -value : value;
+        }
+
+        private boolean isBlank(StringBuilder field) {
+            for (int i = 0; i < field.length(); ++i) {
+                if (!Character.isWhitespace(field.charAt(i)))
+                    return false;
+            }
+            return true;
+        }
+
+    }
+
+    @EverythingIsNonnullByDefault
+    @SuppressWarnings("WeakerAccess")
+    public static final class Builder {
+
+        private char delimiter = ',';
+        private boolean hasHeader = true;
+        private int idColumn = 1;
+        private int latitudeColumn = 2;
+        private int longitudeColumn = 3;
+        private int elevationColumn = 4;
+
+        private Builder() {
+        }
+
+        /**
+         * @throws IllegalStateException if a location column is not set, or two columns have the same index
+         */
+        public CsvPoiLoader build() {
+            if (latitudeColumn == NO_COLUMN || longitudeColumn == NO_COLUMN)
+                throw new IllegalStateException("Could not create CsvPoiLoader instance: latitude and longitude columns are required.");
+
+            int[] indexes = {idColumn, latitudeColumn, longitudeColumn, elevationColumn};
+            for (int i = 0; i < indexes.length; ++i) {
+                for (int j = i + 1; j < indexes.length; ++j) {
+                    if (indexes[i] != NO_COLUMN && indexes[i] == indexes[j])
+                        throw new IllegalStateException("Could not create CsvPoiLoader instance: column " + indexes[i] + " is used twice.");
+                }
+            }
+
+            return new CsvPoiLoader(this);
+        }
+
+        public Builder delimiter(char delimiter) {
+            this.delimiter = delimiter;
+            return this;
+        }
+
+        /**
+         * @param hasHeader true if the first row holds column names and should be skipped
+         */
+        public Builder hasHeader(boolean hasHeader) {
+            this.hasHeader = hasHeader;
+            return this;
+        }
+
+        /**
+         * @param idColumn the zero based index of the ID column, or -1 for POIs without IDs
+         */
+        public Builder idColumn(int idColumn) {
+            this.idColumn = checkColumn(idColumn);
+            return this;
+        }
+
+        /**
+         * @param latitudeColumn the zero based index of the latitude column, in decimal degrees
+         */
+        public Builder latitudeColumn(int latitudeColumn) {
+            this.latitudeColumn = checkColumn(latitudeColumn);
+            return this;
+        }
+
+        /**
+         * @param longitudeColumn the zero based index of the longitude column, in decimal degrees
+         */
+        public Builder longitudeColumn(int longitudeColumn) {
+            this.longitudeColumn = checkColumn(longitudeColumn);
+            return this;
+        }
+
+        /**
+         * @param elevationColumn the zero based index of the elevation column in metres, or -1 if there is no elevation
+         */
+        public Builder elevationColumn(int elevationColumn) {
+            this.elevationColumn = checkColumn(elevationColumn);
+            return this;
+        }
+
+        private static int checkColumn(int column) {
+            if (column < NO_COLUMN)
+                throw new IllegalArgumentException("Column indexes must not be negative");
+
+            return column;
+        }
+
+    }
+
+}
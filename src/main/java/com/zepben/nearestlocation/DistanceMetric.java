@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Interface for the distance calculation used to rank POIs.
+ * <p>
+ * A metric converts each location into a fixed number of precalculated terms, such as the cosine of the latitude or an
+ * earth-centred vector, once per location. POIs are then ranked by comparing the terms of the query location with the
+ * terms of each POI, which avoids repeating the per-location work for every pair.
+ * <p>
+ * Ranks only need to increase with distance, so they do not have to be in metres. Use {@link #rankToMetres} and
+ * {@link #metresToRank} to convert between the two.
+ */
+@EverythingIsNonnullByDefault
+public interface DistanceMetric {
+
+    /**
+     * The Haversine distance considering the elevation difference between the locations, as calculated by
+     * {@link LocationUtility#calculateDistance}. This is the default metric.
+     *
+     * @return the Haversine distance metric
+     */
+    static DistanceMetric haversine() {
+        return HaversineMetric.INSTANCE;
+    }
+
+    /**
+     * The great circle distance along the surface of the earth, ignoring elevation. POIs are ranked using the Haversine
+     * formula without the final inverse trigonometric function.
+     *
+     * @return the great circle distance metric
+     */
+    static DistanceMetric greatCircle() {
+        return GreatCircleMetric.INSTANCE;
+    }
+
+    /**
+     * An equirectangular approximation of the distance, projected at the latitude of the query location, considering the
+     * elevation difference between the locations. Ranking only needs a few multiplications, but the distance is only
+     * accurate for locations that are close together and away from the poles.
+     *
+     * @return the equirectangular distance metric
+     */
+    static DistanceMetric equirectangular() {
+        return EquirectangularMetric.INSTANCE;
+    }
+
+    /**
+     * The straight line distance between the earth-centred, earth-fixed (ECEF) coordinates of the locations on a spherical
+     * earth, considering elevation. Ranking only needs a few multiplications.
+     *
+     * @return the ECEF chord distance metric
+     */
+    static DistanceMetric chord() {
+        return ChordMetric.INSTANCE;
+    }
+
+    /**
+     * @return the number of precalculated terms for each location
+     */
+    int termCount();
+
+    /**
+     * Precalculates the terms for a location.
+     *
+     * @param lat    Latitude of the location in degrees
+     * @param lon    Longitude of the location in degrees
+     * @param ele    Elevation of the location in metres
+     * @param terms  The array to store the terms in
+     * @param offset The index of the first term in the array
+     */
+    void computeTerms(double lat, double lon, double ele, double[] terms, int offset);
+
+    /**
+     * Ranks the distance between a query location and a POI using their precalculated terms.
+     *
+     * @param queryTerms  The terms of the query location
+     * @param queryOffset The index of the first term of the query location
+     * @param poiTerms    The terms of the POI
+     * @param poiOffset   The index of the first term of the POI
+     * @return a value that increases with the distance between the locations
+     */
+    double rank(double[] queryTerms, int queryOffset, double[] poiTerms, int poiOffset);
+
+    /**
+     * @param rank a value returned by {@link #rank}
+     * @return the distance in metres
+     */
+    double rankToMetres(double rank);
+
+    /**
+     * @param metres a distance in metres
+     * @return the largest rank of a location that is no further than the distance
+     */
+    double metresToRank(double metres);
+
+    /**
+     * Used by spatial indexes to prune the search.
+     *
+     * @param metres a distance in metres
+     * @return the largest central angle, in radians, between two locations that are no further apart than the distance
+     */
+    double maxCentralAngle(double metres);
+
+    /**
+     * Calculates the distance between two locations. This precalculates the terms for both locations, so prefer
+     * {@link #rank} with terms that are calculated once when comparing many locations.
+     *
+     * @param lat1 Latitude info for location 1
+     * @param lon1 Longitude info for location 1
+     * @param ele1 Elevation info for location 1
+     * @param lat2 Latitude info for location 2
+     * @param lon2 Longitude info for location 2
+     * @param ele2 Elevation info for location 2
+     * @return Distance in metres
+     */
+    default double distance(double lat1, double lon1, double ele1, double lat2, double lon2, double ele2) {
+        double[] terms = new double[2 * termCount()];
+        computeTerms(lat1, lon1, ele1, terms, 0);
+        computeTerms(lat2, lon2, ele2, terms, termCount());
+        return rankToMetres(rank(terms, 0, terms, termCount()));
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Ranks locations by their squared equirectangular distance, projected at the latitude of the query location. Terms are
+ * latitude and longitude in metres along the surface, elevation, and the cosine of the latitude.
+ */
+@EverythingIsNonnullByDefault
+final class EquirectangularMetric implements DistanceMetric {
+
+    static final EquirectangularMetric INSTANCE = new EquirectangularMetric();
+
+    private static final double HALF_CIRCUMFERENCE = Math.PI * UnitSphere.EARTH_RADIUS;
+
+    // For a projected distance d (in radians), the Haversine of the central angle is at most d * d * (2 + pi) / 4, so the
+    // central angle is at most 2 * asin(d * sqrt(2 + pi) / 2).
+    private static final double ANGLE_FACTOR = Math.sqrt(2 + Math.PI) / 2;
+
+    private EquirectangularMetric() {
+    }
+
+    @Override
+    public int termCount() {
+        return 4;
+    }
+
+    @Override
+    public void computeTerms(double lat, double lon, double ele, double[] terms, int offset) {
+        terms[offset] = Math.toRadians(lat) * UnitSphere.EARTH_RADIUS;
+        terms[offset + 1] = Math.toRadians(lon) * UnitSphere.EARTH_RADIUS;
+        terms[offset + 2] = ele;
+        terms[offset + 3] = Math.cos(Math.toRadians(lat));
+    }
+
+    @Override
+    public double rank(double[] queryTerms, int queryOffset, double[] poiTerms, int poiOffset) {
+        double y = poiTerms[poiOffset] - queryTerms[queryOffset];
+        double lonDistance = Math.abs(poiTerms[poiOffset + 1] - queryTerms[queryOffset + 1]);
+        if (lonDistance > HALF_CIRCUMFERENCE)
+            lonDistance = 2 * HALF_CIRCUMFERENCE - lonDistance;
+
+        double x = lonDistance * queryTerms[queryOffset + 3];
+        double height = poiTerms[poiOffset + 2] - queryTerms[queryOffset + 2];
+        return (x * x) + (y * y) + (height * height);
+    }
+
+    @Override
+    public double rankToMetres(double rank) {
+        return Math.sqrt(rank);
+    }
+
+    @Override
+    public double metresToRank(double metres) {
+        return metres * metres;
+    }
+
+    @Override
+    public double maxCentralAngle(double metres) {
+        double scaled = metres / UnitSphere.EARTH_RADIUS * ANGLE_FACTOR;
+        return scaled >= 1 ? Math.PI : 2 * Math.asin(scaled);
+    }
+
+    @Override
+    public String toString() {
+        return "equirectangular";
+    }
+
+}
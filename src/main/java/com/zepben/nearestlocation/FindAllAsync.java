@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs {@link NearestLocations#find} for a batch of entities on an executor, as a chunk of entities per task, and
+ * combines the results without blocking the calling thread.
+ */
+@EverythingIsNonnullByDefault
+final class FindAllAsync {
+
+    // Number of entities queried by each task. Small enough that a slow chunk does not hold a worker for long, large enough
+    // that the per-task overhead is negligible against the queries themselves.
+    static final int CHUNK_SIZE = 64;
+
+    static <T, U> CompletableFuture<Map<U, List<T>>> findAll(NearestLocations<T> nearestLocations,
+                                                             Collection<U> entities,
+                                                             LocationProvider<U> lcprEntity,
+                                                             int n,
+                                                             Executor executor) {
+        List<U> entityList = new ArrayList<>(entities);
+
+        @SuppressWarnings("unchecked")
+        List<T>[] results = (List<T>[]) new List<?>[entityList.size()];
+        CompletableFuture<?>[] chunks = new CompletableFuture<?>[(entityList.size() + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int c = 0; c < chunks.length; ++c) {
+            int lo = c * CHUNK_SIZE;
+            int hi = Math.min(lo + CHUNK_SIZE, entityList.size());
+            chunks[c] = CompletableFuture.runAsync(() -> {
+                for (int i = lo; i < hi; ++i)
+                    results[i] = nearestLocations.find(entityList.get(i), lcprEntity, n);
+            }, executor);
+        }
+
+        return CompletableFuture.allOf(chunks).thenApply(ignored -> {
+            Map<U, List<T>> resultMap = new LinkedHashMap<>();
+            for (int i = 0; i < results.length; ++i)
+                resultMap.put(entityList.get(i), results[i]);
+
+            return resultMap;
+        });
+    }
+
+    private FindAllAsync() {
+    }
+
+}
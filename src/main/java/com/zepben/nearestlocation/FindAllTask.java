@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task that runs {@link NearestLocations#find} for a range of entities, splitting the range in half until it is
+ * small enough to run on a single worker.
+ *
+ * @param <T> POI type
+ * @param <U> Entity type
+ */
+@EverythingIsNonnullByDefault
+final class FindAllTask<T, U> extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    // Number of tasks to create per worker thread, so that workers that finish early can steal work from slower ones.
+    private static final int TASKS_PER_WORKER = 8;
+
+    private final NearestLocations<T> nearestLocations;
+    private final List<U> entities;
+    private final LocationProvider<U> lcprEntity;
+    private final int n;
+    private final List<T>[] results;
+    private final int lo;
+    private final int hi;
+    private final int threshold;
+
+    FindAllTask(NearestLocations<T> nearestLocations,
+                List<U> entities,
+                LocationProvider<U> lcprEntity,
+                int n,
+                List<T>[] results,
+                int parallelism) {
+        this(nearestLocations,
+            entities,
+            lcprEntity,
+            n,
+            results,
+            0,
+            entities.size(),
+            Math.max(1, entities.size() / (parallelism * TASKS_PER_WORKER)));
+    }
+
+    private FindAllTask(NearestLocations<T> nearestLocations,
+                        List<U> entities,
+                        LocationProvider<U> lcprEntity,
+                        int n,
+                        List<T>[] results,
+                        int lo,
+                        int hi,
+                        int threshold) {
+        this.nearestLocations = nearestLocations;
+        this.entities = entities;
+        this.lcprEntity = lcprEntity;
+        this.n = n;
+        this.results = results;
+        this.lo = lo;
+        this.hi = hi;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected void compute() {
+        if (hi - lo <= threshold) {
+            for (int i = lo; i < hi; ++i)
+                results[i] = nearestLocations.find(entities.get(i), lcprEntity, n);
+        } else {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new FindAllTask<>(nearestLocations, entities, lcprEntity, n, results, lo, mid, threshold),
+                new FindAllTask<>(nearestLocations, entities, lcprEntity, n, results, mid, hi, threshold));
+        }
+    }
+
+}
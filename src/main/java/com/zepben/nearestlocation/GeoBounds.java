@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A latitude/longitude bounding box, used as the region of a {@link NearestLocationsShard}.
+ * <p>
+ * A box with a minimum longitude greater than its maximum longitude crosses the antimeridian, covering the longitudes from
+ * the minimum up to 180 and from -180 up to the maximum.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class GeoBounds {
+
+    // Scale applied to distance bounds so that rounding differences with the distance metrics never make a bound larger
+    // than the distance to a location inside the box.
+    private static final double SLACK = 1 - 1e-9;
+
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+
+    /**
+     * @throws IllegalArgumentException if a coordinate is not in the valid range, or the minimum latitude is greater than
+     *                                  the maximum latitude
+     */
+    public GeoBounds(double minLat, double minLon, double maxLat, double maxLon) {
+        if (!LocationUtility.validateLocation(minLat, minLon, 0) || !LocationUtility.validateLocation(maxLat, maxLon, 0))
+            throw new IllegalArgumentException("Bounds must be valid latitudes and longitudes");
+        if (minLat > maxLat)
+            throw new IllegalArgumentException("The minimum latitude must not be greater than the maximum latitude");
+
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * Finds the smallest box holding the valid locations of some POIs. The box never crosses the antimeridian.
+     *
+     * @param pois    the POIs to bound
+     * @param lcprPoi LocationProvider for the POIs
+     * @return the bounds of the POIs, or null if none of the POIs have a valid location
+     */
+    @Nullable
+    public static <T> GeoBounds of(Collection<T> pois, LocationProvider<T> lcprPoi) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (T poi : pois) {
+            if (!lcprPoi.hasLocation(poi))
+                continue;
+
+            double lat = lcprPoi.lat(poi);
+            double lon = lcprPoi.lon(poi);
+            if (!LocationUtility.validateLocation(lat, lon, 0))
+                continue;
+
+            minLat = Math.min(minLat, lat);
+            minLon = Math.min(minLon, lon);
+            maxLat = Math.max(maxLat, lat);
+            maxLon = Math.max(maxLon, lon);
+        }
+
+        if (minLat > maxLat)
+            return null;
+
+        return new GeoBounds(minLat, minLon, maxLat, maxLon);
+    }
+
+    public double minLat() {
+        return minLat;
+    }
+
+    public double minLon() {
+        return minLon;
+    }
+
+    public double maxLat() {
+        return maxLat;
+    }
+
+    public double maxLon() {
+        return maxLon;
+    }
+
+    public boolean contains(double lat, double lon) {
+        return (lat >= minLat) && (lat <= maxLat) && containsLon(lon);
+    }
+
+    /**
+     * Calculates a lower bound on the distance from a location to any location in the box. The bound is the length of the
+     * chord through the earth to the nearest point of the box, which is never more than the {@link DistanceMetric#haversine()},
+     * {@link DistanceMetric#greatCircle()} or {@link DistanceMetric#chord()} distance to a location in the box. The
+     * {@link DistanceMetric#equirectangular()} metric is an approximation, and can be less than the bound for locations
+     * that are far apart.
+     *
+     * @param lat Latitude of the location in degrees
+     * @param lon Longitude of the location in degrees
+     * @return the lower bound in metres, which is zero if the location is in the box
+     */
+    public double minDistance(double lat, double lon) {
+        double angle = minCentralAngle(lat, lon);
+        return 2 * UnitSphere.EARTH_RADIUS * Math.sin(angle / 2) * SLACK;
+    }
+
+    private double minCentralAngle(double lat, double lon) {
+        // Within the longitudes of the box, the nearest point is due north or south. Otherwise, it is on one of the meridian
+        // edges, as every other point of the box is further away in longitude.
+        if (containsLon(lon))
+            return Math.toRadians(Math.abs(lat - Math.max(minLat, Math.min(maxLat, lat))));
+
+        return Math.min(meridianAngle(lat, lon, minLon), meridianAngle(lat, lon, maxLon));
+    }
+
+    private double meridianAngle(double lat, double lon, double edgeLon) {
+        double nearest = Math.min(centralAngle(lat, lon, minLat, edgeLon), centralAngle(lat, lon, maxLat, edgeLon));
+
+        // The closest point to the location on the great circle through the edge. The distance along a great circle only
+        // increases away from this point, so if it is not on the edge, the nearest point of the edge is one of its ends.
+        double phi = Math.toRadians(lat);
+        double closestLat = Math.toDegrees(Math.atan2(Math.sin(phi), Math.cos(phi) * Math.cos(Math.toRadians(lon - edgeLon))));
+        if ((closestLat > minLat) && (closestLat < maxLat))
+            nearest = Math.min(nearest, centralAngle(lat, lon, closestLat, edgeLon));
+
+        return nearest;
+    }
+
+    private boolean containsLon(double lon) {
+        if (minLon <= maxLon)
+            return (lon >= minLon) && (lon <= maxLon);
+        else
+            return (lon >= minLon) || (lon <= maxLon);
+    }
+
+    private static double centralAngle(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = (sinLat * sinLat) + (Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon);
+        return 2 * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof GeoBounds))
+            return false;
+
+        GeoBounds bounds = (GeoBounds) o;
+        return (Double.compare(bounds.minLat, minLat) == 0)
+            && (Double.compare(bounds.minLon, minLon) == 0)
+            && (Double.compare(bounds.maxLat, maxLat) == 0)
+            && (Double.compare(bounds.maxLon, maxLon) == 0);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minLat, minLon, maxLat, maxLon);
+    }
+
+    @Override
+    public String toString() {
+        return "GeoBounds{minLat=" + minLat + ", minLon=" + minLon + ", maxLat=" + maxLat + ", maxLon=" + maxLon + '}';
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Ranks locations by the Haversine of their central angle, ignoring elevation. Terms are latitude and longitude in radians
+ * and the cosine of the latitude.
+ */
+@EverythingIsNonnullByDefault
+final class GreatCircleMetric implements DistanceMetric {
+
+    static final GreatCircleMetric INSTANCE = new GreatCircleMetric();
+
+    private GreatCircleMetric() {
+    }
+
+    @Override
+    public int termCount() {
+        return 3;
+    }
+
+    @Override
+    public void computeTerms(double lat, double lon, double ele, double[] terms, int offset) {
+        terms[offset] = Math.toRadians(lat);
+        terms[offset + 1] = Math.toRadians(lon);
+        terms[offset + 2] = Math.cos(Math.toRadians(lat));
+    }
+
+    @Override
+    public double rank(double[] queryTerms, int queryOffset, double[] poiTerms, int poiOffset) {
+        double sinLatDistance = Math.sin((poiTerms[poiOffset] - queryTerms[queryOffset]) / 2);
+        double sinLonDistance = Math.sin((poiTerms[poiOffset + 1] - queryTerms[queryOffset + 1]) / 2);
+        return (sinLatDistance * sinLatDistance)
+            + (queryTerms[queryOffset + 2] * poiTerms[poiOffset + 2] * (sinLonDistance * sinLonDistance));
+    }
+
+    @Override
+    public double rankToMetres(double rank) {
+        double a = Math.min(1, Math.max(0, rank));
+        return UnitSphere.EARTH_RADIUS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    @Override
+    public double metresToRank(double metres) {
+        double angle = metres / UnitSphere.EARTH_RADIUS;
+        if (angle >= Math.PI)
+            return Double.POSITIVE_INFINITY;
+
+        double sinHalfAngle = Math.sin(angle / 2);
+        return sinHalfAngle * sinHalfAngle;
+    }
+
+    @Override
+    public double maxCentralAngle(double metres) {
+        return Math.min(Math.PI, metres / UnitSphere.EARTH_RADIUS);
+    }
+
+    @Override
+    public String toString() {
+        return "great circle";
+    }
+
+}
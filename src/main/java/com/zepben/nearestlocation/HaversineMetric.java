@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Ranks locations by the squared distance from {@link LocationUtility#calculateSquaredDistance}, with the cosine of each
+ * latitude precalculated. Terms are latitude, longitude, elevation and the cosine of the latitude.
+ */
+@EverythingIsNonnullByDefault
+final class HaversineMetric implements DistanceMetric {
+
+    static final HaversineMetric INSTANCE = new HaversineMetric();
+
+    private HaversineMetric() {
+    }
+
+    @Override
+    public int termCount() {
+        return 4;
+    }
+
+    @Override
+    public void computeTerms(double lat, double lon, double ele, double[] terms, int offset) {
+        terms[offset] = lat;
+        terms[offset + 1] = lon;
+        terms[offset + 2] = ele;
+        terms[offset + 3] = Math.cos(Math.toRadians(lat));
+    }
+
+    @Override
+    public double rank(double[] queryTerms, int queryOffset, double[] poiTerms, int poiOffset) {
+        return LocationUtility.calculateSquaredDistance(queryTerms[queryOffset],
+            queryTerms[queryOffset + 1],
+            queryTerms[queryOffset + 2],
+            queryTerms[queryOffset + 3],
+            poiTerms[poiOffset],
+            poiTerms[poiOffset + 1],
+            poiTerms[poiOffset + 2],
+            poiTerms[poiOffset + 3]);
+    }
+
+    @Override
+    public double rankToMetres(double rank) {
+        return Math.sqrt(rank);
+    }
+
+    @Override
+    public double metresToRank(double metres) {
+        return metres * metres;
+    }
+
+    @Override
+    public double maxCentralAngle(double metres) {
+        // The surface distance can be no more than the total distance.
+        return Math.min(Math.PI, metres / UnitSphere.EARTH_RADIUS);
+    }
+
+    @Override
+    public String toString() {
+        return "haversine";
+    }
+
+}
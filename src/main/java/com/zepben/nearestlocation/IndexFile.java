@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary format of a k-d tree index written by {@link NearestLocationsStaticPoi#save} and read by
+ * {@link NearestLocationsMappedPoi}.
+ * <p>
+ * All values are little-endian. The file starts with a 32 byte header of six ints: the magic number, the format version,
+ * the number of POIs, the number of terms per POI, the number of tree nodes and the metric. It is followed by these
+ * sections, in order:
+ * <ul>
+ *     <li>the node bounding boxes, six doubles per node, as described by {@link KdTree#boxes}</li>
+ *     <li>the POI latitudes, in tree order</li>
+ *     <li>the POI longitudes, in tree order</li>
+ *     <li>the POI metric terms, in tree order</li>
+ *     <li>the original index of each POI, in tree order</li>
+ *     <li>the tree position of each POI, in original order</li>
+ *     <li>the offsets of the POI IDs in the ID data, in original order, with a final offset for the end of the data</li>
+ *     <li>the POI IDs, UTF-8 encoded</li>
+ * </ul>
+ */
+@EverythingIsNonnullByDefault
+final class IndexFile {
+
+    private static final int MAGIC = 0x494C4E46;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private static final DistanceMetric[] METRICS = {
+        DistanceMetric.haversine(),
+        DistanceMetric.greatCircle(),
+        DistanceMetric.equirectangular(),
+        DistanceMetric.chord()
+    };
+
+    final int size;
+    final int termCount;
+    final DistanceMetric metric;
+    final DoubleBuffer boxes;
+    final DoubleBuffer lats;
+    final DoubleBuffer lons;
+    final DoubleBuffer terms;
+    final IntBuffer order;
+    final IntBuffer positions;
+    private final IntBuffer idOffsets;
+    private final ByteBuffer ids;
+
+    /**
+     * Writes an index file, replacing any existing file.
+     *
+     * @param file      the file to write
+     * @param metric    the metric the terms were calculated with
+     * @param termCount the number of terms per POI
+     * @param boxes     the node bounding boxes
+     * @param lats      the POI latitudes in tree order
+     * @param lons      the POI longitudes in tree order
+     * @param terms     the POI metric terms in tree order
+     * @param order     the original index of each POI in tree order
+     * @param positions the tree position of each POI in original order
+     * @param ids       the POI IDs in original order
+     * @throws IllegalArgumentException if the metric is not one of the metrics provided by {@link DistanceMetric}, or the index
+     *                                  is too large for a single file mapping
+     * @throws IOException              if the file could not be written
+     */
+    static void write(Path file,
+                      DistanceMetric metric,
+                      int termCount,
+                      double[] boxes,
+                      double[] lats,
+                      double[] lons,
+                      double[] terms,
+                      int[] order,
+                      int[] positions,
+                      String[] ids) throws IOException {
+        int metricId = metricId(metric);
+        int size = lats.length;
+
+        byte[][] encodedIds = new byte[size][];
+        long idBytes = 0;
+        for (int i = 0; i < size; ++i) {
+            encodedIds[i] = ids[i].getBytes(StandardCharsets.UTF_8);
+            idBytes += encodedIds[i].length;
+        }
+
+        long fileSize = HEADER_SIZE
+            + 8L * (boxes.length + lats.length + lons.length + terms.length)
+            + 4L * (order.length + positions.length + size + 1)
+            + idBytes;
+        if (fileSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The index is too large to be written to a single file");
+
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(termCount).putInt(boxes.length / 6).putInt(metricId);
+            buffer.position(HEADER_SIZE);
+
+            for (double[] values : new double[][]{boxes, lats, lons, terms}) {
+                for (double value : values)
+                    buffer.putDouble(value);
+            }
+            for (int[] values : new int[][]{order, positions}) {
+                for (int value : values)
+                    buffer.putInt(value);
+            }
+
+            int offset = 0;
+            for (byte[] id : encodedIds) {
+                buffer.putInt(offset);
+                offset += id.length;
+            }
+            buffer.putInt(offset);
+
+            for (byte[] id : encodedIds)
+                buffer.put(id);
+
+            buffer.force();
+        }
+    }
+
+    /**
+     * Maps an index file into memory. The file must not be modified while the index is in use.
+     *
+     * @param file the file to map
+     * @return the mapped index
+     * @throws IOException if the file could not be read, or is not an index file
+     */
+    static IndexFile map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+                throw new IOException(String.format("%s is not a nearest location index", file));
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IndexFile(file, buffer);
+        }
+    }
+
+    private IndexFile(Path file, ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException(String.format("%s is not a nearest location index", file));
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException(String.format("%s has unsupported index version %d", file, buffer.getInt(4)));
+
+        size = buffer.getInt(8);
+        termCount = buffer.getInt(12);
+        int nodeCount = buffer.getInt(16);
+        int metricId = buffer.getInt(20);
+        if (size < 0 || nodeCount < 0 || metricId < 0 || metricId >= METRICS.length || METRICS[metricId].termCount() != termCount)
+            throw new IOException(String.format("%s has an invalid index header", file));
+        metric = METRICS[metricId];
+
+        try {
+            int position = HEADER_SIZE;
+            boxes = slice(buffer, position, 8L * 6 * nodeCount).asDoubleBuffer();
+            position += 8 * 6 * nodeCount;
+            lats = slice(buffer, position, 8L * size).asDoubleBuffer();
+            position += 8 * size;
+            lons = slice(buffer, position, 8L * size).asDoubleBuffer();
+            position += 8 * size;
+            terms = slice(buffer, position, 8L * size * termCount).asDoubleBuffer();
+            position += 8 * size * termCount;
+            order = slice(buffer, position, 4L * size).asIntBuffer();
+            position += 4 * size;
+            positions = slice(buffer, position, 4L * size).asIntBuffer();
+            position += 4 * size;
+            idOffsets = slice(buffer, position, 4L * (size + 1)).asIntBuffer();
+            position += 4 * (size + 1);
+            ids = slice(buffer, position, idOffsets.get(size));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(String.format("%s is truncated", file), e);
+        }
+    }
+
+    /**
+     * @param index the original index of a POI
+     * @return the ID of the POI
+     */
+    String id(int index) {
+        int start = idOffsets.get(index);
+        int end = idOffsets.get(index + 1);
+
+        byte[] bytes = new byte[end - start];
+        ByteBuffer id = ids.duplicate();
+        id.position(start);
+        id.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calculates the squared distance from a point to the bounding box of a node, as {@link KdTree#boxDistanceSquared}.
+     */
+    double boxDistanceSquared(int node, double x, double y, double z) {
+        int b = 6 * node;
+        double dx = axisDistance(x, boxes.get(b), boxes.get(b + 3));
+        double dy = axisDistance(y, boxes.get(b + 1), boxes.get(b + 4));
+        double dz = axisDistance(z, boxes.get(b + 2), boxes.get(b + 5));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double axisDistance(double value, double min, double max) {
+        if (value < min)
+            return min - value;
+        else if (value > max)
+            return value - max;
+        else
+            return 0;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, long length) {
+        if (length < 0 || position + length > buffer.capacity())
+            throw new IndexOutOfBoundsException();
+
+        ByteBuffer section = buffer.duplicate();
+        section.position(position);
+        section.limit(position + (int) length);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int metricId(DistanceMetric metric) {
+        for (int i = 0; i < METRICS.length; ++i) {
+            if (METRICS[i] == metric)
+                return i;
+        }
+        throw new IllegalArgumentException(String.format("Indexes can not be saved with the %s metric", metric));
+    }
+
+}
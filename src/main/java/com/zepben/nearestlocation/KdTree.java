@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Balanced k-d tree over 3D points, stored in flat arrays.
+ * <p>
+ * The tree uses implicit heap numbering: the root is node 1 covering points [0, size), and node i has children 2i and 2i + 1
+ * covering the lower and upper halves of its range. Nodes with {@link #LEAF_SIZE} or fewer points are leaves. Each node
+ * stores the tight bounding box of its points, which is used for pruning during searches.
+ */
+@EverythingIsNonnullByDefault
+final class KdTree {
+
+    static final int LEAF_SIZE = 8;
+
+    private final int size;
+    private final int[] order;
+    private final double[] boxes;
+
+    /**
+     * Builds the tree over the supplied points. The coordinate arrays are not modified.
+     *
+     * @param x the x coordinates of the points
+     * @param y the y coordinates of the points
+     * @param z the z coordinates of the points
+     */
+    KdTree(double[] x, double[] y, double[] z) {
+        size = x.length;
+        order = new int[size];
+        for (int i = 0; i < size; ++i)
+            order[i] = i;
+
+        boxes = new double[6 * nodeCount(size)];
+        if (size > 0)
+            build(1, 0, size, new double[][]{x, y, z});
+    }
+
+    /**
+     * @return the number of points in the tree
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the indexes of the supplied points in tree order
+     */
+    int[] order() {
+        return order;
+    }
+
+    /**
+     * @return the bounding boxes of the nodes, six values per node: min x, min y, min z, max x, max y, max z
+     */
+    double[] boxes() {
+        return boxes;
+    }
+
+    static boolean isLeaf(int lo, int hi) {
+        return hi - lo <= LEAF_SIZE;
+    }
+
+    static int mid(int lo, int hi) {
+        return (lo + hi) >>> 1;
+    }
+
+    /**
+     * Calculates the squared distance from a point to the bounding box of a node.
+     */
+    double boxDistanceSquared(int node, double x, double y, double z) {
+        int b = 6 * node;
+        double dx = axisDistance(x, boxes[b], boxes[b + 3]);
+        double dy = axisDistance(y, boxes[b + 1], boxes[b + 4]);
+        double dz = axisDistance(z, boxes[b + 2], boxes[b + 5]);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    static int nodeCount(int size) {
+        int depth = 0;
+        int count = size;
+        while (count > LEAF_SIZE) {
+            count = (count + 1) / 2;
+            ++depth;
+        }
+        return 1 << (depth + 1);
+    }
+
+    private static double axisDistance(double value, double min, double max) {
+        if (value < min)
+            return min - value;
+        else if (value > max)
+            return value - max;
+        else
+            return 0;
+    }
+
+    private void build(int node, int lo, int hi, double[][] coords) {
+        int b = 6 * node;
+        for (int d = 0; d < 3; ++d) {
+            boxes[b + d] = Double.POSITIVE_INFINITY;
+            boxes[b + 3 + d] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int i = lo; i < hi; ++i) {
+            int p = order[i];
+            for (int d = 0; d < 3; ++d) {
+                double value = coords[d][p];
+                if (value < boxes[b + d])
+                    boxes[b + d] = value;
+                if (value > boxes[b + 3 + d])
+                    boxes[b + 3 + d] = value;
+            }
+        }
+
+        if (isLeaf(lo, hi))
+            return;
+
+        int dim = 0;
+        for (int d = 1; d < 3; ++d) {
+            if (boxes[b + 3 + d] - boxes[b + d] > boxes[b + 3 + dim] - boxes[b + dim])
+                dim = d;
+        }
+
+        int mid = mid(lo, hi);
+        select(coords[dim], lo, hi - 1, mid);
+        build(2 * node, lo, mid, coords);
+        build(2 * node + 1, mid, hi, coords);
+    }
+
+    /**
+     * Partially sorts order[lo..hi] so that the point at position k is in its sorted position along the given axis.
+     */
+    private void select(double[] values, int lo, int hi, int k) {
+        while (hi > lo) {
+            int pivotIndex = mid(lo, hi);
+            double pivot = values[order[pivotIndex]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[order[i]] < pivot)
+                    ++i;
+                while (values[order[j]] > pivot)
+                    --j;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    ++i;
+                    --j;
+                }
+            }
+
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+}
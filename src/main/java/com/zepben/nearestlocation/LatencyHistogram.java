@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, that can be recorded from many threads without
+ * locking.
+ * <p>
+ * Values are counted in buckets with a fixed relative width, in the style of an HDR histogram: values below
+ * {@value #SUB_BUCKETS} have their own bucket, and each larger power of two is split into {@value #SUB_BUCKETS} buckets.
+ * Percentiles are therefore accurate to within 1/{@value #SUB_BUCKETS} of the value, for any range of values.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class LatencyHistogram {
+
+    /**
+     * The number of buckets each power of two is split into.
+     */
+    public static final int SUB_BUCKETS = 16;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKET_COUNT];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+            counts[i] = new LongAdder();
+    }
+
+    /**
+     * @param value the value to record. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts[bucket(v)].increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Copies the current counts. Values recorded while the snapshot is taken may or may not be included.
+     *
+     * @return a snapshot of the histogram
+     */
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshotCounts[i] = counts[i].sum();
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, sum.sum(), max.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * The counts of a {@link LatencyHistogram} at a point in time.
+     */
+    @EverythingIsNonnullByDefault
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of values recorded
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return the mean of the values recorded, or zero if there are none
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return the largest value recorded, or zero if there are none
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @param percentile the percentile to find, from 0 to 100
+         * @return the value that the given percentage of values are no larger than, rounded up to the top of its bucket, or
+         * zero if there are no values
+         * @throws IllegalArgumentException if the percentile is not between 0 and 100
+         */
+        public long percentile(double percentile) {
+            if (!((percentile >= 0) && (percentile <= 100)))
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            if (count == 0)
+                return 0;
+
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= target)
+                    return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{count=" + count + ", mean=" + mean() + ", p50=" + percentile(50) + ", p99=" + percentile(99) + ", max=" + max + '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link NearestLocationsShard} that searches an engine in this process.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class LocalNearestLocationsShard<T> implements NearestLocationsShard<T> {
+
+    // Queries are passed to the engine as {lat, lon, ele} arrays.
+    private static final LocationProvider<double[]> LCPR_QUERY = LocationProvider.<double[]>builder()
+        .latitudeProvider(location -> location[0])
+        .longitudeProvider(location -> location[1])
+        .elevationProvider(location -> location[2])
+        .build();
+
+    private final NearestLocations<T> nearestLocations;
+    @Nullable private final GeoBounds bounds;
+
+    /**
+     * Creates a shard over a {@link NearestLocationsStaticPoi} of the POIs, bounded by the box holding the POIs.
+     *
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public LocalNearestLocationsShard(Collection<T> poiCollection,
+                                      LocationProvider<T> lcprPoi,
+                                      MissingLocationHandler missingLocationHandler) {
+        this(new NearestLocationsStaticPoi<>(poiCollection, lcprPoi, missingLocationHandler), GeoBounds.of(poiCollection, lcprPoi));
+    }
+
+    /**
+     * @param nearestLocations the engine to search, which must support concurrent searches if the shard is searched
+     *                         concurrently
+     * @param bounds           a box holding every POI of the engine, or null if the engine has no POIs
+     */
+    public LocalNearestLocationsShard(NearestLocations<T> nearestLocations, @Nullable GeoBounds bounds) {
+        this.nearestLocations = nearestLocations;
+        this.bounds = bounds;
+    }
+
+    /**
+     * @return the box holding every POI of this shard, or null if it has no POIs
+     */
+    @Nullable
+    public GeoBounds bounds() {
+        return bounds;
+    }
+
+    @Override
+    public double minDistance(double lat, double lon) {
+        return bounds == null ? Double.POSITIVE_INFINITY : bounds.minDistance(lat, lon);
+    }
+
+    @Override
+    public List<Neighbour<T>> findNeighboursWithin(double lat, double lon, double ele, double radius, int maxN) {
+        double[] location = {lat, lon, ele};
+        if (radius == Double.POSITIVE_INFINITY)
+            return nearestLocations.findNeighbours(location, LCPR_QUERY, maxN);
+        else
+            return nearestLocations.findNeighboursWithin(location, LCPR_QUERY, radius, maxN);
+    }
+
+}
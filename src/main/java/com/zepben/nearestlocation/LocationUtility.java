@@ -57,13 +57,46 @@ public final class LocationUtility {
                                                   double lat2,
                                                   double lon2,
                                                   double ele2) {
+        return calculateSquaredDistance(lat1,
+            lon1,
+            ele1,
+            Math.cos(Math.toRadians(lat1)),
+            lat2,
+            lon2,
+            ele2,
+            Math.cos(Math.toRadians(lat2)));
+    }
+
+    /**
+     * Calculates squared distance between two locations using the Haversine method, with the cosine of each latitude
+     * precalculated by the caller. Returns exactly the same value as
+     * {@link #calculateSquaredDistance(double, double, double, double, double, double)}.
+     *
+     * @param lat1    Latitude info for location 1
+     * @param lon1    Longitude info for location 1
+     * @param ele1    Elevation info for location 1
+     * @param cosLat1 Cosine of the latitude of location 1 in radians
+     * @param lat2    Latitude info for location 2
+     * @param lon2    Longitude info for location 2
+     * @param ele2    Elevation info for location 2
+     * @param cosLat2 Cosine of the latitude of location 2 in radians
+     * @return Squared distance in square metres
+     */
+    static double calculateSquaredDistance(double lat1,
+                                           double lon1,
+                                           double ele1,
+                                           double cosLat1,
+                                           double lat2,
+                                           double lon2,
+                                           double ele2,
+                                           double cosLat2) {
         final double R = 6371008; //Earth's radius in metres
         double latDistance = Math.toRadians(lat2 - lat1);
         double lonDistance = Math.toRadians(lon2 - lon1);
         double sinLatDistance = Math.sin(latDistance / 2);
         double sinLonDistance = Math.sin(lonDistance / 2);
         double a = (sinLatDistance * sinLatDistance)
-            + (Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+            + (cosLat1 * cosLat2
             * (sinLonDistance * sinLonDistance));
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         double distance = R * c; // converting distance into metres
@@ -18,4 +18,15 @@ public interface MissingLocationHandler {
 
     void handle(String id, @Nullable Throwable cause);
 
+    /**
+     * Engines that read POI locations on every search, such as {@link NearestLocationsMovablePoi}, find the same POIs
+     * without a location on every search. Return false to have them report each of those POIs when the engine is created,
+     * or the first time it is found without a location, rather than on every search.
+     *
+     * @return true if POIs without a location should be reported on every search that finds them
+     */
+    default boolean repeatMissingPois() {
+        return true;
+    }
+
 }
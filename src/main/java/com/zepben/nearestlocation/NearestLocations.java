@@ -11,7 +11,12 @@ package com.zepben.nearestlocation;
 import com.zepben.annotations.EverythingIsNonnullByDefault;
 
 import javax.annotation.Nullable;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 @EverythingIsNonnullByDefault
 public interface NearestLocations<T> {
@@ -42,4 +47,285 @@ public interface NearestLocations<T> {
      */
     <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n);
 
+    /**
+     * Finds list of 'n' number of nearest POIs for an entity that are accepted by a filter. Exactly 'n' POIs are returned
+     * if at least that many POIs with a location are accepted.
+     * <p>
+     * By default, this searches for twice as many POIs each time until enough of them are accepted, only testing each POI
+     * once. Implementations that can check the filter while searching should override this.
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param n          number of POI to be found
+     * @param filter     accepts the POIs that can be found
+     * @return List of nearest accepted POIs, ordered from closest to furthest
+     */
+    default <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n, Predicate<? super T> filter) {
+        List<T> matches = new ArrayList<>();
+        if (n <= 0)
+            return matches;
+
+        // Each search starts with the POIs of the previous, smaller search, so only the new POIs are tested.
+        int tested = 0;
+        int count = n;
+        while (true) {
+            List<T> pois = find(entity, lcprEntity, count);
+            for (; tested < pois.size(); ++tested) {
+                if (filter.test(pois.get(tested))) {
+                    matches.add(pois.get(tested));
+                    if (matches.size() == n)
+                        return matches;
+                }
+            }
+
+            if ((pois.size() < count) || (count == Integer.MAX_VALUE))
+                return matches;
+
+            count = (int) Math.min(Integer.MAX_VALUE, 2L * count);
+        }
+    }
+
+    /**
+     * Finds list of all POIs within a distance of an entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param radius     the maximum distance in metres, as calculated by {@link LocationUtility#calculateDistance}
+     * @return List of POIs within the distance, ordered from closest to furthest
+     */
+    default <U> List<T> findWithin(U entity, LocationProvider<U> lcprEntity, double radius) {
+        return findWithin(entity, lcprEntity, radius, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds list of up to 'maxN' number of nearest POIs within a distance of an entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param radius     the maximum distance in metres, as calculated by {@link LocationUtility#calculateDistance}
+     * @param maxN       maximum number of POI to be found
+     * @return List of nearest POIs within the distance, ordered from closest to furthest
+     * @throws IllegalArgumentException      if the radius is negative
+     * @throws UnsupportedOperationException by default, if {@link #findNeighbours} is not supported
+     */
+    default <U> List<T> findWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        List<Neighbour<T>> neighbours = findNeighboursWithin(entity, lcprEntity, radius, maxN);
+        List<T> pois = new ArrayList<>(neighbours.size());
+        for (Neighbour<T> neighbour : neighbours)
+            pois.add(neighbour.poi());
+
+        return pois;
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for an entity, along with their distances from the entity
+     * <p>
+     * This interface can not measure the distance to a POI, so by default this is not supported. The other searches that
+     * return distances, or that are limited by a distance, use this by default, so implementations only need to override
+     * this to support all of them. Every implementation in this library overrides them all.
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param n          number of POI to be found
+     * @return List of nearest POIs and their distances in metres, ordered from closest to furthest
+     * @throws UnsupportedOperationException by default
+     */
+    default <U> List<Neighbour<T>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support searches that return distances");
+    }
+
+    /**
+     * Finds list of all POIs within a distance of an entity, along with their distances from the entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param radius     the maximum distance in metres
+     * @return List of POIs within the distance and their distances in metres, ordered from closest to furthest
+     */
+    default <U> List<Neighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius) {
+        return findNeighboursWithin(entity, lcprEntity, radius, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds list of up to 'maxN' number of nearest POIs within a distance of an entity, along with their distances from the
+     * entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param radius     the maximum distance in metres
+     * @param maxN       maximum number of POI to be found
+     * @return List of nearest POIs within the distance and their distances in metres, ordered from closest to furthest
+     * @throws IllegalArgumentException      if the radius is negative
+     * @throws UnsupportedOperationException by default, if {@link #findNeighbours} is not supported
+     */
+    default <U> List<Neighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Radius must not be negative");
+
+        List<Neighbour<T>> within = new ArrayList<>();
+        if (maxN <= 0)
+            return within;
+
+        // Each search finds twice as many POIs as the previous one, until one of them is beyond the radius. The POIs of
+        // the previous, smaller search were all within the radius, so only the new POIs are checked.
+        int count = Math.min(maxN, 16);
+        while (true) {
+            List<Neighbour<T>> neighbours = findNeighbours(entity, lcprEntity, count);
+            for (int i = within.size(); i < neighbours.size(); ++i) {
+                if (neighbours.get(i).distance() > radius)
+                    return within;
+
+                within.add(neighbours.get(i));
+            }
+
+            if ((neighbours.size() < count) || (count == maxN))
+                return within;
+
+            count = (int) Math.min(maxN, 2L * count);
+        }
+    }
+
+    /**
+     * Finds the nearest POIs for an entity and stores them, and their distances from the entity, in the supplied arrays.
+     * One POI is found for each element of the POI array, and no results are allocated, so the arrays can be reused between
+     * calls.
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param pois       Filled with the nearest POIs, ordered from closest to furthest
+     * @param distances  Filled with the distance in metres to each of the POIs. Must be at least as long as the POI array.
+     * @return the number of POIs that were found
+     * @throws IllegalArgumentException      if the distances array is shorter than the POI array
+     * @throws UnsupportedOperationException by default, if {@link #findNeighbours} is not supported
+     */
+    default <U> int find(U entity, LocationProvider<U> lcprEntity, T[] pois, double[] distances) {
+        if (distances.length < pois.length)
+            throw new IllegalArgumentException("The distances array must be at least as long as the POI array");
+
+        List<Neighbour<T>> neighbours = findNeighbours(entity, lcprEntity, pois.length);
+        for (int i = 0; i < neighbours.size(); ++i) {
+            pois[i] = neighbours.get(i).poi();
+            distances[i] = neighbours.get(i).distance();
+        }
+        return neighbours.size();
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for each of a collection of entities, splitting the work across the
+     * {@link ForkJoinPool#commonPool() common fork/join pool}.
+     *
+     * @param entities   Entities for which POIs have to be found
+     * @param lcprEntity LocationProvider for entities
+     * @param n          number of POI to be found for each entity
+     * @return Map of each entity to its list of nearest POIs, in the iteration order of the entities
+     * @see #findAll(Collection, LocationProvider, int, ForkJoinPool)
+     */
+    default <U> Map<U, List<T>> findAll(Collection<U> entities, LocationProvider<U> lcprEntity, int n) {
+        return findAll(entities, lcprEntity, n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for each of a collection of entities, splitting the work across the workers
+     * of a fork/join pool. This instance must support concurrent calls to {@link #find(Object, LocationProvider, int)}.
+     *
+     * @param entities   Entities for which POIs have to be found
+     * @param lcprEntity LocationProvider for entities
+     * @param n          number of POI to be found for each entity
+     * @param pool       The pool to run the queries on
+     * @return Map of each entity to its list of nearest POIs, in the iteration order of the entities
+     */
+    default <U> Map<U, List<T>> findAll(Collection<U> entities, LocationProvider<U> lcprEntity, int n, ForkJoinPool pool) {
+        List<U> entityList = new ArrayList<>(entities);
+
+        @SuppressWarnings("unchecked")
+        List<T>[] results = (List<T>[]) new List<?>[entityList.size()];
+        pool.invoke(new FindAllTask<>(this, entityList, lcprEntity, n, results, pool.getParallelism()));
+
+        Map<U, List<T>> resultMap = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; ++i)
+            resultMap.put(entityList.get(i), results[i]);
+
+        return resultMap;
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for an entity on the {@link ForkJoinPool#commonPool() common fork/join pool},
+     * without blocking the calling thread.
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param n          number of POI to be found
+     * @return Future completed with the list of nearest POIs, ordered from closest to furthest
+     * @see #findAsync(Object, LocationProvider, int, Executor)
+     */
+    default <U> CompletableFuture<List<T>> findAsync(U entity, LocationProvider<U> lcprEntity, int n) {
+        return findAsync(entity, lcprEntity, n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for an entity on an executor, without blocking the calling thread. This
+     * instance must support concurrent calls to {@link #find(Object, LocationProvider, int)}.
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param n          number of POI to be found
+     * @param executor   The executor to run the query on
+     * @return Future completed with the list of nearest POIs, ordered from closest to furthest, or exceptionally with any
+     * exception thrown by the query
+     */
+    default <U> CompletableFuture<List<T>> findAsync(U entity, LocationProvider<U> lcprEntity, int n, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> find(entity, lcprEntity, n), executor);
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for each of a collection of entities on the
+     * {@link ForkJoinPool#commonPool() common fork/join pool}, without blocking the calling thread.
+     *
+     * @param entities   Entities for which POIs have to be found
+     * @param lcprEntity LocationProvider for entities
+     * @param n          number of POI to be found for each entity
+     * @return Future completed with a map of each entity to its list of nearest POIs, in the iteration order of the entities
+     * @see #findAllAsync(Collection, LocationProvider, int, Executor)
+     */
+    default <U> CompletableFuture<Map<U, List<T>>> findAllAsync(Collection<U> entities, LocationProvider<U> lcprEntity, int n) {
+        return findAllAsync(entities, lcprEntity, n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for each of a collection of entities on an executor, without blocking the
+     * calling thread. The entities are queried in fixed size chunks, one task per chunk, so a large batch is interleaved
+     * with other work on the executor rather than holding its threads until the whole batch is done. This instance must
+     * support concurrent calls to {@link #find(Object, LocationProvider, int)}.
+     *
+     * @param entities   Entities for which POIs have to be found
+     * @param lcprEntity LocationProvider for entities
+     * @param n          number of POI to be found for each entity
+     * @param executor   The executor to run the queries on
+     * @return Future completed with a map of each entity to its list of nearest POIs, in the iteration order of the
+     * entities, or exceptionally with the first exception thrown by a query
+     */
+    default <U> CompletableFuture<Map<U, List<T>>> findAllAsync(Collection<U> entities,
+                                                                LocationProvider<U> lcprEntity,
+                                                                int n,
+                                                                Executor executor) {
+        return FindAllAsync.findAll(this, entities, lcprEntity, n, executor);
+    }
+
+    /**
+     * Finds list of 'k' number of nearest POIs for each of a collection of entities, passing each entity and its POIs to a
+     * consumer as they are found.
+     * <p>
+     * Entities are visited in an order that keeps entities that are close together next to each other, rather than in
+     * their iteration order, so that implementations can reuse the work done for one entity when searching for the next.
+     *
+     * @param entities   Entities for which POIs have to be found
+     * @param lcprEntity LocationProvider for entities
+     * @param k          number of POI to be found for each entity
+     * @param consumer   Called with each entity and its list of nearest POIs, ordered from closest to furthest
+     */
+    default <U> void join(Collection<U> entities, LocationProvider<U> lcprEntity, int k, BiConsumer<? super U, ? super List<T>> consumer) {
+        for (U entity : SpaceFillingCurve.sort(entities, lcprEntity))
+            consumer.accept(entity, find(entity, lcprEntity, k));
+    }
+
 }
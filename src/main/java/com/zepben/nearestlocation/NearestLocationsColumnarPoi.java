@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Finds the nearest POIs by scanning every POI, with the POI locations copied into primitive columns when the instance is
+ * created.
+ * <p>
+ * Each scan calculates the squared chord distance between the earth-centred unit vectors of the query and a block of POIs
+ * in a loop without branches, which the JIT compiler can vectorise, and only ranks the POIs in the block that could still
+ * be added to the result. Candidates are ranked using the {@link DistanceMetric} of the instance, so the results and their
+ * order match {@link NearestLocationsMovablePoi} for the same POIs and metric.
+ * <p>
+ * This suits small and medium collections of POIs, where building a spatial index is not worth the cost. POI locations are
+ * read once when the instance is created. POIs without a location are reported to the {@link MissingLocationHandler} at
+ * that time and are never returned.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsColumnarPoi<T> extends AbstractNearestLocations<T> {
+
+    private final int size;
+    private final IntFunction<? extends T> pois;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final double[] terms;
+    private final int termCount;
+    private final ValidationReport validationReport;
+
+    /**
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsColumnarPoi(Collection<T> poiCollection,
+                                       LocationProvider<T> lcprPoi,
+                                       MissingLocationHandler missingLocationHandler) {
+        this(poiCollection, lcprPoi, missingLocationHandler, DistanceMetric.haversine());
+    }
+
+    /**
+     * @param metric the metric used to rank POIs. The terms of each POI are calculated once when the instance is created.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsColumnarPoi(Collection<T> poiCollection,
+                                       LocationProvider<T> lcprPoi,
+                                       MissingLocationHandler missingLocationHandler,
+                                       DistanceMetric metric) {
+        this(poiCollection, lcprPoi, missingLocationHandler, metric, ValidationPolicy.THROW);
+    }
+
+    /**
+     * @param metric           the metric used to rank POIs. The terms of each POI are calculated once when the instance is
+     *                         created.
+     * @param validationPolicy what to do with POIs whose location is not in the valid range. See {@link #validationReport}.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range and the policy is
+     *                                  {@link ValidationPolicy#THROW}
+     */
+    public NearestLocationsColumnarPoi(Collection<T> poiCollection,
+                                       LocationProvider<T> lcprPoi,
+                                       MissingLocationHandler missingLocationHandler,
+                                       DistanceMetric metric,
+                                       ValidationPolicy validationPolicy) {
+        super(missingLocationHandler, metric);
+        long startNanos = System.nanoTime();
+
+        ValidatedPois<T> validated = new ValidatedPois<>(poiCollection, lcprPoi, missingLocationHandler, validationPolicy);
+        List<T> poiList = validated.pois;
+        validationReport = validated.report;
+
+        size = poiList.size();
+        pois = poiList::get;
+        termCount = metric.termCount();
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        terms = new double[size * termCount];
+        for (int i = 0; i < size; ++i) {
+            double lat = validated.lats[i];
+            double lon = validated.lons[i];
+            xs[i] = UnitSphere.x(lat, lon);
+            ys[i] = UnitSphere.y(lat, lon);
+            zs[i] = UnitSphere.z(lat);
+            metric.computeTerms(lat, lon, validated.eles[i], terms, i * termCount);
+        }
+
+        built(startNanos);
+    }
+
+    /**
+     * Creates an instance over POIs that are stored in columns, such as POIs loaded by {@link CsvPoiLoader}, without an
+     * object for each POI.
+     *
+     * @param columns                the POI locations
+     * @param poiFactory             creates the POI with an index in the columns when it is returned by a search, for example
+     *                               {@code columns::id}
+     * @param missingLocationHandler handler for entities without a location
+     * @param <T>                    POI type
+     * @return an instance that searches the POIs
+     */
+    public static <T> NearestLocationsColumnarPoi<T> of(PoiColumns columns,
+                                                        IntFunction<? extends T> poiFactory,
+                                                        MissingLocationHandler missingLocationHandler) {
+        return of(columns, poiFactory, missingLocationHandler, DistanceMetric.haversine());
+    }
+
+    /**
+     * Creates an instance over POIs that are stored in columns, such as POIs loaded by {@link CsvPoiLoader}, without an
+     * object for each POI.
+     *
+     * @param columns                the POI locations
+     * @param poiFactory             creates the POI with an index in the columns when it is returned by a search, for example
+     *                               {@code columns::id}
+     * @param missingLocationHandler handler for entities without a location
+     * @param metric                 the metric used to rank POIs
+     * @param <T>                    POI type
+     * @return an instance that searches the POIs
+     */
+    public static <T> NearestLocationsColumnarPoi<T> of(PoiColumns columns,
+                                                        IntFunction<? extends T> poiFactory,
+                                                        MissingLocationHandler missingLocationHandler,
+                                                        DistanceMetric metric) {
+        return new NearestLocationsColumnarPoi<>(columns, poiFactory, missingLocationHandler, metric);
+    }
+
+    private NearestLocationsColumnarPoi(PoiColumns columns,
+                                        IntFunction<? extends T> poiFactory,
+                                        MissingLocationHandler missingLocationHandler,
+                                        DistanceMetric metric) {
+        super(missingLocationHandler, metric);
+        long startNanos = System.nanoTime();
+
+        size = columns.size();
+        pois = poiFactory;
+        validationReport = new ValidationReport(ValidationPolicy.THROW, size, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        termCount = metric.termCount();
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        terms = new double[size * termCount];
+        for (int i = 0; i < size; ++i) {
+            double lat = columns.lat(i);
+            double lon = columns.lon(i);
+            xs[i] = UnitSphere.x(lat, lon);
+            ys[i] = UnitSphere.y(lat, lon);
+            zs[i] = UnitSphere.z(lat);
+            metric.computeTerms(lat, lon, columns.ele(i), terms, i * termCount);
+        }
+
+        built(startNanos);
+    }
+
+    /**
+     * @return the result of validating the POIs when the instance was created. Instances created from {@link PoiColumns}
+     * have a clean report, as the columns only hold valid locations.
+     */
+    public ValidationReport validationReport() {
+        return validationReport;
+    }
+
+    @Override
+    int poiCount() {
+        return size;
+    }
+
+    @Override
+    T poi(int index) {
+        return pois.apply(index);
+    }
+
+    @Override
+    double rank(NearestQuery query, int index) {
+        return query.rank(terms, index * termCount);
+    }
+
+    @Override
+    void search(NearestQuery query) {
+        double[] block = query.block;
+        double x = query.x;
+        double y = query.y;
+        double z = query.z;
+
+        for (int start = 0; start < size; start += NearestQuery.BLOCK_SIZE) {
+            int end = Math.min(size, start + NearestQuery.BLOCK_SIZE);
+
+            // Kept free of branches and calls so that it can be vectorised.
+            for (int i = start; i < end; ++i) {
+                double dx = xs[i] - x;
+                double dy = ys[i] - y;
+                double dz = zs[i] - z;
+                block[i - start] = dx * dx + dy * dy + dz * dz;
+            }
+
+            double maxChordSquared = query.maxChordSquared();
+            int offered = 0;
+            for (int i = start; i < end; ++i) {
+                if (block[i - start] <= maxChordSquared) {
+                    query.offer(terms, i * termCount, i);
+                    maxChordSquared = query.maxChordSquared();
+                    ++offered;
+                }
+            }
+            query.pruned += end - start - offered;
+        }
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Finds the nearest POIs using a bucketed grid that is kept up to date as POIs are added, removed and moved.
+ * <p>
+ * The grid divides the cube around the earth-centred unit sphere into cells of a fixed size, and each POI is kept in the
+ * bucket of the cell its location falls in. Queries visit the cells in rings of increasing distance around the query
+ * location, stopping once no remaining cell can hold a closer POI. Candidates are ranked using the {@link DistanceMetric} of
+ * the instance, with ties broken by the order the POIs were added.
+ * <p>
+ * POI locations are read when a POI is added and when it is reported as moved via {@link #moved}, so a moved POI only
+ * touches its own bucket. POIs without a location are reported to the {@link MissingLocationHandler} at those times and
+ * are never returned.
+ * <p>
+ * Queries can run concurrently with each other, but not with calls to {@link #add}, {@link #remove} or {@link #moved}.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsDynamicPoi<T> extends AbstractNearestLocations<T> {
+
+    /**
+     * The default width of a grid cell in metres.
+     */
+    public static final double DEFAULT_CELL_SIZE = 25000;
+
+    /**
+     * The smallest supported width of a grid cell in metres.
+     */
+    public static final double MIN_CELL_SIZE = 100;
+
+    private static final int CELL_BITS = 21;
+    private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+    private static final int CELL_OFFSET = 1 << (CELL_BITS - 1);
+
+    private final LocationProvider<T> lcprPoi;
+    private final double cellSize;
+    private final int maxRing;
+
+    private final Map<T, Slot<T>> slots = new HashMap<>();
+    private final Map<Long, Bucket<T>> buckets = new HashMap<>();
+
+    // Slots in the order they were added, with null entries for removed POIs. The position of a slot in this table is the
+    // index used to break ties between POIs at the same distance.
+    private Slot<?>[] table = new Slot<?>[16];
+    private int tableSize = 0;
+    private int removedCount = 0;
+    private volatile long version = 0;
+
+    public NearestLocationsDynamicPoi(Collection<T> poiCollection,
+                                      LocationProvider<T> lcprPoi,
+                                      MissingLocationHandler missingLocationHandler) {
+        this(poiCollection, lcprPoi, missingLocationHandler, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSizeMetres the width of a grid cell in metres. Smaller cells suit dense POIs, larger cells suit sparse POIs.
+     * @throws IllegalArgumentException if the cell size is smaller than {@link #MIN_CELL_SIZE}
+     * @throws InvalidLocationException  if the location of a POI is not in the valid range
+     */
+    public NearestLocationsDynamicPoi(Collection<T> poiCollection,
+                                      LocationProvider<T> lcprPoi,
+                                      MissingLocationHandler missingLocationHandler,
+                                      double cellSizeMetres) {
+        this(poiCollection, lcprPoi, missingLocationHandler, DistanceMetric.haversine(), cellSizeMetres);
+    }
+
+    /**
+     * @param metric         the metric used to rank POIs. The terms of each POI are calculated when it is added or moved.
+     * @param cellSizeMetres the width of a grid cell in metres. Smaller cells suit dense POIs, larger cells suit sparse POIs.
+     * @throws IllegalArgumentException if the cell size is smaller than {@link #MIN_CELL_SIZE}
+     * @throws InvalidLocationException  if the location of a POI is not in the valid range
+     */
+    public NearestLocationsDynamicPoi(Collection<T> poiCollection,
+                                      LocationProvider<T> lcprPoi,
+                                      MissingLocationHandler missingLocationHandler,
+                                      DistanceMetric metric,
+                                      double cellSizeMetres) {
+        super(missingLocationHandler, metric);
+        long startNanos = System.nanoTime();
+        if (!(cellSizeMetres >= MIN_CELL_SIZE))
+            throw new IllegalArgumentException(String.format("Cell size must be at least %.0f metres", MIN_CELL_SIZE));
+
+        this.lcprPoi = lcprPoi;
+        this.cellSize = cellSizeMetres / UnitSphere.EARTH_RADIUS;
+        this.maxRing = (int) Math.ceil(2 / cellSize) + 1;
+
+        poiCollection.forEach(this::add);
+        built(startNanos);
+    }
+
+    /**
+     * Adds a POI to the index.
+     *
+     * @param poi the POI to add
+     * @return true if the POI was added, false if it was already in the index
+     * @throws InvalidLocationException if the location of the POI is not in the valid range
+     */
+    public boolean add(T poi) {
+        if (slots.containsKey(poi))
+            return false;
+
+        Slot<T> slot = new Slot<>(poi, metric.termCount());
+        locate(slot);
+
+        if (tableSize == table.length)
+            table = Arrays.copyOf(table, table.length * 2);
+        slot.position = tableSize;
+        table[tableSize++] = slot;
+        slots.put(poi, slot);
+        ++version;
+
+        return true;
+    }
+
+    /**
+     * Removes a POI from the index.
+     *
+     * @param poi the POI to remove
+     * @return true if the POI was removed, false if it was not in the index
+     */
+    public boolean remove(T poi) {
+        Slot<T> slot = slots.remove(poi);
+        if (slot == null)
+            return false;
+
+        removeFromBucket(slot);
+        table[slot.position] = null;
+        if (++removedCount > tableSize / 2)
+            compact();
+
+        ++version;
+        return true;
+    }
+
+    /**
+     * Re-reads the location of a POI after it has moved. Only the bucket of the POI is updated.
+     *
+     * @param poi the POI that has moved
+     * @return true if the POI was updated, false if it was not in the index
+     * @throws InvalidLocationException if the new location of the POI is not in the valid range. The POI keeps its previous
+     *                                  location in this case.
+     */
+    public boolean moved(T poi) {
+        Slot<T> slot = slots.get(poi);
+        if (slot == null)
+            return false;
+
+        locate(slot);
+        ++version;
+        return true;
+    }
+
+    /**
+     * @return the number of POIs in the index, including POIs without a location
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    long version() {
+        return version;
+    }
+
+    @Override
+    int poiCount() {
+        return slots.size();
+    }
+
+    @Override
+    T poi(int index) {
+        return slotAt(index).poi;
+    }
+
+    @Override
+    double rank(NearestQuery query, int index) {
+        // A removed POI, or one without a location, can never be found, so it must never limit a search.
+        Slot<?> slot = index < tableSize ? table[index] : null;
+        if ((slot == null) || (slot.bucket == null))
+            return Double.POSITIVE_INFINITY;
+
+        return query.rank(slot.terms, 0);
+    }
+
+    @Override
+    void search(NearestQuery query) {
+        int qx = cell(query.x);
+        int qy = cell(query.y);
+        int qz = cell(query.z);
+
+        for (int ring = 0; ring <= maxRing; ++ring) {
+            // Every cell in the ring is at least (ring - 1) cells away from the cell holding the query location.
+            double ringDistance = Math.max(0, ring - 1) * cellSize;
+            if (ringDistance * ringDistance > query.maxChordSquared())
+                return;
+
+            long inner = 2L * ring - 1;
+            long outer = inner + 2;
+            if (outer * outer * outer - Math.max(0, inner * inner * inner) > buckets.size()) {
+                // The ring has more cells than there are occupied buckets, so it is cheaper to check every bucket that is
+                // outside the rings already visited.
+                for (Bucket<T> bucket : buckets.values()) {
+                    if (Math.max(Math.abs(bucket.x - qx), Math.max(Math.abs(bucket.y - qy), Math.abs(bucket.z - qz))) >= ring)
+                        searchBucket(bucket, query);
+                }
+                return;
+            }
+
+            for (int dx = -ring; dx <= ring; ++dx) {
+                for (int dy = -ring; dy <= ring; ++dy) {
+                    boolean onFace = (Math.abs(dx) == ring) || (Math.abs(dy) == ring);
+                    int step = onFace ? 1 : 2 * ring;
+                    for (int dz = -ring; dz <= ring; dz += step) {
+                        Bucket<T> bucket = buckets.get(key(qx + dx, qy + dy, qz + dz));
+                        if (bucket != null)
+                            searchBucket(bucket, query);
+                    }
+                }
+            }
+        }
+    }
+
+    private void searchBucket(Bucket<T> bucket, NearestQuery query) {
+        if (boxDistanceSquared(bucket, query) > query.maxChordSquared())
+            return;
+
+        for (Slot<T> slot : bucket.slots) {
+            if (query.mayBeAdded(slot.lat, slot.lon))
+                query.offer(slot.terms, 0, slot.position);
+        }
+    }
+
+    private double boxDistanceSquared(Bucket<T> bucket, NearestQuery query) {
+        double dx = axisDistance(query.x, bucket.x);
+        double dy = axisDistance(query.y, bucket.y);
+        double dz = axisDistance(query.z, bucket.z);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double axisDistance(double value, int cell) {
+        double min = cell * cellSize;
+        double max = min + cellSize;
+        if (value < min)
+            return min - value;
+        else if (value > max)
+            return value - max;
+        else
+            return 0;
+    }
+
+    private void locate(Slot<T> slot) {
+        T poi = slot.poi;
+        if (!lcprPoi.hasLocation(poi)) {
+            removeFromBucket(slot);
+            missingLocation(lcprPoi.id(poi));
+            return;
+        }
+
+        double lat = lcprPoi.lat(poi);
+        double lon = lcprPoi.lon(poi);
+        double ele = lcprPoi.ele(poi);
+        if (!LocationUtility.validateLocation(lat, lon, ele))
+            throw new InvalidLocationException(String.format("%s has an invalid location", lcprPoi.id(poi)));
+
+        int x = cell(UnitSphere.x(lat, lon));
+        int y = cell(UnitSphere.y(lat, lon));
+        int z = cell(UnitSphere.z(lat));
+        long key = key(x, y, z);
+
+        slot.lat = lat;
+        slot.lon = lon;
+        metric.computeTerms(lat, lon, ele, slot.terms, 0);
+
+        if ((slot.bucket != null) && (slot.bucket.key == key))
+            return;
+
+        removeFromBucket(slot);
+        Bucket<T> bucket = buckets.computeIfAbsent(key, k -> new Bucket<>(k, x, y, z));
+        slot.bucket = bucket;
+        slot.bucketPosition = bucket.slots.size();
+        bucket.slots.add(slot);
+    }
+
+    private void removeFromBucket(Slot<T> slot) {
+        Bucket<T> bucket = slot.bucket;
+        if (bucket == null)
+            return;
+
+        Slot<T> last = bucket.slots.remove(bucket.slots.size() - 1);
+        if (last != slot) {
+            bucket.slots.set(slot.bucketPosition, last);
+            last.bucketPosition = slot.bucketPosition;
+        }
+
+        if (bucket.slots.isEmpty())
+            buckets.remove(bucket.key);
+
+        slot.bucket = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Slot<T> slotAt(int position) {
+        return (Slot<T>) Objects.requireNonNull(table[position]);
+    }
+
+    private void compact() {
+        int count = 0;
+        for (int i = 0; i < tableSize; ++i) {
+            Slot<?> slot = table[i];
+            if (slot != null) {
+                slot.position = count;
+                table[count++] = slot;
+            }
+        }
+        Arrays.fill(table, count, tableSize, null);
+        tableSize = count;
+        removedCount = 0;
+    }
+
+    private int cell(double value) {
+        return (int) Math.floor(value / cellSize);
+    }
+
+    private static long key(int x, int y, int z) {
+        return (((x + CELL_OFFSET) & CELL_MASK) << (2 * CELL_BITS))
+            | (((y + CELL_OFFSET) & CELL_MASK) << CELL_BITS)
+            | ((z + CELL_OFFSET) & CELL_MASK);
+    }
+
+    private static final class Slot<T> {
+
+        final T poi;
+        final double[] terms;
+        double lat;
+        double lon;
+        int position;
+        @Nullable Bucket<T> bucket;
+        int bucketPosition;
+
+        Slot(T poi, int termCount) {
+            this.poi = poi;
+            this.terms = new double[termCount];
+        }
+
+    }
+
+    private static final class Bucket<T> {
+
+        final long key;
+        final int x;
+        final int y;
+        final int z;
+        final List<Slot<T>> slots = new ArrayList<>();
+
+        Bucket(long key, int x, int y, int z) {
+            this.key = key;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+    }
+
+}
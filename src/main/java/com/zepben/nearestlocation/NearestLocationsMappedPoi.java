@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Finds the nearest POIs using a k-d tree index file written by {@link NearestLocationsStaticPoi#save}.
+ * <p>
+ * The file is memory-mapped when it is opened and searches read the tree, locations and metric terms directly from the
+ * mapping, so opening an index does not read or rebuild the tree. The results and their order match the
+ * {@link NearestLocationsStaticPoi} the index was saved from. The POIs in the results are found by their ID, as returned by
+ * {@link LocationProvider#id} when the index was saved, when they are returned.
+ * <p>
+ * The index file must not be modified while it is open. The mapping is released when the instance is garbage collected.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsMappedPoi<T> extends AbstractNearestLocations<T> {
+
+    private final IndexFile index;
+    private final Function<String, ? extends T> poiById;
+
+    /**
+     * Opens an index file, finding the POIs in the results by their ID in a collection.
+     *
+     * @param file                   the index file
+     * @param poiCollection          the POIs the index was saved from
+     * @param lcprPoi                LocationProvider for POI, used to find each POI by its ID
+     * @param missingLocationHandler handler for entities without a location
+     * @param <T>                    POI type
+     * @return the opened index
+     * @throws IllegalArgumentException if the ID of a POI is the same as the ID of another POI
+     * @throws IOException              if the file could not be read, or is not an index file
+     */
+    public static <T> NearestLocationsMappedPoi<T> open(Path file,
+                                                        Collection<T> poiCollection,
+                                                        LocationProvider<T> lcprPoi,
+                                                        MissingLocationHandler missingLocationHandler) throws IOException {
+        Map<String, T> poisById = new HashMap<>();
+        for (T poi : poiCollection) {
+            String id = lcprPoi.id(poi);
+            T previous = poisById.putIfAbsent(id, poi);
+            if ((previous != null) && !previous.equals(poi))
+                throw new IllegalArgumentException(String.format("%s is the ID of more than one POI", id));
+        }
+
+        return open(file, poisById::get, missingLocationHandler);
+    }
+
+    /**
+     * Opens an index file, finding the POIs in the results with a function.
+     *
+     * @param file                   the index file
+     * @param poiById                finds the POI with an ID. Returning null for an ID in the index is an error.
+     * @param missingLocationHandler handler for entities without a location
+     * @param <T>                    POI type
+     * @return the opened index
+     * @throws IOException if the file could not be read, or is not an index file
+     */
+    public static <T> NearestLocationsMappedPoi<T> open(Path file,
+                                                        Function<String, ? extends T> poiById,
+                                                        MissingLocationHandler missingLocationHandler) throws IOException {
+        long startNanos = System.nanoTime();
+        return new NearestLocationsMappedPoi<>(IndexFile.map(file), poiById, missingLocationHandler, startNanos);
+    }
+
+    private NearestLocationsMappedPoi(IndexFile index,
+                                      Function<String, ? extends T> poiById,
+                                      MissingLocationHandler missingLocationHandler,
+                                      long startNanos) {
+        super(missingLocationHandler, index.metric);
+        this.index = index;
+        this.poiById = poiById;
+        built(startNanos);
+    }
+
+    /**
+     * @return the number of POIs in the index
+     */
+    public int size() {
+        return index.size;
+    }
+
+    @Override
+    int poiCount() {
+        return index.size;
+    }
+
+    /**
+     * @throws IllegalStateException if the POI with the ID stored in the index could not be found
+     */
+    @Override
+    T poi(int i) {
+        String id = index.id(i);
+        T poi = poiById.apply(id);
+        if (poi == null)
+            throw new IllegalStateException(String.format("%s is in the index but could not be found", id));
+
+        return poi;
+    }
+
+    @Override
+    double rank(NearestQuery query, int i) {
+        return query.rank(index.terms, index.positions.get(i) * index.termCount);
+    }
+
+    @Override
+    void search(NearestQuery query) {
+        search(1, 0, index.size, query);
+    }
+
+    private void search(int node, int lo, int hi, NearestQuery query) {
+        if (KdTree.isLeaf(lo, hi)) {
+            for (int i = lo; i < hi; ++i) {
+                if (query.mayBeAdded(index.lats.get(i), index.lons.get(i)))
+                    query.offer(index.terms, i * index.termCount, index.order.get(i));
+            }
+            return;
+        }
+
+        int mid = KdTree.mid(lo, hi);
+        int left = 2 * node;
+        int right = left + 1;
+        double leftDistance = index.boxDistanceSquared(left, query.x, query.y, query.z);
+        double rightDistance = index.boxDistanceSquared(right, query.x, query.y, query.z);
+
+        if (leftDistance <= rightDistance) {
+            if (leftDistance <= query.maxChordSquared())
+                search(left, lo, mid, query);
+            if (rightDistance <= query.maxChordSquared())
+                search(right, mid, hi, query);
+        } else {
+            if (rightDistance <= query.maxChordSquared())
+                search(right, mid, hi, query);
+            if (leftDistance <= query.maxChordSquared())
+                search(left, lo, mid, query);
+        }
+    }
+
+}
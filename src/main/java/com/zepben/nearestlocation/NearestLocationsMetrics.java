@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Receives measurements of the work done by the {@link NearestLocations} engines in this package. Attach an instance to an
+ * engine with {@code metrics(NearestLocationsMetrics)}.
+ * <p>
+ * Methods are called on the searching threads, so implementations must be thread safe and should return quickly. All
+ * methods do nothing by default.
+ *
+ * @see RecordingNearestLocationsMetrics
+ */
+@EverythingIsNonnullByDefault
+public interface NearestLocationsMetrics {
+
+    /**
+     * @return metrics that ignore every measurement
+     */
+    static NearestLocationsMetrics none() {
+        return NoNearestLocationsMetrics.INSTANCE;
+    }
+
+    /**
+     * Called after each search for an entity with a location.
+     *
+     * @param nanos               the time taken by the search in nanoseconds
+     * @param poisExamined        the number of POIs considered by the search, which is the sum of the distance evaluations
+     *                            and the pruned POIs
+     * @param distanceEvaluations the number of POIs ranked using the distance metric
+     * @param pruned              the number of POIs skipped by a cheaper check without being ranked. POIs in parts of an index
+     *                            that were skipped entirely are not counted.
+     */
+    default void query(long nanos, int poisExamined, int distanceEvaluations, int pruned) {
+    }
+
+    /**
+     * Called each time a search, or an update of a {@link NearestLocationsDynamicPoi}, finds an entity or POI without a
+     * location, before it is passed to the {@link MissingLocationHandler}. POIs without a location found while an index is
+     * built are not reported, as the metrics are attached afterwards.
+     */
+    default void missingLocation() {
+    }
+
+    /**
+     * Called when the metrics are attached to an engine that builds an index over its POIs.
+     *
+     * @param nanos the time taken to build the index in nanoseconds
+     * @param size  the number of POIs in the index
+     */
+    default void indexBuilt(long nanos, int size) {
+    }
+
+}
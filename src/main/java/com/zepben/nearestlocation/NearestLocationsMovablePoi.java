@@ -10,75 +10,98 @@ package com.zepben.nearestlocation;
 
 import com.zepben.annotations.EverythingIsNonnullByDefault;
 
-import java.util.*;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
 
 import static java.util.stream.Collectors.toList;
 
 @EverythingIsNonnullByDefault
 @SuppressWarnings("WeakerAccess")
-public class NearestLocationsMovablePoi<T> implements NearestLocations<T> {
-
-    private final MissingLocationHandler missingLocationHandler;
+public class NearestLocationsMovablePoi<T> extends AbstractNearestLocations<T> {
 
     private LocationProvider<T> lcprPoi;
     private List<T> poiList;
 
+    // The POIs that have been reported without a location, or null if they are reported on every search. Searches on other
+    // threads may not see a POI as reported yet, which only causes it to be reported again.
+    @Nullable
+    private final boolean[] reported;
+
     public NearestLocationsMovablePoi(Collection<T> poiCollection,
                                       LocationProvider<T> lcprPoi,
                                       MissingLocationHandler missingLocationHandler) {
-        this.poiList = poiCollection.stream().distinct().collect(toList());
-        this.lcprPoi = lcprPoi;
-        this.missingLocationHandler = missingLocationHandler;
+        this(poiCollection, lcprPoi, missingLocationHandler, DistanceMetric.haversine());
     }
 
     /**
-     * {@inheritDoc}
-     *
-     * @throws InvalidLocationException if location value is not in given range
+     * @param metric the metric used to rank POIs. POI locations can change between queries, so the terms of each POI are
+     *               calculated on every query.
      */
-    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n) {
-        NavigableMap<Double, List<T>> distToPoisMap = new TreeMap<>();
-
-        if (lcprEntity.hasLocation(entity)) {
-            double entityLat = lcprEntity.lat(entity);
-            double entityLon = lcprEntity.lon(entity);
-            double entityEle = lcprEntity.ele(entity);
+    public NearestLocationsMovablePoi(Collection<T> poiCollection,
+                                      LocationProvider<T> lcprPoi,
+                                      MissingLocationHandler missingLocationHandler,
+                                      DistanceMetric metric) {
+        super(missingLocationHandler, metric);
+        this.poiList = poiCollection.stream().distinct().collect(toList());
+        this.lcprPoi = lcprPoi;
 
-            if (!LocationUtility.validateLocation(entityLat, entityLon, entityEle)) {
-                throw new InvalidLocationException();
+        if (missingLocationHandler.repeatMissingPois()) {
+            reported = null;
+        } else {
+            reported = new boolean[poiList.size()];
+            for (int i = 0; i < poiList.size(); ++i) {
+                if (!lcprPoi.hasLocation(poiList.get(i)))
+                    report(i);
             }
+        }
+    }
 
-            for (T poi : poiList) {
-                if (lcprPoi.hasLocation(poi)) {
-                    double poiLat = lcprPoi.lat(poi);
-                    double poiLon = lcprPoi.lon(poi);
-                    double poiEle = lcprPoi.ele(poi);
-
-                    if (!LocationUtility.validateLocation(poiLat, poiLon, poiEle)) {
-                        throw new InvalidLocationException();
-                    }
-
-                    double squaredDistance = LocationUtility.calculateSquaredDistance(entityLat,
-                        entityLon,
-                        entityEle,
-                        poiLat,
-                        poiLon,
-                        poiEle);
-
-                    if (distToPoisMap.size() < n || squaredDistance <= distToPoisMap.lastKey()) {
-                        distToPoisMap.computeIfAbsent(squaredDistance, k -> new ArrayList<>()).add(poi);
-                        if (distToPoisMap.size() > n)
-                            distToPoisMap.pollLastEntry();
-                    }
-                } else {
-                    missingLocationHandler.handle(lcprPoi.id(poi), null);
+    @Override
+    int poiCount() {
+        return poiList.size();
+    }
+
+    @Override
+    T poi(int index) {
+        return poiList.get(index);
+    }
+
+    @Override
+    double rank(NearestQuery query, int index) {
+        T poi = poiList.get(index);
+        if (!lcprPoi.hasLocation(poi))
+            return Double.POSITIVE_INFINITY;
+
+        return query.rank(lcprPoi.lat(poi), lcprPoi.lon(poi), lcprPoi.ele(poi));
+    }
+
+    @Override
+    void search(NearestQuery query) {
+        for (int i = 0; i < poiList.size(); ++i) {
+            T poi = poiList.get(i);
+            if (lcprPoi.hasLocation(poi)) {
+                double poiLat = lcprPoi.lat(poi);
+                double poiLon = lcprPoi.lon(poi);
+                double poiEle = lcprPoi.ele(poi);
+
+                if (!LocationUtility.validateLocation(poiLat, poiLon, poiEle)) {
+                    throw new InvalidLocationException();
                 }
+
+                if (query.mayBeAdded(poiLat, poiLon))
+                    query.offer(poiLat, poiLon, poiEle, i);
+            } else if ((reported == null) || !reported[i]) {
+                report(i);
             }
-            return distToPoisMap.values().stream().flatMap(Collection::stream).limit(n).collect(toList());
-        } else {
-            missingLocationHandler.handle(lcprEntity.id(entity), null);
-            return Collections.emptyList();
         }
     }
 
+    private void report(int index) {
+        if (reported != null)
+            reported[index] = true;
+
+        missingLocation(lcprPoi.id(poiList.get(index)));
+    }
+
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.*;
+
+/**
+ * Finds the nearest POIs across a set of shards, such as one shard for each state or each tile of a dataset.
+ * <p>
+ * Each search visits the shards in order of the lower bound on their distance from the entity, and asks each shard for its
+ * nearest POIs within the distance of the furthest result found so far. Once that result is no further than the bound of
+ * the next shard, none of the remaining shards can hold a closer POI, so they are skipped. The partial results of the shards
+ * are merged into a single list, with ties resolved in favour of the shard that was searched first.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsPartitionedPoi<T> implements NearestLocations<T> {
+
+    private final List<NearestLocationsShard<T>> shards;
+    private final MissingLocationHandler missingLocationHandler;
+
+    /**
+     * @param shards                 the shards to search. Each POI should be held by only one shard.
+     * @param missingLocationHandler handles entities without a location
+     */
+    public NearestLocationsPartitionedPoi(Collection<? extends NearestLocationsShard<T>> shards,
+                                          MissingLocationHandler missingLocationHandler) {
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.missingLocationHandler = missingLocationHandler;
+    }
+
+    /**
+     * @return the shards that are searched
+     */
+    public List<NearestLocationsShard<T>> shards() {
+        return shards;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n) {
+        return pois(search(entity, lcprEntity, n, Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the radius is negative
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<T> findWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return pois(search(entity, lcprEntity, maxN, radius));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<Neighbour<T>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+        return search(entity, lcprEntity, n, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the radius is negative
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> List<Neighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return search(entity, lcprEntity, maxN, radius);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> int find(U entity, LocationProvider<U> lcprEntity, T[] pois, double[] distances) {
+        List<Neighbour<T>> neighbours = search(entity, lcprEntity, pois.length, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < neighbours.size(); ++i) {
+            pois[i] = neighbours.get(i).poi();
+            distances[i] = neighbours.get(i).distance();
+        }
+        return neighbours.size();
+    }
+
+    private <U> List<Neighbour<T>> search(U entity, LocationProvider<U> lcprEntity, int n, double radius) {
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Radius must not be negative");
+
+        if (!lcprEntity.hasLocation(entity)) {
+            missingLocationHandler.handle(lcprEntity.id(entity), null);
+            return Collections.emptyList();
+        }
+
+        double lat = lcprEntity.lat(entity);
+        double lon = lcprEntity.lon(entity);
+        double ele = lcprEntity.ele(entity);
+
+        if (!LocationUtility.validateLocation(lat, lon, ele))
+            throw new InvalidLocationException();
+
+        if (n <= 0)
+            return Collections.emptyList();
+
+        int[] order = new int[shards.size()];
+        double[] bounds = new double[shards.size()];
+        int count = 0;
+        for (int i = 0; i < shards.size(); ++i) {
+            // Shards without POIs report an infinite bound, and are never searched.
+            double bound = shards.get(i).minDistance(lat, lon);
+            if ((bound <= radius) && (bound < Double.POSITIVE_INFINITY)) {
+                order[count] = i;
+                bounds[i] = bound;
+                ++count;
+            }
+        }
+        sortByBound(order, count, bounds);
+
+        List<Neighbour<T>> results = Collections.emptyList();
+        for (int i = 0; i < count; ++i) {
+            double limit = radius;
+            if (results.size() == n) {
+                limit = Math.min(limit, results.get(n - 1).distance());
+                if (bounds[order[i]] >= limit)
+                    break;
+            }
+
+            results = merge(results, shards.get(order[i]).findNeighboursWithin(lat, lon, ele, limit, n), n);
+        }
+
+        return results;
+    }
+
+    /**
+     * Sorts the first 'count' shard indexes by their bounds, keeping shards with the same bound in their original order.
+     */
+    private static void sortByBound(int[] order, int count, double[] bounds) {
+        for (int i = 1; i < count; ++i) {
+            int shard = order[i];
+            int j = i;
+            while ((j > 0) && (bounds[order[j - 1]] > bounds[shard])) {
+                order[j] = order[j - 1];
+                --j;
+            }
+            order[j] = shard;
+        }
+    }
+
+    /**
+     * Merges two lists of neighbours ordered from closest to furthest, keeping the 'n' closest. Neighbours of the first list
+     * come before neighbours of the second list at the same distance.
+     */
+    private static <T> List<Neighbour<T>> merge(List<Neighbour<T>> first, List<Neighbour<T>> second, int n) {
+        if (second.isEmpty())
+            return first;
+
+        List<Neighbour<T>> merged = new ArrayList<>(Math.min(n, first.size() + second.size()));
+        int i = 0;
+        int j = 0;
+        while ((merged.size() < n) && ((i < first.size()) || (j < second.size()))) {
+            if ((j == second.size()) || ((i < first.size()) && (first.get(i).distance() <= second.get(j).distance())))
+                merged.add(first.get(i++));
+            else
+                merged.add(second.get(j++));
+        }
+        return merged;
+    }
+
+    private static <T> List<T> pois(List<Neighbour<T>> neighbours) {
+        List<T> pois = new ArrayList<>(neighbours.size());
+        for (Neighbour<T> neighbour : neighbours)
+            pois.add(neighbour.poi());
+        return pois;
+    }
+
+}
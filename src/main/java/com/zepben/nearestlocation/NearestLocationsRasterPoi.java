@@ -0,0 +1,465 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Finds the nearest POI using a precalculated raster of latitude and longitude cells, falling back to a k-d tree for
+ * searches that need more than one POI.
+ * <p>
+ * The raster starts with cells of 45 degrees, which are split into quarters until the POIs nearest to the centre of each
+ * cell are guaranteed to contain the nearest POI to every location in the cell, or until the raster reaches its size
+ * limit. Cells away from the boundaries between the areas served by each POI stay large, while cells along the boundaries
+ * are split further, and cells far from every POI stop being split once they are small compared to their distance from the
+ * POIs. A grid over the POIs at a single depth of the raster lets lookups skip the coarser cells. Finding the nearest POI
+ * then only finds the cell holding the query location and ranks its candidates, nearest to the centre of the cell first,
+ * until no other POI can be closer. Building the raster takes considerably longer than building the k-d tree alone.
+ * <p>
+ * Results are always exact. Each cell records how far its candidates are guaranteed to cover, and searches whose nearest
+ * candidate is further away than that, for example because of a large elevation difference or a cell that reached the size
+ * limit, continue in the k-d tree from the nearest candidate. Results and their order match
+ * {@link NearestLocationsMovablePoi} for the same POIs and metric.
+ * <p>
+ * POI locations are read once when the instance is created. POIs without a location are reported to the
+ * {@link MissingLocationHandler} at that time and are never returned.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsRasterPoi<T> extends AbstractNearestLocations<T> {
+
+    /**
+     * The number of POIs nearest to the centre of a cell that are stored as its candidates.
+     */
+    public static final int CANDIDATES = 8;
+
+    private static final int ROOT_COLUMNS = 8;
+    private static final int ROOT_ROWS = 4;
+    private static final double ROOT_SIZE = 45;
+    private static final int MAX_DEPTH = 24;
+    private static final double FAR_RATIO = 8;
+
+    // Slack removed from the angles that cells are guaranteed to cover, so that rounding never makes a search stop early.
+    private static final double RELATIVE_SLACK = 1e-9;
+    private static final double ABSOLUTE_SLACK = 1e-12;
+
+    private final NearestLocationsStaticPoi<T> tree;
+
+    // For each cell, the index of its first child cell, or the bitwise complement of its index in the leaf arrays.
+    private final int[] cells;
+    private final int[] candidates;
+    private final int[] candidateCounts;
+
+    // For each candidate, the smallest central angle from any location in its cell to a POI that is not one of the candidates
+    // before it.
+    private final float[] coveredAngles;
+
+    // A grid over the POIs at a single depth of the raster, holding the cell at that depth for each grid cell, so that
+    // lookups near the POIs can skip the coarser cells.
+    private final int[] grid;
+    private final double gridSize;
+    private final int gridRow;
+    private final int gridColumn;
+    private final int gridRows;
+    private final int gridColumns;
+
+    /**
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsRasterPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler) {
+        this(poiCollection, lcprPoi, missingLocationHandler, DistanceMetric.haversine());
+    }
+
+    /**
+     * @param metric the metric used to rank POIs
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsRasterPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler,
+                                     DistanceMetric metric) {
+        this(poiCollection, lcprPoi, missingLocationHandler, metric, -1);
+    }
+
+    /**
+     * @param metric   the metric used to rank POIs
+     * @param maxCells the largest number of cells in the raster, or a negative value to use a limit of 16 cells per POI plus 1024.
+     *                 Searches in cells that could not be split further fall back to the k-d tree more often.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsRasterPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler,
+                                     DistanceMetric metric,
+                                     int maxCells) {
+        this(poiCollection, lcprPoi, missingLocationHandler, metric, maxCells, ValidationPolicy.THROW);
+    }
+
+    /**
+     * @param metric           the metric used to rank POIs
+     * @param maxCells         the largest number of cells in the raster, or a negative value to use the default limit
+     * @param validationPolicy what to do with POIs whose location is not in the valid range. See {@link #validationReport}.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range and the policy is
+     *                                  {@link ValidationPolicy#THROW}
+     */
+    public NearestLocationsRasterPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler,
+                                     DistanceMetric metric,
+                                     int maxCells,
+                                     ValidationPolicy validationPolicy) {
+        super(missingLocationHandler, metric);
+        long startNanos = System.nanoTime();
+        tree = new NearestLocationsStaticPoi<>(poiCollection, lcprPoi, missingLocationHandler, metric, validationPolicy);
+
+        int size = tree.poiCount();
+        int cellLimit = Math.max(ROOT_COLUMNS * ROOT_ROWS, maxCells < 0 ? (int) Math.min(Integer.MAX_VALUE, 1024L + 16L * size) : maxCells);
+
+        Builder builder = new Builder(size, cellLimit);
+        cells = builder.cells.toArray();
+        candidates = builder.candidates.toArray();
+        candidateCounts = builder.candidateCounts.toArray();
+        coveredAngles = Arrays.copyOf(builder.coveredAngles, builder.leafCount * CANDIDATES);
+
+        if (size > 0) {
+            double south = 90, north = -90, west = 180, east = -180;
+            for (int i = 0; i < size; ++i) {
+                double lat = tree.lat(i);
+                double lon = tree.lon(i);
+                south = Math.min(south, lat);
+                north = Math.max(north, lat);
+                west = Math.min(west, lon);
+                east = Math.max(east, lon);
+            }
+
+            // Use the finest depth that needs no more grid cells than there are POIs.
+            int depth = 0;
+            while ((depth < MAX_DEPTH) && (gridCells(south, north, west, east, ROOT_SIZE / (1 << (depth + 1))) <= Math.max(64, size)))
+                ++depth;
+
+            gridSize = ROOT_SIZE / (1 << depth);
+            gridRow = row(south, gridSize);
+            gridColumn = column(west, gridSize);
+            gridRows = row(north, gridSize) - gridRow + 1;
+            gridColumns = column(east, gridSize) - gridColumn + 1;
+            grid = new int[gridRows * gridColumns];
+            for (int row = 0; row < gridRows; ++row) {
+                for (int column = 0; column < gridColumns; ++column) {
+                    double lat = (gridRow + row + 0.5) * gridSize - 90;
+                    double lon = (gridColumn + column + 0.5) * gridSize - 180;
+                    grid[row * gridColumns + column] = cell(lat, lon, depth);
+                }
+            }
+        } else {
+            gridSize = ROOT_SIZE;
+            gridRow = 0;
+            gridColumn = 0;
+            gridRows = 0;
+            gridColumns = 0;
+            grid = new int[0];
+        }
+
+        built(startNanos);
+    }
+
+    /**
+     * Evaluates a filter for every POI, and records which nodes of the underlying tree hold a POI that matches. Searches with
+     * a filter always use the tree, and skip the nodes without any matches when the filter is the returned attribute.
+     *
+     * @param predicate the filter to evaluate
+     * @return the evaluated filter
+     */
+    public PoiAttribute<T> attribute(Predicate<? super T> predicate) {
+        return tree.attribute(predicate);
+    }
+
+    /**
+     * @return the result of validating the POIs when the raster was built
+     */
+    public ValidationReport validationReport() {
+        return tree.validationReport();
+    }
+
+    /**
+     * @return the number of cells in the raster that hold candidates
+     */
+    public int cellCount() {
+        return candidateCounts.length;
+    }
+
+    @Override
+    int poiCount() {
+        return tree.poiCount();
+    }
+
+    @Override
+    T poi(int index) {
+        return tree.poi(index);
+    }
+
+    @Override
+    double rank(NearestQuery query, int index) {
+        return tree.rank(query, index);
+    }
+
+    @Override
+    IntPredicate indexFilter(Predicate<? super T> filter) {
+        return tree.indexFilter(filter);
+    }
+
+    @Nullable
+    @Override
+    BitSet filterNodes(Predicate<? super T> filter) {
+        return tree.filterNodes(filter);
+    }
+
+    @Override
+    void search(NearestQuery query) {
+        // The candidates of each cell are the nearest of all POIs, so they can not answer searches with a filter.
+        if ((query.heap.capacity() == 1) && (candidateCounts.length > 0) && (query.filter == null)) {
+            int leaf = leaf(query.lat, query.lon);
+            int offset = leaf * CANDIDATES;
+            for (int i = 0; i < candidateCounts[leaf]; ++i) {
+                int index = candidates[offset + i];
+                query.heap.offer(tree.rank(query, index), index);
+
+                // Every POI after this candidate is further than the covered angle from the query location, so none of them
+                // can be closer than the bound of the heap.
+                double bound = query.heap.bound();
+                if ((bound < Double.POSITIVE_INFINITY) && (metric.maxCentralAngle(metric.rankToMetres(bound)) < coveredAngles[offset + i]))
+                    return;
+            }
+        }
+
+        tree.search(query);
+    }
+
+    private int leaf(double lat, double lon) {
+        int row = row(lat, gridSize) - gridRow;
+        int column = column(lon, gridSize) - gridColumn;
+        if ((row >= 0) && (row < gridRows) && (column >= 0) && (column < gridColumns)) {
+            int cell = grid[row * gridColumns + column];
+            return cell < 0 ? ~cell : ~descend(cell, lat, lon, (gridRow + row) * gridSize - 90, (gridColumn + column) * gridSize - 180, gridSize, MAX_DEPTH);
+        }
+
+        return ~cell(lat, lon, MAX_DEPTH);
+    }
+
+    /**
+     * @return the cell holding a location at the given depth, or the complement of the leaf holding it if that is shallower
+     */
+    private int cell(double lat, double lon, int depth) {
+        int row = row(lat, ROOT_SIZE);
+        int column = column(lon, ROOT_SIZE);
+        return descend(cells[row * ROOT_COLUMNS + column], lat, lon, row * ROOT_SIZE - 90, column * ROOT_SIZE - 180, ROOT_SIZE, depth);
+    }
+
+    private int descend(int cell, double lat, double lon, double south, double west, double size, int depth) {
+        for (int i = 0; (i < depth) && (cell >= 0); ++i) {
+            size /= 2;
+            int quadrant = 0;
+            if (lat >= south + size) {
+                south += size;
+                quadrant += 2;
+            }
+            if (lon >= west + size) {
+                west += size;
+                quadrant += 1;
+            }
+            cell = cells[cell + quadrant];
+        }
+        return cell;
+    }
+
+    private static int row(double lat, double size) {
+        return Math.min((int) (180 / size) - 1, (int) ((lat + 90) / size));
+    }
+
+    private static int column(double lon, double size) {
+        return Math.min((int) (360 / size) - 1, (int) ((lon + 180) / size));
+    }
+
+    private static long gridCells(double south, double north, double west, double east, double size) {
+        return (long) (row(north, size) - row(south, size) + 1) * (column(east, size) - column(west, size) + 1);
+    }
+
+    /**
+     * @return the largest central angle from the centre of a cell to any location in it. A location can be reached by
+     * moving along the meridian of the centre to its latitude, then along its parallel, which is never shorter than the
+     * great circle path.
+     */
+    private static double cellRadius(double south, double size) {
+        double north = south + size;
+        double minAbsLat = (south <= 0) && (north >= 0) ? 0 : Math.min(Math.abs(south), Math.abs(north));
+        return Math.toRadians(size / 2) * (1 + Math.cos(Math.toRadians(minAbsLat)));
+    }
+
+    /**
+     * Splits the raster breadth first, so that cells are split evenly when the size limit is reached.
+     */
+    private final class Builder {
+
+        private final IntList cells = new IntList();
+        private final IntList candidates = new IntList();
+        private final IntList candidateCounts = new IntList();
+        private float[] coveredAngles = new float[16 * CANDIDATES];
+        private int leafCount = 0;
+
+        Builder(int size, int cellLimit) {
+            if (size == 0)
+                return;
+
+            // Angles are measured along the surface, with a tree over the POI indexes so that the raster does not depend on
+            // the metric.
+            double[] lats = new double[size];
+            double[] lons = new double[size];
+            for (int i = 0; i < size; ++i) {
+                lats[i] = tree.lat(i);
+                lons[i] = tree.lon(i);
+            }
+            LocationProvider<Integer> lcprIndex = LocationProvider.<Integer>builder()
+                .latitudeProvider(i -> lats[i])
+                .longitudeProvider(i -> lons[i])
+                .elevationProvider(i -> 0)
+                .idProvider(String::valueOf)
+                .hasLocationProvider(i -> true)
+                .build();
+            List<Integer> indexes = IntStream.range(0, size).boxed().collect(toList());
+            NearestLocationsStaticPoi<Integer> surface = new NearestLocationsStaticPoi<>(indexes, lcprIndex, missingLocationHandler, DistanceMetric.greatCircle());
+
+            LocationProvider<double[]> lcprCentre = LocationProvider.<double[]>builder()
+                .latitudeProvider(c -> c[0])
+                .longitudeProvider(c -> c[1])
+                .elevationProvider(c -> 0)
+                .idProvider(c -> Arrays.toString(c))
+                .hasLocationProvider(c -> true)
+                .build();
+
+            List<double[]> level = new ArrayList<>();
+            for (int row = 0; row < ROOT_ROWS; ++row) {
+                for (int column = 0; column < ROOT_COLUMNS; ++column) {
+                    cells.add(0);
+                    level.add(new double[]{row * ROOT_SIZE - 90, column * ROOT_SIZE - 180, ROOT_SIZE});
+                }
+            }
+
+            int first = 0;
+            for (int depth = 0; !level.isEmpty(); ++depth) {
+                List<double[]> next = new ArrayList<>();
+                for (int i = 0; i < level.size(); ++i) {
+                    double[] bounds = level.get(i);
+                    double south = bounds[0];
+                    double west = bounds[1];
+                    double cellSize = bounds[2];
+
+                    double[] centre = {south + cellSize / 2, west + cellSize / 2};
+                    List<Neighbour<Integer>> nearest = surface.findNeighbours(centre, lcprCentre, CANDIDATES + 1);
+                    double radius = cellRadius(south, cellSize);
+                    double nearestAngle = nearest.get(0).distance() / UnitSphere.EARTH_RADIUS;
+                    double covered = covered(nearest, CANDIDATES, radius);
+
+                    // Split the cell unless the nearest candidate to every location in it is within the covered angle. Cells far
+                    // from every POI are not split once they are small compared to that distance, as the covered angle there is
+                    // only a little further than the nearest POI, and searches that far away are rare.
+                    boolean split = (nearestAngle + radius >= covered)
+                        && (radius * FAR_RATIO > nearestAngle)
+                        && (depth < MAX_DEPTH)
+                        && (cells.size() + next.size() + 4 <= cellLimit);
+                    if (split) {
+                        cells.set(first + i, cells.size() + next.size());
+                        double half = cellSize / 2;
+                        next.add(new double[]{south, west, half});
+                        next.add(new double[]{south, west + half, half});
+                        next.add(new double[]{south + half, west, half});
+                        next.add(new double[]{south + half, west + half, half});
+                    } else {
+                        cells.set(first + i, ~leafCount);
+                        addLeaf(nearest, radius);
+                    }
+                }
+
+                first = cells.size();
+                for (int i = 0; i < next.size(); ++i)
+                    cells.add(0);
+                level = next;
+            }
+        }
+
+        private void addLeaf(List<Neighbour<Integer>> nearest, double radius) {
+            int count = Math.min(CANDIDATES, nearest.size());
+            if ((leafCount + 1) * CANDIDATES > coveredAngles.length)
+                coveredAngles = Arrays.copyOf(coveredAngles, 2 * coveredAngles.length);
+
+            for (int i = 0; i < CANDIDATES; ++i) {
+                candidates.add(i < count ? nearest.get(i).poi() : 0);
+                coveredAngles[leafCount * CANDIDATES + i] = i < count ? lowerFloat(covered(nearest, i + 1, radius)) : 0;
+            }
+            candidateCounts.add(count);
+            ++leafCount;
+        }
+
+        /**
+         * @return the smallest central angle from any location in a cell to a POI that is not one of the first candidates
+         */
+        private double covered(List<Neighbour<Integer>> nearest, int candidateCount, double radius) {
+            if (nearest.size() <= candidateCount)
+                return Double.POSITIVE_INFINITY;
+
+            return (nearest.get(candidateCount).distance() / UnitSphere.EARTH_RADIUS) * (1 - RELATIVE_SLACK) - ABSOLUTE_SLACK - radius;
+        }
+
+        private float lowerFloat(double value) {
+            float rounded = (float) value;
+            return rounded > value ? Math.nextDown(rounded) : rounded;
+        }
+
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = value;
+        }
+
+        void set(int index, int value) {
+            values[index] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.List;
+
+/**
+ * A part of the POIs searched by a {@link NearestLocationsPartitionedPoi}.
+ * <p>
+ * Shards are searched by location rather than by entity, so the query and its results can be sent to a shard held in
+ * another process. All of the shards of a partitioned engine must report distances in the same metric, and must support
+ * concurrent searches if the engine is searched concurrently.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+public interface NearestLocationsShard<T> {
+
+    /**
+     * Calculates a lower bound on the distance from a location to any POI in this shard. Shards are searched in order of
+     * this bound, and are skipped once it is further than the results found so far, so it must never be greater than the
+     * distance to a POI in the shard.
+     *
+     * @param lat Latitude of the location in degrees
+     * @param lon Longitude of the location in degrees
+     * @return the lower bound in metres, or infinity if the shard has no POIs
+     */
+    double minDistance(double lat, double lon);
+
+    /**
+     * Finds up to 'maxN' number of nearest POIs within a distance of a location, along with their distances from the
+     * location.
+     *
+     * @param lat    Latitude of the location in degrees
+     * @param lon    Longitude of the location in degrees
+     * @param ele    Elevation of the location in metres
+     * @param radius the maximum distance in metres, which may be infinite
+     * @param maxN   maximum number of POI to be found
+     * @return List of nearest POIs within the distance and their distances in metres, ordered from closest to furthest
+     */
+    List<Neighbour<T>> findNeighboursWithin(double lat, double lon, double ele, double radius, int maxN);
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Finds the nearest POIs in an immutable snapshot of the POIs, which can be replaced while searches are running.
+ * <p>
+ * Each search reads the current snapshot once and runs against it without locking, so searches always see a complete set
+ * of POIs and never wait for {@link #replace}. Replacing the POIs builds a new snapshot and then publishes it atomically.
+ * Searches that started before the new snapshot was published finish against the old snapshot. Bulk searches, such as
+ * {@link #findAll}, {@link #findAllAsync} and {@link #join}, use a single snapshot for all of their entities.
+ * <p>
+ * By default, snapshots are {@link NearestLocationsStaticPoi} instances, which support concurrent searches.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsSnapshotPoi<T> implements NearestLocations<T> {
+
+    private final Function<Collection<T>, ? extends NearestLocations<T>> snapshotFactory;
+    private final AtomicReference<NearestLocations<T>> snapshot;
+    private final Object writeLock = new Object();
+    private volatile long version = 0;
+
+    /**
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsSnapshotPoi(Collection<T> poiCollection,
+                                       LocationProvider<T> lcprPoi,
+                                       MissingLocationHandler missingLocationHandler) {
+        this(poiCollection, pois -> new NearestLocationsStaticPoi<>(pois, lcprPoi, missingLocationHandler));
+    }
+
+    /**
+     * @param poiCollection   the initial POIs
+     * @param snapshotFactory builds a snapshot from a collection of POIs. Snapshots must support concurrent searches, and
+     *                        must not change after they are built.
+     */
+    public NearestLocationsSnapshotPoi(Collection<T> poiCollection, Function<Collection<T>, ? extends NearestLocations<T>> snapshotFactory) {
+        this.snapshotFactory = snapshotFactory;
+        this.snapshot = new AtomicReference<>(snapshotFactory.apply(new ArrayList<>(poiCollection)));
+    }
+
+    /**
+     * Replaces all of the POIs. The new snapshot is built on the calling thread before it is published, and searches can
+     * continue against the current snapshot in the meantime. Concurrent calls publish their snapshots in the order they
+     * were called.
+     *
+     * @param poiCollection the new POIs. The collection is copied, so it can be changed after this returns.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range. The current snapshot is kept.
+     */
+    public void replace(Collection<T> poiCollection) {
+        List<T> pois = new ArrayList<>(poiCollection);
+        synchronized (writeLock) {
+            snapshot.set(snapshotFactory.apply(pois));
+            ++version;
+        }
+    }
+
+    /**
+     * Use this to run several searches against the same set of POIs.
+     *
+     * @return the current snapshot
+     */
+    public NearestLocations<T> snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return a number that changes each time the POIs are replaced. It changes after the new snapshot is published, so a
+     * search that started after reading a version sees the POIs of that version or a later one.
+     */
+    long version() {
+        return version;
+    }
+
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n) {
+        return snapshot.get().find(entity, lcprEntity, n);
+    }
+
+    @Override
+    public <U> List<T> findWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return snapshot.get().findWithin(entity, lcprEntity, radius, maxN);
+    }
+
+    @Override
+    public <U> List<Neighbour<T>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+        return snapshot.get().findNeighbours(entity, lcprEntity, n);
+    }
+
+    @Override
+    public <U> List<Neighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return snapshot.get().findNeighboursWithin(entity, lcprEntity, radius, maxN);
+    }
+
+    @Override
+    public <U> int find(U entity, LocationProvider<U> lcprEntity, T[] pois, double[] distances) {
+        return snapshot.get().find(entity, lcprEntity, pois, distances);
+    }
+
+    @Override
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n, Predicate<? super T> filter) {
+        return snapshot.get().find(entity, lcprEntity, n, filter);
+    }
+
+    @Override
+    public <U> Map<U, List<T>> findAll(Collection<U> entities, LocationProvider<U> lcprEntity, int n, ForkJoinPool pool) {
+        return snapshot.get().findAll(entities, lcprEntity, n, pool);
+    }
+
+    @Override
+    public <U> CompletableFuture<Map<U, List<T>>> findAllAsync(Collection<U> entities,
+                                                               LocationProvider<U> lcprEntity,
+                                                               int n,
+                                                               Executor executor) {
+        return snapshot.get().findAllAsync(entities, lcprEntity, n, executor);
+    }
+
+    @Override
+    public <U> void join(Collection<U> entities, LocationProvider<U> lcprEntity, int k, BiConsumer<? super U, ? super List<T>> consumer) {
+        snapshot.get().join(entities, lcprEntity, k, consumer);
+    }
+
+}
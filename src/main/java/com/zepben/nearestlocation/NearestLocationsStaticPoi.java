@@ -0,0 +1,313 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Finds the nearest POIs using a k-d tree that is built once over a fixed collection of POIs.
+ * <p>
+ * The tree is built over the earth-centred unit vectors of the POI locations, which preserves great circle ordering, and is
+ * only used to prune the search. Candidates are ranked using the {@link DistanceMetric} of the instance, with the terms of
+ * each POI calculated once, so the results and their order match {@link NearestLocationsMovablePoi} for the same POIs and
+ * metric.
+ * <p>
+ * POI locations are read once when the instance is created. POIs without a location are reported to the
+ * {@link MissingLocationHandler} at that time and are never returned.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestLocationsStaticPoi<T> extends AbstractNearestLocations<T> {
+
+    private final List<T> poiList;
+    private final KdTree tree;
+    private final int[] order;
+    private final int[] positions;
+    private final double[] lats;
+    private final double[] lons;
+    private final double[] terms;
+    private final int termCount;
+    private final ValidationReport validationReport;
+
+    /**
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsStaticPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler) {
+        this(poiCollection, lcprPoi, missingLocationHandler, DistanceMetric.haversine());
+    }
+
+    /**
+     * @param metric the metric used to rank POIs. The terms of each POI are calculated once when the tree is built.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range
+     */
+    public NearestLocationsStaticPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler,
+                                     DistanceMetric metric) {
+        this(poiCollection, lcprPoi, missingLocationHandler, metric, ValidationPolicy.THROW);
+    }
+
+    /**
+     * @param metric           the metric used to rank POIs. The terms of each POI are calculated once when the tree is built.
+     * @param validationPolicy what to do with POIs whose location is not in the valid range. See {@link #validationReport}.
+     * @throws InvalidLocationException if the location of a POI is not in the valid range and the policy is
+     *                                  {@link ValidationPolicy#THROW}
+     */
+    public NearestLocationsStaticPoi(Collection<T> poiCollection,
+                                     LocationProvider<T> lcprPoi,
+                                     MissingLocationHandler missingLocationHandler,
+                                     DistanceMetric metric,
+                                     ValidationPolicy validationPolicy) {
+        super(missingLocationHandler, metric);
+        long startNanos = System.nanoTime();
+
+        ValidatedPois<T> validated = new ValidatedPois<>(poiCollection, lcprPoi, missingLocationHandler, validationPolicy);
+        poiList = validated.pois;
+        validationReport = validated.report;
+
+        int size = poiList.size();
+        double[] x = new double[size];
+        double[] y = new double[size];
+        double[] z = new double[size];
+        for (int i = 0; i < size; ++i) {
+            x[i] = UnitSphere.x(validated.lats[i], validated.lons[i]);
+            y[i] = UnitSphere.y(validated.lats[i], validated.lons[i]);
+            z[i] = UnitSphere.z(validated.lats[i]);
+        }
+
+        tree = new KdTree(x, y, z);
+        order = tree.order();
+        positions = new int[size];
+        for (int i = 0; i < size; ++i)
+            positions[order[i]] = i;
+
+        termCount = metric.termCount();
+        lats = new double[size];
+        lons = new double[size];
+        terms = new double[size * termCount];
+        for (int i = 0; i < size; ++i) {
+            lats[i] = validated.lats[order[i]];
+            lons[i] = validated.lons[order[i]];
+            metric.computeTerms(lats[i], lons[i], validated.eles[order[i]], terms, i * termCount);
+        }
+
+        built(startNanos);
+    }
+
+    /**
+     * Saves the tree to an index file that can be opened with {@link NearestLocationsMappedPoi#open}, which avoids
+     * rebuilding the tree when a process restarts. Any existing file is replaced.
+     *
+     * @param file    the file to write
+     * @param lcprPoi LocationProvider for POI, used to store the ID of each POI
+     * @throws IllegalArgumentException if the metric of this instance is not one of the metrics provided by
+     *                                  {@link DistanceMetric}, the ID of a POI is the same as the ID of another POI, or the
+     *                                  index is larger than 2 GiB
+     * @throws IOException              if the file could not be written
+     */
+    public void save(Path file, LocationProvider<T> lcprPoi) throws IOException {
+        // The POIs are found by their ID when the index is opened, so each ID must belong to a single POI.
+        String[] ids = new String[poiList.size()];
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = lcprPoi.id(poiList.get(i));
+            if (!seen.add(ids[i]))
+                throw new IllegalArgumentException(String.format("%s is the ID of more than one POI", ids[i]));
+        }
+
+        IndexFile.write(file, metric, termCount, tree.boxes(), lats, lons, terms, order, positions, ids);
+    }
+
+    /**
+     * Finds approximately the nearest POIs to an entity. The search skips parts of the tree that can only hold POIs less
+     * than a factor of (1 + epsilon) closer than the furthest POI found so far, so each POI found is no more than a factor
+     * of (1 + epsilon) further away than the POI at the same position in the exact result.
+     *
+     * @param entity     the entity to search from
+     * @param lcprEntity LocationProvider for entity
+     * @param n          the number of POIs to find
+     * @param epsilon    the allowed relative error in distance. Zero gives an exact result.
+     * @return the POIs found, and whether they are exact
+     * @throws IllegalArgumentException if epsilon is negative or not finite
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    public <U> ApproximateResult<T> findApproximate(U entity, LocationProvider<U> lcprEntity, int n, double epsilon) {
+        return findApproximate(entity, lcprEntity, n, epsilon, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds approximately the nearest POIs to an entity, visiting no more than {@code maxNodes} nodes of the tree once
+     * {@code n} POIs have been found. Nodes are visited nearest first, so stopping early still returns nearby POIs, but
+     * without any bound on their error. The result reports whether the search was stopped before it was complete.
+     *
+     * @param entity     the entity to search from
+     * @param lcprEntity LocationProvider for entity
+     * @param n          the number of POIs to find
+     * @param epsilon    the allowed relative error in distance. Zero gives an exact result if the node limit is not reached.
+     * @param maxNodes   the largest number of nodes to visit, including leaves
+     * @return the POIs found, and whether they are exact
+     * @throws IllegalArgumentException if epsilon is negative or not finite, or maxNodes is not positive
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    @Override
+    public <U> ApproximateResult<T> findApproximate(U entity, LocationProvider<U> lcprEntity, int n, double epsilon, int maxNodes) {
+        return super.findApproximate(entity, lcprEntity, n, epsilon, maxNodes);
+    }
+
+    /**
+     * Evaluates a filter for every POI, and records which nodes of the tree hold a POI that matches. Searches with the
+     * returned attribute as their filter skip the nodes without any matches.
+     *
+     * @param predicate the filter to evaluate
+     * @return the evaluated filter
+     */
+    public PoiAttribute<T> attribute(Predicate<? super T> predicate) {
+        BitSet pois = new BitSet(poiList.size());
+        for (int i = 0; i < poiList.size(); ++i) {
+            if (predicate.test(poiList.get(i)))
+                pois.set(i);
+        }
+
+        BitSet nodes = new BitSet();
+        if (!poiList.isEmpty())
+            markNodes(1, 0, poiList.size(), pois, nodes);
+
+        return new PoiAttribute<>(tree, predicate, pois, nodes);
+    }
+
+    /**
+     * @return the result of validating the POIs when the tree was built
+     */
+    public ValidationReport validationReport() {
+        return validationReport;
+    }
+
+    /**
+     * @return the validated latitude of a POI
+     */
+    double lat(int index) {
+        return lats[positions[index]];
+    }
+
+    /**
+     * @return the validated longitude of a POI
+     */
+    double lon(int index) {
+        return lons[positions[index]];
+    }
+
+    @Override
+    int poiCount() {
+        return poiList.size();
+    }
+
+    @Override
+    T poi(int index) {
+        return poiList.get(index);
+    }
+
+    @Override
+    double rank(NearestQuery query, int index) {
+        return query.rank(terms, positions[index] * termCount);
+    }
+
+    @Override
+    IntPredicate indexFilter(Predicate<? super T> filter) {
+        if ((filter instanceof PoiAttribute) && ((PoiAttribute<?>) filter).isIndexedBy(tree))
+            return ((PoiAttribute<?>) filter).pois::get;
+
+        return super.indexFilter(filter);
+    }
+
+    @Nullable
+    @Override
+    BitSet filterNodes(Predicate<? super T> filter) {
+        if ((filter instanceof PoiAttribute) && ((PoiAttribute<?>) filter).isIndexedBy(tree))
+            return ((PoiAttribute<?>) filter).nodes;
+
+        return null;
+    }
+
+    @Override
+    void search(NearestQuery query) {
+        if (query.visit(0))
+            search(1, 0, poiList.size(), query);
+    }
+
+    private void search(int node, int lo, int hi, NearestQuery query) {
+        if ((query.filterNodes != null) && !query.filterNodes.get(node)) {
+            query.pruned += hi - lo;
+            return;
+        }
+
+        if (KdTree.isLeaf(lo, hi)) {
+            for (int i = lo; i < hi; ++i) {
+                if (query.mayBeAdded(lats[i], lons[i]))
+                    query.offer(terms, i * termCount, order[i]);
+            }
+            return;
+        }
+
+        int mid = KdTree.mid(lo, hi);
+        int left = 2 * node;
+        int right = left + 1;
+        double leftDistance = tree.boxDistanceSquared(left, query.x, query.y, query.z);
+        double rightDistance = tree.boxDistanceSquared(right, query.x, query.y, query.z);
+
+        if (leftDistance <= rightDistance) {
+            if (query.visit(leftDistance))
+                search(left, lo, mid, query);
+            if (query.visit(rightDistance))
+                search(right, mid, hi, query);
+        } else {
+            if (query.visit(rightDistance))
+                search(right, mid, hi, query);
+            if (query.visit(leftDistance))
+                search(left, lo, mid, query);
+        }
+    }
+
+    /**
+     * Sets the bit of each node that holds at least one POI that matches.
+     *
+     * @return true if the node holds a POI that matches
+     */
+    private boolean markNodes(int node, int lo, int hi, BitSet pois, BitSet nodes) {
+        boolean matches = false;
+        if (KdTree.isLeaf(lo, hi)) {
+            for (int i = lo; (i < hi) && !matches; ++i)
+                matches = pois.get(order[i]);
+        } else {
+            int mid = KdTree.mid(lo, hi);
+            matches = markNodes(2 * node, lo, mid, pois, nodes);
+            matches |= markNodes(2 * node + 1, mid, hi, pois, nodes);
+        }
+
+        if (matches)
+            nodes.set(node);
+
+        return matches;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks the nearest POIs of an entity that moves between searches, such as a vehicle. Create one with
+ * {@link NearestLocationsStaticPoi#track} or the {@code track} method of the other engines.
+ * <p>
+ * Each search finds one more POI than is needed. While the entity stays within half the gap between the distances of the
+ * last needed POI and the extra POI, no other POI can have become closer than any of the needed POIs, so later searches only
+ * rank the needed POIs against the new location to update their order and distances. Once the entity leaves that safe
+ * region, the POIs are searched again, starting from the bound given by the previous POIs.
+ * <p>
+ * The safe region relies on the distance metric obeying the triangle inequality, which holds for the Haversine, great circle
+ * and chord metrics of {@link DistanceMetric}. For any other metric, such as {@link DistanceMetric#equirectangular()},
+ * which only approximately obeys it, every update searches the POIs again, still starting from the bound given by the
+ * previous POIs. Changes to a {@link NearestLocationsDynamicPoi} through its {@code add}, {@code remove} and {@code moved} methods are
+ * detected automatically. Call {@link #reset} after any other change to the POIs, such as moving the POIs of a
+ * {@link NearestLocationsMovablePoi}. A tracker is not thread safe.
+ *
+ * @param <T> POI type
+ * @param <U> Entity type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class NearestLocationsTracker<T, U> {
+
+    // Rounding differences between the distances of a search and the distance moved are far smaller than this fraction of
+    // the distances, so shrinking the safe region by it keeps it safe.
+    private static final double RELATIVE_SLACK = 1e-9;
+
+    private final AbstractNearestLocations<T> nearestLocations;
+    private final U entity;
+    private final LocationProvider<U> lcprEntity;
+    private final int n;
+    private final boolean hasSafeRegion;
+
+    private final AbstractNearestLocations.JoinSeed seed = new AbstractNearestLocations.JoinSeed();
+    private double anchorLat;
+    private double anchorLon;
+    private double anchorEle;
+    private double safeRadius = -1;
+    private long version;
+
+    private long updateCount = 0;
+    private long searchCount = 0;
+
+    NearestLocationsTracker(AbstractNearestLocations<T> nearestLocations, U entity, LocationProvider<U> lcprEntity, int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("The number of POIs to track must be positive");
+
+        this.nearestLocations = nearestLocations;
+        this.entity = entity;
+        this.lcprEntity = lcprEntity;
+        this.n = n;
+        this.hasSafeRegion = obeysTriangleInequality(nearestLocations.metric);
+    }
+
+    /**
+     * Finds the nearest POIs to the current location of the entity.
+     *
+     * @return List of nearest POIs, ordered from closest to furthest
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    public List<T> find() {
+        List<Neighbour<T>> neighbours = findNeighbours();
+        List<T> pois = new ArrayList<>(neighbours.size());
+        for (Neighbour<T> neighbour : neighbours)
+            pois.add(neighbour.poi());
+
+        return pois;
+    }
+
+    /**
+     * Finds the nearest POIs to the current location of the entity, along with their distances from the entity.
+     *
+     * @return List of nearest POIs and their distances in metres, ordered from closest to furthest
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    public List<Neighbour<T>> findNeighbours() {
+        ++updateCount;
+        if (!lcprEntity.hasLocation(entity)) {
+            nearestLocations.missingLocation(lcprEntity.id(entity));
+            reset();
+            return Collections.emptyList();
+        }
+
+        double lat = lcprEntity.lat(entity);
+        double lon = lcprEntity.lon(entity);
+        double ele = lcprEntity.ele(entity);
+
+        if (!LocationUtility.validateLocation(lat, lon, ele))
+            throw new InvalidLocationException();
+
+        if (hasSafeRegion
+            && (safeRadius >= 0)
+            && (version == nearestLocations.version())
+            && (nearestLocations.metric.distance(anchorLat, anchorLon, anchorEle, lat, lon, ele) < safeRadius))
+            return neighbours(nearestLocations.rank(lat, lon, ele, seed, Math.min(seed.count(), n)), n);
+
+        ++searchCount;
+        if (version != nearestLocations.version()) {
+            // The POIs have changed, so the indexes of the previous POIs may no longer refer to the same POIs.
+            seed.clear();
+            version = nearestLocations.version();
+        }
+
+        NearestQuery query = nearestLocations.search(entity, lcprEntity, n + 1, seed);
+        if (query == null) {
+            reset();
+            return Collections.emptyList();
+        }
+
+        NeighbourHeap heap = query.heap;
+        if (heap.size() <= n) {
+            // Every POI was found, so no other POI can become one of the nearest.
+            safeRadius = Double.POSITIVE_INFINITY;
+        } else {
+            double last = nearestLocations.metric.rankToMetres(heap.key(n - 1));
+            double extra = nearestLocations.metric.rankToMetres(heap.key(n));
+            safeRadius = (extra - last) / 2 - (extra * RELATIVE_SLACK);
+        }
+
+        anchorLat = lat;
+        anchorLon = lon;
+        anchorEle = ele;
+        return neighbours(query, n);
+    }
+
+    /**
+     * Forgets the previous POIs, so that the next update searches all of the POIs again.
+     */
+    public void reset() {
+        safeRadius = -1;
+        seed.clear();
+    }
+
+    /**
+     * @return the number of calls to {@link #find} and {@link #findNeighbours}
+     */
+    public long updateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return the number of updates that had to search the POIs, rather than only ranking the previous POIs
+     */
+    public long searchCount() {
+        return searchCount;
+    }
+
+    private static boolean obeysTriangleInequality(DistanceMetric metric) {
+        return (metric == DistanceMetric.haversine()) || (metric == DistanceMetric.greatCircle()) || (metric == DistanceMetric.chord());
+    }
+
+    private List<Neighbour<T>> neighbours(@Nullable NearestQuery query, int maxCount) {
+        if (query == null)
+            return Collections.emptyList();
+
+        try {
+            int count = Math.min(query.heap.size(), maxCount);
+            List<Neighbour<T>> results = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                results.add(new Neighbour<>(nearestLocations.poi(query.heap.index(i)), nearestLocations.metric.rankToMetres(query.heap.key(i))));
+
+            return results;
+        } finally {
+            query.release();
+        }
+    }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.nio.DoubleBuffer;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * The state of a single nearest location query: the query location and the heap of the closest POIs found so far.
+ * <p>
+ * Queries are reused between searches on the same thread to avoid allocating scratch buffers for every search. Use
+ * {@link #acquire} and {@link #release} to borrow the query for the current thread.
+ */
+@EverythingIsNonnullByDefault
+final class NearestQuery {
+
+    // Slack added to latitude and longitude bounds so that rounding never excludes a location that should have been included.
+    private static final double BOUNDS_SLACK = 1e-9;
+
+    private static final ThreadLocal<NearestQuery> LOCAL = ThreadLocal.withInitial(NearestQuery::new);
+
+    /**
+     * The number of POIs in each block of a columnar scan.
+     */
+    static final int BLOCK_SIZE = 256;
+
+    final NeighbourHeap heap = new NeighbourHeap();
+
+    /**
+     * Scratch space for a block of a columnar scan.
+     */
+    final double[] block = new double[BLOCK_SIZE];
+
+    private boolean inUse;
+
+    DistanceMetric metric = DistanceMetric.haversine();
+    double[] terms = new double[4];
+    private double[] poiTerms = new double[4];
+
+    double lat;
+    double lon;
+    double x;
+    double y;
+    double z;
+
+    /**
+     * The number of POIs ranked by the search.
+     */
+    int evaluated;
+
+    /**
+     * The number of POIs skipped by the search without being ranked.
+     */
+    int pruned;
+
+    /**
+     * Accepts the indexes of the POIs that can be found, or null if every POI can be found.
+     */
+    @Nullable IntPredicate filter;
+
+    /**
+     * The nodes of the index that hold at least one POI accepted by the filter, or null if every node must be searched.
+     */
+    @Nullable BitSet filterNodes;
+
+    private double bound;
+    private double maxChordSquared;
+    private double visitChordSquared;
+    private double epsilon;
+    private int maxNodes;
+    private int nodesVisited;
+    private boolean exact;
+    private double maxLatDelta;
+    private double maxLonDelta;
+
+    /**
+     * Borrows the query for the current thread. If the query for the current thread is already in use, for example by a
+     * search that is running another search internally, a new query is returned instead.
+     *
+     * @return a query that is not in use by any other search
+     */
+    static NearestQuery acquire() {
+        NearestQuery query = LOCAL.get();
+        if (query.inUse)
+            query = new NearestQuery();
+
+        query.inUse = true;
+        return query;
+    }
+
+    /**
+     * Returns a query borrowed with {@link #acquire} so it can be reused by the next search on this thread.
+     */
+    void release() {
+        inUse = false;
+        filter = null;
+        filterNodes = null;
+    }
+
+    /**
+     * Prepares the query for a new search.
+     *
+     * @param metric   the metric used to rank POIs
+     * @param lat      the latitude of the query location
+     * @param lon      the longitude of the query location
+     * @param ele      the elevation of the query location
+     * @param capacity the number of POIs to find
+     * @return this query
+     */
+    NearestQuery start(DistanceMetric metric, double lat, double lon, double ele, int capacity) {
+        return start(metric, lat, lon, ele, capacity, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Prepares the query for a new search.
+     *
+     * @param metric   the metric used to rank POIs
+     * @param lat      the latitude of the query location
+     * @param lon      the longitude of the query location
+     * @param ele      the elevation of the query location
+     * @param capacity the number of POIs to find
+     * @param maxRank  the largest rank of a POI that can be found
+     * @return this query
+     */
+    NearestQuery start(DistanceMetric metric, double lat, double lon, double ele, int capacity, double maxRank) {
+        this.metric = metric;
+        if (terms.length < metric.termCount()) {
+            terms = new double[metric.termCount()];
+            poiTerms = new double[metric.termCount()];
+        }
+        metric.computeTerms(lat, lon, ele, terms, 0);
+
+        this.lat = lat;
+        this.lon = lon;
+        x = UnitSphere.x(lat, lon);
+        y = UnitSphere.y(lat, lon);
+        z = UnitSphere.z(lat);
+        heap.reset(capacity, maxRank);
+        bound = Double.NaN;
+        evaluated = 0;
+        pruned = 0;
+        epsilon = 0;
+        maxNodes = Integer.MAX_VALUE;
+        nodesVisited = 0;
+        exact = true;
+        filter = null;
+        filterNodes = null;
+        return this;
+    }
+
+    /**
+     * Allows the search to skip nodes that can only hold POIs less than a factor of (1 + epsilon) closer than the current
+     * bound, and to stop after visiting a number of nodes once the heap is full. This must be called before any POIs are offered.
+     *
+     * @param epsilon  the allowed relative error in the distance of each POI found
+     * @param maxNodes the largest number of nodes to visit
+     */
+    void approximate(double epsilon, int maxNodes) {
+        this.epsilon = epsilon;
+        this.maxNodes = maxNodes;
+        bound = Double.NaN;
+    }
+
+    /**
+     * Only allows POIs accepted by a filter to be found. This must be called before any POIs are offered.
+     *
+     * @param filter accepts the indexes of the POIs that can be found
+     * @param nodes  the nodes of the index that hold at least one accepted POI, or null if every node must be searched
+     */
+    void filter(IntPredicate filter, @Nullable BitSet nodes) {
+        this.filter = filter;
+        this.filterNodes = nodes;
+    }
+
+    /**
+     * Lowers the largest rank of a POI that can be found. This must be called before any POIs are offered.
+     *
+     * @param maxRank the largest rank of a POI that can be found
+     */
+    void limit(double maxRank) {
+        heap.limit(maxRank);
+        bound = Double.NaN;
+    }
+
+    /**
+     * Ranks a POI without offering it to the heap.
+     *
+     * @param poiTerms  the terms of the POI
+     * @param poiOffset the index of the first term of the POI
+     * @return the rank of the POI
+     */
+    double rank(double[] poiTerms, int poiOffset) {
+        ++evaluated;
+        return metric.rank(terms, 0, poiTerms, poiOffset);
+    }
+
+    /**
+     * Ranks a POI without offering it to the heap.
+     *
+     * @param poiLat the latitude of the POI
+     * @param poiLon the longitude of the POI
+     * @param poiEle the elevation of the POI
+     * @return the rank of the POI
+     */
+    double rank(double poiLat, double poiLon, double poiEle) {
+        metric.computeTerms(poiLat, poiLon, poiEle, poiTerms, 0);
+        return rank(poiTerms, 0);
+    }
+
+    /**
+     * Ranks a POI without offering it to the heap.
+     *
+     * @param poiTerms  a buffer holding the terms of the POI
+     * @param poiOffset the index of the first term of the POI
+     * @return the rank of the POI
+     */
+    double rank(DoubleBuffer poiTerms, int poiOffset) {
+        for (int i = 0; i < metric.termCount(); ++i)
+            this.poiTerms[i] = poiTerms.get(poiOffset + i);
+
+        return rank(this.poiTerms, 0);
+    }
+
+    /**
+     * Ranks a POI using its precalculated terms and offers it to the heap.
+     *
+     * @param poiTerms  a buffer holding the terms of the POI
+     * @param poiOffset the index of the first term of the POI
+     * @param index     the index of the POI, used to break ties
+     */
+    void offer(DoubleBuffer poiTerms, int poiOffset, int index) {
+        if (accepts(index))
+            heap.offer(rank(poiTerms, poiOffset), index);
+    }
+
+    /**
+     * Ranks a POI and offers it to the heap.
+     *
+     * @param poiLat the latitude of the POI
+     * @param poiLon the longitude of the POI
+     * @param poiEle the elevation of the POI
+     * @param index  the index of the POI, used to break ties
+     */
+    void offer(double poiLat, double poiLon, double poiEle, int index) {
+        if (accepts(index))
+            heap.offer(rank(poiLat, poiLon, poiEle), index);
+    }
+
+    /**
+     * Ranks a POI using its precalculated terms and offers it to the heap.
+     *
+     * @param poiTerms  the terms of the POI
+     * @param poiOffset the index of the first term of the POI
+     * @param index     the index of the POI, used to break ties
+     */
+    void offer(double[] poiTerms, int poiOffset, int index) {
+        if (accepts(index))
+            heap.offer(rank(poiTerms, poiOffset), index);
+    }
+
+    /**
+     * Checks if a POI is accepted by the filter, counting it as pruned if it is not.
+     *
+     * @param index the index of the POI
+     * @return true if the POI can be found
+     */
+    boolean accepts(int index) {
+        if ((filter == null) || filter.test(index))
+            return true;
+
+        ++pruned;
+        return false;
+    }
+
+    /**
+     * @return the largest squared chord length to a location that could still be added to the heap
+     */
+    double maxChordSquared() {
+        updateBounds();
+        return maxChordSquared;
+    }
+
+    /**
+     * Checks if a node of an index should be visited, counting the nodes that are. Nodes that could hold a POI that would be
+     * added to the heap, but are skipped because of the limits set by {@link #approximate}, make the result inexact.
+     *
+     * @param chordSquared the smallest squared chord length from the query location to the node
+     * @return true if the node should be visited
+     */
+    boolean visit(double chordSquared) {
+        updateBounds();
+        if (chordSquared > maxChordSquared)
+            return false;
+
+        // The node limit only applies once the heap is full, so that a limited search still finds as many POIs as it can.
+        if ((chordSquared > visitChordSquared) || ((nodesVisited >= maxNodes) && (bound < Double.POSITIVE_INFINITY))) {
+            exact = false;
+            return false;
+        }
+
+        ++nodesVisited;
+        return true;
+    }
+
+    /**
+     * @return the number of nodes visited by the search
+     */
+    int nodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return false if the search skipped any nodes that could have changed the result
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Cheaply checks if a location could be close enough to be added to the heap, using only latitude and longitude
+     * differences. Locations that fail this check do not need to be ranked.
+     *
+     * @param poiLat the latitude of the location
+     * @param poiLon the longitude of the location
+     * @return false if the location is definitely too far away to be added to the heap
+     */
+    boolean mayBeAdded(double poiLat, double poiLon) {
+        updateBounds();
+        if (Math.abs(poiLat - lat) > maxLatDelta) {
+            ++pruned;
+            return false;
+        }
+
+        double lonDelta = Math.abs(poiLon - lon);
+        if (lonDelta > 180)
+            lonDelta = 360 - lonDelta;
+
+        if (lonDelta > maxLonDelta) {
+            ++pruned;
+            return false;
+        }
+        return true;
+    }
+
+    private void updateBounds() {
+        double current = heap.bound();
+        if (current == bound)
+            return;
+
+        bound = current;
+        double angle = current == Double.POSITIVE_INFINITY ? Math.PI : metric.maxCentralAngle(metric.rankToMetres(current));
+        maxChordSquared = UnitSphere.maxChordSquared(angle);
+        if ((epsilon == 0) || (current == Double.POSITIVE_INFINITY))
+            visitChordSquared = maxChordSquared;
+        else
+            visitChordSquared = UnitSphere.maxChordSquared(metric.maxCentralAngle(metric.rankToMetres(current) / (1 + epsilon)));
+
+        // A location within the central angle of the query location cannot differ in latitude by more than that angle.
+        // Unless the search area covers a pole, it also cannot differ in longitude by more than asin(sin(angle) / cos(lat)).
+        // See http://janmatuschek.de/LatitudeLongitudeBoundingCoordinates.
+        double latRadians = Math.toRadians(lat);
+        if (!(angle < Math.PI)) {
+            maxLatDelta = Double.POSITIVE_INFINITY;
+            maxLonDelta = Double.POSITIVE_INFINITY;
+        } else if ((latRadians + angle >= Math.PI / 2) || (latRadians - angle <= -Math.PI / 2)) {
+            maxLatDelta = Math.toDegrees(angle) * (1 + BOUNDS_SLACK) + BOUNDS_SLACK;
+            maxLonDelta = Double.POSITIVE_INFINITY;
+        } else {
+            maxLatDelta = Math.toDegrees(angle) * (1 + BOUNDS_SLACK) + BOUNDS_SLACK;
+            maxLonDelta = Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(latRadians))) * (1 + BOUNDS_SLACK) + BOUNDS_SLACK;
+        }
+    }
+
+}
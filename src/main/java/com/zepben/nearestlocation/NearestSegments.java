@@ -0,0 +1,445 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.*;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Finds the nearest POIs that are lines, such as conductor spans or feeders, along with the closest point of each line.
+ * <p>
+ * Each POI is a polyline whose vertices are read once, through a {@link SegmentProvider}, when the instance is created.
+ * The segments of all of the polylines are held in a tree of bounding boxes, built over the earth-centred unit vectors of
+ * the segments. Each box is widened by the distance a segment bulges away from the straight line between its ends, so it
+ * holds the whole great circle segment. Searches visit the boxes nearest first and skip those that are further than the
+ * results found so far, so only the segments near the search location are measured.
+ * <p>
+ * Distances are great circle distances along the surface of the earth, ignoring elevation, to the closest point of each
+ * POI. Each POI is returned once, for its closest segment. Segments must be shorter than half the circumference of the
+ * earth. POIs without any vertices are reported to the {@link MissingLocationHandler} when the instance is created and are
+ * never returned. Instances do not change after they are created, so they support concurrent searches.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class NearestSegments<T> {
+
+    // Slack added to the bounding boxes of the segments so that rounding never excludes a segment that should be measured.
+    private static final double BOX_SLACK = 1e-12;
+
+    // Cross products shorter than this are treated as zero, for segments with ends at the same location.
+    private static final double DEGENERATE = 1e-15;
+
+    private final List<T> poiList;
+    private final MissingLocationHandler missingLocationHandler;
+    private final int segmentCount;
+
+    // The segments in tree order: the POI index and first vertex of each, the unit vectors of both ends, and the latitude and
+    // longitude of both ends so that ends are returned exactly as they were provided.
+    private final int[] segmentPois;
+    private final int[] segmentVertices;
+    private final double[] ends;
+    private final double[] endLatLons;
+    private final double[] boxes;
+
+    /**
+     * @throws InvalidLocationException if the location of a vertex is not in the valid range
+     */
+    public NearestSegments(Collection<T> poiCollection,
+                           SegmentProvider<T> segmentProvider,
+                           MissingLocationHandler missingLocationHandler) {
+        this.missingLocationHandler = missingLocationHandler;
+
+        poiList = new ArrayList<>();
+        int count = 0;
+        for (T poi : poiCollection.stream().distinct().collect(toList())) {
+            int vertexCount = segmentProvider.vertexCount(poi);
+            if (vertexCount <= 0) {
+                missingLocationHandler.handle(segmentProvider.id(poi), null);
+                continue;
+            }
+
+            for (int v = 0; v < vertexCount; ++v) {
+                if (!LocationUtility.validateLocation(segmentProvider.lat(poi, v), segmentProvider.lon(poi, v), 0))
+                    throw new InvalidLocationException(String.format("%s has an invalid location", segmentProvider.id(poi)));
+            }
+
+            poiList.add(poi);
+            count += Math.max(1, vertexCount - 1);
+        }
+
+        // A POI with a single vertex is held as a segment with both ends at that vertex.
+        segmentCount = count;
+        int[] pois = new int[count];
+        int[] vertices = new int[count];
+        double[] latLons = new double[4 * count];
+        int s = 0;
+        for (int p = 0; p < poiList.size(); ++p) {
+            T poi = poiList.get(p);
+            int vertexCount = segmentProvider.vertexCount(poi);
+            for (int v = 0; v < Math.max(1, vertexCount - 1); ++v) {
+                int end = Math.min(v + 1, vertexCount - 1);
+                pois[s] = p;
+                vertices[s] = v;
+                latLons[4 * s] = segmentProvider.lat(poi, v);
+                latLons[4 * s + 1] = segmentProvider.lon(poi, v);
+                latLons[4 * s + 2] = segmentProvider.lat(poi, end);
+                latLons[4 * s + 3] = segmentProvider.lon(poi, end);
+                ++s;
+            }
+        }
+
+        double[] mx = new double[count];
+        double[] my = new double[count];
+        double[] mz = new double[count];
+        for (int i = 0; i < count; ++i) {
+            double ax = UnitSphere.x(latLons[4 * i], latLons[4 * i + 1]);
+            double ay = UnitSphere.y(latLons[4 * i], latLons[4 * i + 1]);
+            double az = UnitSphere.z(latLons[4 * i]);
+            double bx = UnitSphere.x(latLons[4 * i + 2], latLons[4 * i + 3]);
+            double by = UnitSphere.y(latLons[4 * i + 2], latLons[4 * i + 3]);
+            double bz = UnitSphere.z(latLons[4 * i + 2]);
+            mx[i] = (ax + bx) / 2;
+            my[i] = (ay + by) / 2;
+            mz[i] = (az + bz) / 2;
+        }
+
+        int[] order = new KdTree(mx, my, mz).order();
+        segmentPois = new int[count];
+        segmentVertices = new int[count];
+        ends = new double[6 * count];
+        endLatLons = new double[4 * count];
+        for (int i = 0; i < count; ++i) {
+            int segment = order[i];
+            segmentPois[i] = pois[segment];
+            segmentVertices[i] = vertices[segment];
+            System.arraycopy(latLons, 4 * segment, endLatLons, 4 * i, 4);
+            ends[6 * i] = UnitSphere.x(endLatLons[4 * i], endLatLons[4 * i + 1]);
+            ends[6 * i + 1] = UnitSphere.y(endLatLons[4 * i], endLatLons[4 * i + 1]);
+            ends[6 * i + 2] = UnitSphere.z(endLatLons[4 * i]);
+            ends[6 * i + 3] = UnitSphere.x(endLatLons[4 * i + 2], endLatLons[4 * i + 3]);
+            ends[6 * i + 4] = UnitSphere.y(endLatLons[4 * i + 2], endLatLons[4 * i + 3]);
+            ends[6 * i + 5] = UnitSphere.z(endLatLons[4 * i + 2]);
+        }
+
+        boxes = new double[6 * KdTree.nodeCount(count)];
+        if (count > 0)
+            buildBoxes(1, 0, count);
+    }
+
+    /**
+     * @return the number of segments held, including one for each POI with a single vertex
+     */
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for an entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param n          number of POI to be found
+     * @return List of nearest POIs, ordered from closest to furthest
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    public <U> List<T> find(U entity, LocationProvider<U> lcprEntity, int n) {
+        List<SegmentNeighbour<T>> neighbours = search(entity, lcprEntity, n, Double.POSITIVE_INFINITY);
+        List<T> pois = new ArrayList<>(neighbours.size());
+        for (SegmentNeighbour<T> neighbour : neighbours)
+            pois.add(neighbour.poi());
+
+        return pois;
+    }
+
+    /**
+     * Finds list of 'n' number of nearest POIs for an entity, along with the closest point of each POI to the entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param n          number of POI to be found
+     * @return List of nearest POIs, their closest points and the distances to them in metres, ordered from closest to furthest
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    public <U> List<SegmentNeighbour<T>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+        return search(entity, lcprEntity, n, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds list of up to 'maxN' number of nearest POIs within a distance of an entity, along with the closest point of each
+     * POI to the entity
+     *
+     * @param entity     Entity for which POIs have to be found
+     * @param lcprEntity LocationProvider for entity
+     * @param radius     the maximum distance in metres
+     * @param maxN       maximum number of POI to be found
+     * @return List of nearest POIs within the distance, their closest points and the distances to them in metres, ordered
+     * from closest to furthest
+     * @throws IllegalArgumentException if the radius is negative
+     * @throws InvalidLocationException if location value is not in given range
+     */
+    public <U> List<SegmentNeighbour<T>> findNeighboursWithin(U entity, LocationProvider<U> lcprEntity, double radius, int maxN) {
+        return search(entity, lcprEntity, maxN, radius);
+    }
+
+    private <U> List<SegmentNeighbour<T>> search(U entity, LocationProvider<U> lcprEntity, int n, double radius) {
+        if (!(radius >= 0))
+            throw new IllegalArgumentException("Radius must not be negative");
+
+        if (!lcprEntity.hasLocation(entity)) {
+            missingLocationHandler.handle(lcprEntity.id(entity), null);
+            return Collections.emptyList();
+        }
+
+        double lat = lcprEntity.lat(entity);
+        double lon = lcprEntity.lon(entity);
+        if (!LocationUtility.validateLocation(lat, lon, lcprEntity.ele(entity)))
+            throw new InvalidLocationException();
+
+        if ((n <= 0) || (segmentCount == 0))
+            return Collections.emptyList();
+
+        double maxAngle = radius / UnitSphere.EARTH_RADIUS;
+        Search search = new Search(UnitSphere.x(lat, lon), UnitSphere.y(lat, lon), UnitSphere.z(lat), n, maxAngle);
+        search.search(1, 0, segmentCount);
+
+        List<SegmentNeighbour<T>> results = new ArrayList<>(search.nearest.size());
+        for (Candidate candidate : search.nearest) {
+            results.add(new SegmentNeighbour<>(poiList.get(segmentPois[candidate.position]),
+                candidate.angle * UnitSphere.EARTH_RADIUS,
+                segmentVertices[candidate.position],
+                candidate.lat,
+                candidate.lon));
+        }
+        return results;
+    }
+
+    /**
+     * Sets the box of each node to hold the whole of each of its segments.
+     */
+    private void buildBoxes(int node, int lo, int hi) {
+        int b = 6 * node;
+        if (KdTree.isLeaf(lo, hi)) {
+            for (int d = 0; d < 3; ++d) {
+                boxes[b + d] = Double.POSITIVE_INFINITY;
+                boxes[b + 3 + d] = Double.NEGATIVE_INFINITY;
+            }
+
+            for (int i = lo; i < hi; ++i) {
+                // Every point of a segment is within its sagitta of the straight line between its ends.
+                int e = 6 * i;
+                double dot = ends[e] * ends[e + 3] + ends[e + 1] * ends[e + 4] + ends[e + 2] * ends[e + 5];
+                double sagitta = 1 - Math.sqrt(Math.max(0, (1 + dot) / 2)) + BOX_SLACK;
+                for (int d = 0; d < 3; ++d) {
+                    boxes[b + d] = Math.min(boxes[b + d], Math.min(ends[e + d], ends[e + 3 + d]) - sagitta);
+                    boxes[b + 3 + d] = Math.max(boxes[b + 3 + d], Math.max(ends[e + d], ends[e + 3 + d]) + sagitta);
+                }
+            }
+            return;
+        }
+
+        int mid = KdTree.mid(lo, hi);
+        int left = 2 * node;
+        int right = left + 1;
+        buildBoxes(left, lo, mid);
+        buildBoxes(right, mid, hi);
+        for (int d = 0; d < 3; ++d) {
+            boxes[b + d] = Math.min(boxes[6 * left + d], boxes[6 * right + d]);
+            boxes[b + 3 + d] = Math.max(boxes[6 * left + 3 + d], boxes[6 * right + 3 + d]);
+        }
+    }
+
+    private static double axisDistance(double value, double min, double max) {
+        if (value < min)
+            return min - value;
+        else if (value > max)
+            return value - max;
+        else
+            return 0;
+    }
+
+    /**
+     * The closest segment found so far for a POI.
+     */
+    private static final class Candidate {
+
+        final int poi;
+        final int position;
+        final double angle;
+        final double lat;
+        final double lon;
+
+        Candidate(int poi, int position, double angle, double lat, double lon) {
+            this.poi = poi;
+            this.position = position;
+            this.angle = angle;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+    }
+
+    /**
+     * The state of a single search: the closest segment of each of the nearest POIs found so far.
+     */
+    private final class Search {
+
+        private final double px;
+        private final double py;
+        private final double pz;
+        private final int n;
+        private final double maxAngle;
+
+        // Ordered from closest to furthest, with ties broken by POI index, and never holding more than n POIs.
+        private final TreeSet<Candidate> nearest = new TreeSet<>((a, b) -> {
+            int compare = Double.compare(a.angle, b.angle);
+            return compare != 0 ? compare : Integer.compare(a.poi, b.poi);
+        });
+        private final Map<Integer, Candidate> byPoi = new HashMap<>();
+
+        Search(double px, double py, double pz, int n, double maxAngle) {
+            this.px = px;
+            this.py = py;
+            this.pz = pz;
+            this.n = n;
+            this.maxAngle = maxAngle;
+        }
+
+        void search(int node, int lo, int hi) {
+            if (KdTree.isLeaf(lo, hi)) {
+                for (int i = lo; i < hi; ++i)
+                    measure(i);
+                return;
+            }
+
+            int left = 2 * node;
+            int right = left + 1;
+            int mid = KdTree.mid(lo, hi);
+            double leftDistance = boxDistanceSquared(left);
+            double rightDistance = boxDistanceSquared(right);
+
+            if (leftDistance <= rightDistance) {
+                if (leftDistance <= UnitSphere.maxChordSquared(bound()))
+                    search(left, lo, mid);
+                if (rightDistance <= UnitSphere.maxChordSquared(bound()))
+                    search(right, mid, hi);
+            } else {
+                if (rightDistance <= UnitSphere.maxChordSquared(bound()))
+                    search(right, mid, hi);
+                if (leftDistance <= UnitSphere.maxChordSquared(bound()))
+                    search(left, lo, mid);
+            }
+        }
+
+        /**
+         * @return the largest angle to a segment that could still be one of the nearest
+         */
+        private double bound() {
+            return nearest.size() < n ? maxAngle : nearest.last().angle;
+        }
+
+        private double boxDistanceSquared(int node) {
+            int b = 6 * node;
+            double dx = axisDistance(px, boxes[b], boxes[b + 3]);
+            double dy = axisDistance(py, boxes[b + 1], boxes[b + 4]);
+            double dz = axisDistance(pz, boxes[b + 2], boxes[b + 5]);
+            return dx * dx + dy * dy + dz * dz;
+        }
+
+        /**
+         * Finds the closest point of a segment, and keeps it if it is closer than the POIs found so far.
+         */
+        private void measure(int position) {
+            int e = 6 * position;
+            double ax = ends[e];
+            double ay = ends[e + 1];
+            double az = ends[e + 2];
+            double bx = ends[e + 3];
+            double by = ends[e + 4];
+            double bz = ends[e + 5];
+
+            // The closest point of the great circle through the segment is the search location projected onto its plane.
+            // It is the closest point of the segment if it lies between the ends, otherwise the closest end is.
+            double nx = ay * bz - az * by;
+            double ny = az * bx - ax * bz;
+            double nz = ax * by - ay * bx;
+            double normal = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (normal > DEGENERATE) {
+                double t = (px * nx + py * ny + pz * nz) / (normal * normal);
+                double cx = px - t * nx;
+                double cy = py - t * ny;
+                double cz = pz - t * nz;
+                double length = Math.sqrt(cx * cx + cy * cy + cz * cz);
+                if (length > DEGENERATE) {
+                    cx /= length;
+                    cy /= length;
+                    cz /= length;
+                    boolean afterA = tripleProduct(ax, ay, az, cx, cy, cz, nx, ny, nz) >= 0;
+                    boolean beforeB = tripleProduct(cx, cy, cz, bx, by, bz, nx, ny, nz) >= 0;
+                    if (afterA && beforeB) {
+                        double lat = Math.toDegrees(Math.atan2(cz, Math.hypot(cx, cy)));
+                        offer(position, angle(cx, cy, cz), lat, Math.toDegrees(Math.atan2(cy, cx)));
+                        return;
+                    }
+                }
+            }
+
+            double angleA = angle(ax, ay, az);
+            double angleB = angle(bx, by, bz);
+            int l = 4 * position;
+            if (angleA <= angleB)
+                offer(position, angleA, endLatLons[l], endLatLons[l + 1]);
+            else
+                offer(position, angleB, endLatLons[l + 2], endLatLons[l + 3]);
+        }
+
+        private void offer(int position, double angle, double lat, double lon) {
+            if (angle > bound())
+                return;
+
+            int poi = segmentPois[position];
+            Candidate current = byPoi.get(poi);
+            if (current != null) {
+                // Keep the first segment of the POI when several are at the same distance, such as at a shared vertex.
+                if ((angle > current.angle) || ((angle == current.angle) && (segmentVertices[current.position] < segmentVertices[position])))
+                    return;
+
+                nearest.remove(current);
+            }
+
+            Candidate candidate = new Candidate(poi, position, angle, lat, lon);
+            nearest.add(candidate);
+            byPoi.put(poi, candidate);
+            if (nearest.size() > n)
+                byPoi.remove(nearest.pollLast().poi);
+        }
+
+        /**
+         * @return the central angle between the search location and a unit vector, in radians
+         */
+        private double angle(double x, double y, double z) {
+            double cx = py * z - pz * y;
+            double cy = pz * x - px * z;
+            double cz = px * y - py * x;
+            return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), px * x + py * y + pz * z);
+        }
+
+    }
+
+    private static double tripleProduct(double ax, double ay, double az,
+                                        double bx, double by, double bz,
+                                        double cx, double cy, double cz) {
+        return (ay * bz - az * by) * cx + (az * bx - ax * bz) * cy + (ax * by - ay * bx) * cz;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * A POI found by a search, along with its distance from the searched location.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class Neighbour<T> {
+
+    private final T poi;
+    private final double distance;
+
+    public Neighbour(T poi, double distance) {
+        this.poi = poi;
+        this.distance = distance;
+    }
+
+    /**
+     * @return the POI
+     */
+    public T poi() {
+        return poi;
+    }
+
+    /**
+     * @return the distance from the searched location to the POI in metres
+     */
+    public double distance() {
+        return distance;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Neighbour))
+            return false;
+
+        Neighbour<?> neighbour = (Neighbour<?>) o;
+        return Double.compare(neighbour.distance, distance) == 0 && poi.equals(neighbour.poi);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(poi, distance);
+    }
+
+    @Override
+    public String toString() {
+        return "Neighbour{poi=" + poi + ", distance=" + distance + '}';
+    }
+
+}
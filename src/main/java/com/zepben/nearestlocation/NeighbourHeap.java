@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.Arrays;
+
+/**
+ * Bounded max-heap of (distance, index) pairs used to select the closest POIs.
+ * <p>
+ * Entries are ordered by distance and then by index, so POIs at equal distances keep the order they were supplied in.
+ * The heap is backed by primitive arrays and can be reset and reused between queries.
+ */
+@EverythingIsNonnullByDefault
+final class NeighbourHeap {
+
+    private double[] keys;
+    private int[] indices;
+    private int size;
+    private int capacity;
+    private double maxKey;
+
+    NeighbourHeap() {
+        this(16);
+    }
+
+    NeighbourHeap(int initialCapacity) {
+        keys = new double[Math.max(1, initialCapacity)];
+        indices = new int[Math.max(1, initialCapacity)];
+    }
+
+    /**
+     * Empties the heap.
+     *
+     * @param capacity the maximum number of entries to keep
+     */
+    void reset(int capacity) {
+        reset(capacity, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Empties the heap.
+     *
+     * @param capacity the maximum number of entries to keep
+     * @param maxKey   the largest distance that can enter the heap
+     */
+    void reset(int capacity, double maxKey) {
+        this.capacity = capacity;
+        this.maxKey = maxKey;
+        size = 0;
+    }
+
+    /**
+     * Lowers the largest distance that can enter the heap.
+     *
+     * @param maxKey the largest distance that can enter the heap
+     */
+    void limit(double maxKey) {
+        this.maxKey = Math.min(this.maxKey, maxKey);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size >= capacity;
+    }
+
+    /**
+     * @return the largest distance that can still enter the heap
+     */
+    double bound() {
+        if (!isFull())
+            return maxKey;
+
+        return capacity == 0 ? Double.NEGATIVE_INFINITY : keys[0];
+    }
+
+    /**
+     * Offers an entry to the heap. The entry is kept if it is no further than the maximum distance, and either the heap is not
+     * full or the entry is closer than the current worst entry.
+     *
+     * @param key   the distance of the entry
+     * @param index the index of the entry
+     * @return true if the entry was added to the heap
+     */
+    boolean offer(double key, int index) {
+        if (key > maxKey)
+            return false;
+
+        if (size < capacity) {
+            if (size == keys.length) {
+                int length = (int) Math.min(capacity, 2L * keys.length);
+                keys = Arrays.copyOf(keys, length);
+                indices = Arrays.copyOf(indices, length);
+            }
+            siftUp(size++, key, index);
+            return true;
+        }
+
+        if (capacity == 0 || !less(key, index, keys[0], indices[0]))
+            return false;
+
+        siftDown(0, key, index, size);
+        return true;
+    }
+
+    /**
+     * Sorts the entries from closest to furthest. The heap must be reset before it is offered entries again.
+     *
+     * @return the number of sorted entries
+     */
+    int sort() {
+        for (int end = size - 1; end > 0; --end) {
+            double key = keys[end];
+            int index = indices[end];
+            keys[end] = keys[0];
+            indices[end] = indices[0];
+            siftDown(0, key, index, end);
+        }
+        return size;
+    }
+
+    double key(int i) {
+        return keys[i];
+    }
+
+    int index(int i) {
+        return indices[i];
+    }
+
+    private void siftUp(int pos, double key, int index) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!less(keys[parent], indices[parent], key, index))
+                break;
+
+            keys[pos] = keys[parent];
+            indices[pos] = indices[parent];
+            pos = parent;
+        }
+        keys[pos] = key;
+        indices[pos] = index;
+    }
+
+    private void siftDown(int pos, double key, int index, int end) {
+        int half = end >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < end && less(keys[child], indices[child], keys[right], indices[right]))
+                child = right;
+
+            if (!less(key, index, keys[child], indices[child]))
+                break;
+
+            keys[pos] = keys[child];
+            indices[pos] = indices[child];
+            pos = child;
+        }
+        keys[pos] = key;
+        indices[pos] = index;
+    }
+
+    private static boolean less(double key1, int index1, double key2, int index2) {
+        return key1 < key2 || (key1 == key2 && index1 < index2);
+    }
+
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+@EverythingIsNonnullByDefault
+final class NoNearestLocationsMetrics implements NearestLocationsMetrics {
+
+    static final NoNearestLocationsMetrics INSTANCE = new NoNearestLocationsMetrics();
+
+    private NoNearestLocationsMetrics() {
+    }
+
+    @Override
+    public String toString() {
+        return "none";
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.BitSet;
+import java.util.function.Predicate;
+
+/**
+ * A filter on POIs that has been evaluated once for every POI of an engine, for use with
+ * {@link NearestLocations#find(Object, LocationProvider, int, Predicate)}.
+ * <p>
+ * Along with the POIs that match, the engine records which nodes of its index hold at least one match, so searches can skip
+ * the parts of the index without any. Create one with {@link NearestLocationsStaticPoi#attribute} or
+ * {@link NearestLocationsRasterPoi#attribute}. Other engines, or engines with other POIs, test the attribute like any other
+ * predicate.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class PoiAttribute<T> implements Predicate<T> {
+
+    private final Object index;
+    private final Predicate<? super T> predicate;
+    final BitSet pois;
+    final BitSet nodes;
+
+    /**
+     * @param index     the index that the attribute was evaluated for
+     * @param predicate the filter that was evaluated
+     * @param pois      set for the index of each POI that matches
+     * @param nodes     set for each node of the index that holds a POI that matches
+     */
+    PoiAttribute(Object index, Predicate<? super T> predicate, BitSet pois, BitSet nodes) {
+        this.index = index;
+        this.predicate = predicate;
+        this.pois = pois;
+        this.nodes = nodes;
+    }
+
+    @Override
+    public boolean test(T poi) {
+        return predicate.test(poi);
+    }
+
+    /**
+     * @return the number of POIs that match
+     */
+    public int count() {
+        return pois.cardinality();
+    }
+
+    /**
+     * Combines two attributes of the same engine without evaluating either filter again. Searches skip the nodes of the
+     * index that do not hold a match for both attributes, although they may still visit some nodes that hold separate POIs
+     * for each.
+     *
+     * @param other an attribute created by the same engine
+     * @return an attribute matching the POIs that match both attributes
+     * @throws IllegalArgumentException if the attributes were created by different engines
+     */
+    public PoiAttribute<T> and(PoiAttribute<T> other) {
+        if (other.index != index)
+            throw new IllegalArgumentException("Attributes can only be combined with attributes of the same engine");
+
+        BitSet andPois = (BitSet) pois.clone();
+        andPois.and(other.pois);
+        BitSet andNodes = (BitSet) nodes.clone();
+        andNodes.and(other.nodes);
+
+        Predicate<? super T> first = predicate;
+        Predicate<? super T> second = other.predicate;
+        return new PoiAttribute<>(index, poi -> first.test(poi) && second.test(poi), andPois, andNodes);
+    }
+
+    boolean isIndexedBy(Object index) {
+        return this.index == index;
+    }
+
+}
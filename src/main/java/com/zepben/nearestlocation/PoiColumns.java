@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.Arrays;
+
+/**
+ * The IDs and locations of a set of POIs, stored in primitive columns rather than as an object per POI.
+ * <p>
+ * Use {@link NearestLocationsColumnarPoi#of} to search the POIs, and {@link #id} to identify the POIs in the results.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class PoiColumns {
+
+    private int size;
+    private double[] lats;
+    private double[] lons;
+    private double[] eles;
+    private int[] idOffsets;
+    private char[] idChars;
+
+    PoiColumns() {
+        lats = new double[64];
+        lons = new double[64];
+        eles = new double[64];
+        idOffsets = new int[65];
+        idChars = new char[512];
+    }
+
+    /**
+     * @return the number of POIs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the index of a POI
+     * @return the latitude of the POI in degrees
+     */
+    public double lat(int index) {
+        return lats[checkIndex(index)];
+    }
+
+    /**
+     * @param index the index of a POI
+     * @return the longitude of the POI in degrees
+     */
+    public double lon(int index) {
+        return lons[checkIndex(index)];
+    }
+
+    /**
+     * @param index the index of a POI
+     * @return the elevation of the POI in metres
+     */
+    public double ele(int index) {
+        return eles[checkIndex(index)];
+    }
+
+    /**
+     * @param index the index of a POI
+     * @return the ID of the POI. A new string is created on each call.
+     */
+    public String id(int index) {
+        checkIndex(index);
+        return new String(idChars, idOffsets[index], idOffsets[index + 1] - idOffsets[index]);
+    }
+
+    /**
+     * Adds a POI.
+     *
+     * @param id  the ID of the POI
+     * @param lat the latitude of the POI in degrees
+     * @param lon the longitude of the POI in degrees
+     * @param ele the elevation of the POI in metres
+     */
+    void add(CharSequence id, double lat, double lon, double ele) {
+        if (size == lats.length) {
+            int length = Math.max(64, lats.length + (lats.length >> 1));
+            lats = Arrays.copyOf(lats, length);
+            lons = Arrays.copyOf(lons, length);
+            eles = Arrays.copyOf(eles, length);
+            idOffsets = Arrays.copyOf(idOffsets, length + 1);
+        }
+
+        int start = idOffsets[size];
+        if (start + id.length() > idChars.length)
+            idChars = Arrays.copyOf(idChars, Math.max(start + id.length(), idChars.length + (idChars.length >> 1)));
+
+        for (int i = 0; i < id.length(); ++i)
+            idChars[start + i] = id.charAt(i);
+
+        lats[size] = lat;
+        lons[size] = lon;
+        eles[size] = ele;
+        idOffsets[++size] = start + id.length();
+    }
+
+    /**
+     * Releases the unused capacity of the columns.
+     */
+    void trim() {
+        lats = Arrays.copyOf(lats, size);
+        lons = Arrays.copyOf(lons, size);
+        eles = Arrays.copyOf(eles, size);
+        idOffsets = Arrays.copyOf(idOffsets, size + 1);
+        idChars = Arrays.copyOf(idChars, idOffsets[size]);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(String.format("Index %d is out of bounds for %d POIs", index, size));
+
+        return index;
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the measurements reported to {@link NearestLocationsMetrics} in striped counters and a {@link LatencyHistogram},
+ * so that searching threads do not contend with each other. Use {@link #snapshot} to read the totals.
+ * <p>
+ * One instance can be attached to several engines to combine their measurements.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public class RecordingNearestLocationsMetrics implements NearestLocationsMetrics {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder poisExamined = new LongAdder();
+    private final LongAdder distanceEvaluations = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+    private final LongAdder missingLocations = new LongAdder();
+    private final LongAdder indexBuilds = new LongAdder();
+    private final LongAdder indexBuildNanos = new LongAdder();
+    private final LongAdder indexSize = new LongAdder();
+
+    @Override
+    public void query(long nanos, int poisExamined, int distanceEvaluations, int pruned) {
+        latency.record(nanos);
+        this.poisExamined.add(poisExamined);
+        this.distanceEvaluations.add(distanceEvaluations);
+        this.pruned.add(pruned);
+    }
+
+    @Override
+    public void missingLocation() {
+        missingLocations.increment();
+    }
+
+    @Override
+    public void indexBuilt(long nanos, int size) {
+        indexBuilds.increment();
+        indexBuildNanos.add(nanos);
+        indexSize.add(size);
+    }
+
+    /**
+     * Reads the totals. Measurements reported while the snapshot is taken may or may not be included.
+     *
+     * @return the totals of the measurements reported so far
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(latency.snapshot(),
+            poisExamined.sum(),
+            distanceEvaluations.sum(),
+            pruned.sum(),
+            missingLocations.sum(),
+            indexBuilds.sum(),
+            indexBuildNanos.sum(),
+            indexSize.sum());
+    }
+
+    /**
+     * The totals of the measurements reported to a {@link RecordingNearestLocationsMetrics} at a point in time.
+     */
+    @EverythingIsNonnullByDefault
+    public static final class Snapshot {
+
+        private final LatencyHistogram.Snapshot latency;
+        private final long poisExamined;
+        private final long distanceEvaluations;
+        private final long pruned;
+        private final long missingLocations;
+        private final long indexBuilds;
+        private final long indexBuildNanos;
+        private final long indexSize;
+
+        Snapshot(LatencyHistogram.Snapshot latency,
+                 long poisExamined,
+                 long distanceEvaluations,
+                 long pruned,
+                 long missingLocations,
+                 long indexBuilds,
+                 long indexBuildNanos,
+                 long indexSize) {
+            this.latency = latency;
+            this.poisExamined = poisExamined;
+            this.distanceEvaluations = distanceEvaluations;
+            this.pruned = pruned;
+            this.missingLocations = missingLocations;
+            this.indexBuilds = indexBuilds;
+            this.indexBuildNanos = indexBuildNanos;
+            this.indexSize = indexSize;
+        }
+
+        /**
+         * @return the number of searches
+         */
+        public long queries() {
+            return latency.count();
+        }
+
+        /**
+         * @return the latencies of the searches in nanoseconds
+         */
+        public LatencyHistogram.Snapshot latency() {
+            return latency;
+        }
+
+        /**
+         * @return the total number of POIs considered by the searches
+         */
+        public long poisExamined() {
+            return poisExamined;
+        }
+
+        /**
+         * @return the total number of POIs ranked using the distance metric
+         */
+        public long distanceEvaluations() {
+            return distanceEvaluations;
+        }
+
+        /**
+         * @return the total number of POIs skipped without being ranked
+         */
+        public long pruned() {
+            return pruned;
+        }
+
+        /**
+         * @return the number of entities and POIs without a location found by searches
+         */
+        public long missingLocations() {
+            return missingLocations;
+        }
+
+        /**
+         * @return the number of indexes reported
+         */
+        public long indexBuilds() {
+            return indexBuilds;
+        }
+
+        /**
+         * @return the total time taken to build the indexes in nanoseconds
+         */
+        public long indexBuildNanos() {
+            return indexBuildNanos;
+        }
+
+        /**
+         * @return the total number of POIs in the indexes
+         */
+        public long indexSize() {
+            return indexSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{latency=" + latency +
+                ", poisExamined=" + poisExamined +
+                ", distanceEvaluations=" + distanceEvaluations +
+                ", pruned=" + pruned +
+                ", missingLocations=" + missingLocations +
+                ", indexBuilds=" + indexBuilds +
+                ", indexBuildNanos=" + indexBuildNanos +
+                ", indexSize=" + indexSize +
+                '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * A polyline POI found by a search, along with the closest point of the POI to the search location.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class SegmentNeighbour<T> {
+
+    private final T poi;
+    private final double distance;
+    private final int segment;
+    private final double lat;
+    private final double lon;
+
+    public SegmentNeighbour(T poi, double distance, int segment, double lat, double lon) {
+        this.poi = poi;
+        this.distance = distance;
+        this.segment = segment;
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    /**
+     * @return the POI that was found
+     */
+    public T poi() {
+        return poi;
+    }
+
+    /**
+     * @return the great circle distance in metres from the search location to the closest point of the POI
+     */
+    public double distance() {
+        return distance;
+    }
+
+    /**
+     * @return the index of the first vertex of the segment holding the closest point
+     */
+    public int segment() {
+        return segment;
+    }
+
+    /**
+     * @return the latitude of the closest point in degrees
+     */
+    public double lat() {
+        return lat;
+    }
+
+    /**
+     * @return the longitude of the closest point in degrees
+     */
+    public double lon() {
+        return lon;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SegmentNeighbour))
+            return false;
+
+        SegmentNeighbour<?> neighbour = (SegmentNeighbour<?>) o;
+        return (Double.compare(neighbour.distance, distance) == 0)
+            && (neighbour.segment == segment)
+            && (Double.compare(neighbour.lat, lat) == 0)
+            && (Double.compare(neighbour.lon, lon) == 0)
+            && poi.equals(neighbour.poi);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(poi, distance, segment, lat, lon);
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentNeighbour{poi=" + poi + ", distance=" + distance + ", segment=" + segment + ", lat=" + lat + ", lon=" + lon + '}';
+    }
+
+}
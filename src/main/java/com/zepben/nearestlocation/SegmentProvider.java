@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Interface to get the vertices of POIs that are lines rather than points, such as conductor spans or feeders. Each POI is a
+ * polyline joining its vertices in order with great circle segments. A span is a polyline with two vertices.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+public interface SegmentProvider<T> {
+
+    /**
+     * @param poi the POI
+     * @return the number of vertices of the POI, which is zero if it does not have a location
+     */
+    int vertexCount(T poi);
+
+    /**
+     * @param poi    the POI
+     * @param vertex the index of the vertex, less than the {@link #vertexCount}
+     * @return the latitude of the vertex in degrees
+     */
+    double lat(T poi, int vertex);
+
+    /**
+     * @param poi    the POI
+     * @param vertex the index of the vertex, less than the {@link #vertexCount}
+     * @return the longitude of the vertex in degrees
+     */
+    double lon(T poi, int vertex);
+
+    /**
+     * @param poi the POI
+     * @return the ID of the POI, used to report POIs without a location or with an invalid location
+     */
+    String id(T poi);
+
+}
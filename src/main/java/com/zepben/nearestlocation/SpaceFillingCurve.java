@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Orders locations along a Hilbert curve over latitude and longitude, so that locations that are close together in the
+ * order are usually close together on the earth.
+ */
+@EverythingIsNonnullByDefault
+final class SpaceFillingCurve {
+
+    private static final int BITS = 16;
+    private static final int SIDE = 1 << BITS;
+    private static final long NO_LOCATION = 0xFFFFFFFFL;
+
+    /**
+     * Sorts entities along the curve. Entities without a location are placed at the end, and entities with the same curve
+     * position keep their iteration order.
+     *
+     * @param entities   the entities to sort
+     * @param lcprEntity LocationProvider for the entities
+     * @param <U>        entity type
+     * @return a new list of the entities in curve order
+     */
+    static <U> List<U> sort(Collection<U> entities, LocationProvider<U> lcprEntity) {
+        List<U> entityList = new ArrayList<>(entities);
+
+        // Pack the curve position above the original index, which keeps the sort stable and avoids boxing.
+        long[] keys = new long[entityList.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            U entity = entityList.get(i);
+            long position = lcprEntity.hasLocation(entity) ? index(lcprEntity.lat(entity), lcprEntity.lon(entity)) : NO_LOCATION;
+            keys[i] = (position << 31) | i;
+        }
+        Arrays.sort(keys);
+
+        List<U> sorted = new ArrayList<>(keys.length);
+        for (long key : keys)
+            sorted.add(entityList.get((int) (key & Integer.MAX_VALUE)));
+
+        return sorted;
+    }
+
+    /**
+     * @param lat the latitude in degrees
+     * @param lon the longitude in degrees
+     * @return the position of the location along the curve
+     */
+    static long index(double lat, double lon) {
+        int x = quantise((lon + 180) / 360);
+        int y = quantise((lat + 90) / 180);
+
+        long d = 0;
+        for (int s = SIDE >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+
+            // Rotate the quadrant so that the curve is continuous.
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = SIDE - 1 - x;
+                    y = SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    private static int quantise(double fraction) {
+        if (!(fraction > 0))
+            return 0;
+
+        return (int) Math.min(SIDE - 1, fraction * SIDE);
+    }
+
+    private SpaceFillingCurve() {
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+/**
+ * Helpers for working with locations as earth-centred unit vectors.
+ * <p>
+ * The straight line (chord) distance between two unit vectors increases with the central angle between the locations, so
+ * bounds on chord distances can be used to prune spatial searches without changing the result order.
+ */
+@EverythingIsNonnullByDefault
+final class UnitSphere {
+
+    static final double EARTH_RADIUS = 6371008;
+
+    // Slack added to chord bounds so that rounding differences between the chord and haversine calculations never prune a
+    // location that should have been included.
+    private static final double RELATIVE_SLACK = 1e-9;
+    private static final double ABSOLUTE_SLACK = 1e-12;
+
+    static double x(double lat, double lon) {
+        return Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(lon));
+    }
+
+    static double y(double lat, double lon) {
+        return Math.cos(Math.toRadians(lat)) * Math.sin(Math.toRadians(lon));
+    }
+
+    static double z(double lat) {
+        return Math.sin(Math.toRadians(lat));
+    }
+
+    /**
+     * Converts a central angle into the largest squared chord length between unit vectors separated by at most that angle.
+     *
+     * @param angle the central angle in radians
+     * @return the squared chord length, or infinity if every point on the sphere is within the angle
+     */
+    static double maxChordSquared(double angle) {
+        if (angle >= Math.PI)
+            return Double.POSITIVE_INFINITY;
+
+        double chord = 2 * Math.sin(angle / 2) * (1 + RELATIVE_SLACK) + ABSOLUTE_SLACK;
+        return chord * chord;
+    }
+
+    private UnitSphere() {
+    }
+
+}
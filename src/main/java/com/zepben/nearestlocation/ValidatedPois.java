@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The POIs of an engine with their locations read and validated once, so that searches only see valid coordinates.
+ *
+ * @param <T> POI type
+ */
+@EverythingIsNonnullByDefault
+final class ValidatedPois<T> {
+
+    final List<T> pois = new ArrayList<>();
+    final double[] lats;
+    final double[] lons;
+    final double[] eles;
+    final ValidationReport report;
+
+    /**
+     * Reads the location of each distinct POI, in one call if the provider is a {@link ColumnarLocationSource}. POIs without
+     * a location are reported to the handler and left out.
+     *
+     * @throws InvalidLocationException if the location of a POI is not in the valid range and the policy is
+     *                                  {@link ValidationPolicy#THROW}
+     */
+    ValidatedPois(Collection<T> poiCollection, LocationProvider<T> lcprPoi, MissingLocationHandler missingLocationHandler, ValidationPolicy policy) {
+        List<T> distinct = poiCollection.stream().distinct().collect(toList());
+        double[] lats = new double[distinct.size()];
+        double[] lons = new double[distinct.size()];
+        double[] eles = new double[distinct.size()];
+        List<String> missingIds = new ArrayList<>();
+        List<String> invalidIds = new ArrayList<>();
+        List<String> skippedIds = new ArrayList<>();
+
+        BitSet hasLocation = new BitSet(distinct.size());
+        if (lcprPoi instanceof ColumnarLocationSource)
+            ((ColumnarLocationSource<T>) lcprPoi).readLocations(Collections.unmodifiableList(distinct), lats, lons, eles, hasLocation);
+        else
+            readLocations(distinct, lcprPoi, lats, lons, eles, hasLocation);
+
+        // Valid locations are moved down over the POIs that were left out, so the arrays end up holding the kept POIs.
+        for (int j = 0; j < distinct.size(); ++j) {
+            T poi = distinct.get(j);
+            if (!hasLocation.get(j)) {
+                String id = lcprPoi.id(poi);
+                missingIds.add(id);
+                missingLocationHandler.handle(id, null);
+                continue;
+            }
+
+            double lat = lats[j];
+            double lon = lons[j];
+            double ele = eles[j];
+            if (!LocationUtility.validateLocation(lat, lon, ele)) {
+                String id = lcprPoi.id(poi);
+                if (policy == ValidationPolicy.THROW)
+                    throw new InvalidLocationException(String.format("%s has an invalid location", id));
+
+                invalidIds.add(id);
+                if ((policy == ValidationPolicy.SKIP) || Double.isNaN(lat) || Double.isNaN(lon) || Double.isNaN(ele) || Double.isInfinite(lon)) {
+                    skippedIds.add(id);
+                    continue;
+                }
+
+                lat = Math.max(-90, Math.min(90, lat));
+                lon = wrapLongitude(lon);
+                ele = Math.max(0, ele);
+            }
+
+            int i = pois.size();
+            pois.add(poi);
+            lats[i] = lat;
+            lons[i] = lon;
+            eles[i] = ele;
+        }
+
+        this.lats = Arrays.copyOf(lats, pois.size());
+        this.lons = Arrays.copyOf(lons, pois.size());
+        this.eles = Arrays.copyOf(eles, pois.size());
+        this.report = new ValidationReport(policy, pois.size(), missingIds, invalidIds, skippedIds);
+    }
+
+    int size() {
+        return pois.size();
+    }
+
+    /**
+     * Reads the locations of the POIs one at a time, for providers that are not a {@link ColumnarLocationSource}.
+     */
+    private static <T> void readLocations(List<T> pois,
+                                          LocationProvider<T> lcprPoi,
+                                          double[] lats,
+                                          double[] lons,
+                                          double[] eles,
+                                          BitSet hasLocation) {
+        for (int i = 0; i < pois.size(); ++i) {
+            T poi = pois.get(i);
+            if (lcprPoi.hasLocation(poi)) {
+                hasLocation.set(i);
+                lats[i] = lcprPoi.lat(poi);
+                lons[i] = lcprPoi.lon(poi);
+                eles[i] = lcprPoi.ele(poi);
+            }
+        }
+    }
+
+    private static double wrapLongitude(double lon) {
+        if ((lon >= -180) && (lon <= 180))
+            return lon;
+
+        double wrapped = ((lon + 180) % 360 + 360) % 360 - 180;
+        return wrapped == -180 && lon > 0 ? 180 : wrapped;
+    }
+
+}
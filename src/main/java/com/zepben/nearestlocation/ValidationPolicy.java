@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+/**
+ * What an engine does with POIs whose location is outside the valid range when it is created.
+ *
+ * @see ValidationReport
+ */
+public enum ValidationPolicy {
+
+    /**
+     * Throw an {@link InvalidLocationException} for the first POI with an invalid location.
+     */
+    THROW,
+
+    /**
+     * Leave POIs with an invalid location out of the engine, so they are never returned.
+     */
+    SKIP,
+
+    /**
+     * Move POIs with an invalid location to the nearest valid location: latitudes are clamped to the poles, longitudes are
+     * wrapped around the antimeridian and negative elevations are raised to zero. POIs with a location that is not a number
+     * are skipped.
+     */
+    CLAMP
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.annotations.EverythingIsNonnullByDefault;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of validating the POIs of an engine when it was created.
+ */
+@EverythingIsNonnullByDefault
+@SuppressWarnings("WeakerAccess")
+public final class ValidationReport {
+
+    private final ValidationPolicy policy;
+    private final int validCount;
+    private final List<String> missingIds;
+    private final List<String> invalidIds;
+    private final List<String> skippedIds;
+
+    ValidationReport(ValidationPolicy policy, int validCount, List<String> missingIds, List<String> invalidIds, List<String> skippedIds) {
+        this.policy = policy;
+        this.validCount = validCount;
+        this.missingIds = Collections.unmodifiableList(missingIds);
+        this.invalidIds = Collections.unmodifiableList(invalidIds);
+        this.skippedIds = Collections.unmodifiableList(skippedIds);
+    }
+
+    /**
+     * @return the policy used for POIs with an invalid location
+     */
+    public ValidationPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of POIs that can be returned by the engine, including POIs that were clamped
+     */
+    public int validCount() {
+        return validCount;
+    }
+
+    /**
+     * @return the IDs of the POIs without a location, in the order they were found
+     */
+    public List<String> missingIds() {
+        return missingIds;
+    }
+
+    /**
+     * @return the IDs of the POIs with a location outside the valid range, in the order they were found
+     */
+    public List<String> invalidIds() {
+        return invalidIds;
+    }
+
+    /**
+     * @return the IDs of the POIs with an invalid location that were left out of the engine
+     */
+    public List<String> skippedIds() {
+        return skippedIds;
+    }
+
+    /**
+     * @return true if every POI had a valid location
+     */
+    public boolean isClean() {
+        return missingIds.isEmpty() && invalidIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationReport{policy=" + policy +
+            ", validCount=" + validCount +
+            ", missingIds=" + missingIds +
+            ", invalidIds=" + invalidIds +
+            ", skippedIds=" + skippedIds +
+            '}';
+    }
+
+}
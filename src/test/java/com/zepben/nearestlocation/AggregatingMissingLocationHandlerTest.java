@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.nonNull;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class AggregatingMissingLocationHandlerTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void summarisesPeriodically() {
+        Logger logger = mock(Logger.class);
+        AtomicLong now = new AtomicLong(1000);
+        AggregatingMissingLocationHandler handler = new AggregatingMissingLocationHandler(logger, Duration.ofNanos(100), now::get);
+        assertThat(handler.logger(), equalTo(logger));
+        assertThat(handler.repeatMissingPois(), equalTo(false));
+
+        // The first report is summarised straight away.
+        handler.handle("a", null);
+        verify(logger, times(1)).warn("1 locations missing since the last summary, 1 new IDs without location data: a, 1 IDs in total");
+
+        handler.handle("a", null);
+        handler.handle("b", null);
+        handler.handle("a", null);
+        verifyNoMoreInteractions(logger);
+
+        now.addAndGet(100);
+        handler.handle("c", null);
+        verify(logger, times(1)).warn("4 locations missing since the last summary, 2 new IDs without location data: b, c, 3 IDs in total");
+
+        handler.handle("a", null);
+        handler.summarise();
+        verify(logger, times(1)).warn("1 locations missing since the last summary, 0 new IDs without location data, 3 IDs in total");
+
+        // Nothing new to summarise.
+        handler.summarise();
+        verifyNoMoreInteractions(logger);
+
+        assertThat(handler.missingIds(), containsInAnyOrder("a", "b", "c"));
+        assertThat(handler.reportCount(), equalTo(6L));
+    }
+
+    @Test
+    public void limitsListedIds() {
+        Logger logger = mock(Logger.class);
+        AggregatingMissingLocationHandler handler = new AggregatingMissingLocationHandler(logger, Duration.ofHours(1), () -> 0);
+        handler.handle("first", null);
+
+        List<String> listed = new ArrayList<>();
+        for (int i = 0; i < AggregatingMissingLocationHandler.MAX_LISTED_IDS + 5; ++i) {
+            handler.handle("id" + i, null);
+            if (i < AggregatingMissingLocationHandler.MAX_LISTED_IDS)
+                listed.add("id" + i);
+        }
+        handler.summarise();
+
+        verify(logger, times(1)).warn(String.format("%d locations missing since the last summary, %d new IDs without location data: %s and 5 more, %d IDs in total",
+            AggregatingMissingLocationHandler.MAX_LISTED_IDS + 5,
+            AggregatingMissingLocationHandler.MAX_LISTED_IDS + 5,
+            String.join(", ", listed),
+            AggregatingMissingLocationHandler.MAX_LISTED_IDS + 6));
+    }
+
+    @Test
+    public void movablePoiReportsOnce() {
+        @SuppressWarnings("ConstantConditions") WeatherStation w1 = new WeatherStation(null, 10, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(140, -34), 10, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(141, -34), 10, "w3");
+        List<WeatherStation> poiList = new ArrayList<>();
+        poiList.add(w1);
+        poiList.add(w2);
+        poiList.add(w3);
+
+        MissingLocationHandler handler = spy(new AggregatingMissingLocationHandler(mock(Logger.class)));
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, handler);
+        verify(handler, times(1)).handle("w1", null);
+
+        Transformer t = new Transformer(new LngLat(149, -35), 0, "tr1");
+        for (int i = 0; i < 10; ++i)
+            assertThat(entity.find(t, lcprTr, 3), contains(w3, w2));
+        verify(handler, times(1)).handle("w1", null);
+
+        // POIs that lose their location are reported the first time they are found.
+        w3.lngLat = null;
+        for (int i = 0; i < 10; ++i)
+            assertThat(entity.find(t, lcprTr, 3), contains(w2));
+        verify(handler, times(1)).handle("w3", null);
+
+        // Entities are still reported on every search.
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr2");
+        entity.find(noLocation, lcprTr, 3);
+        entity.find(noLocation, lcprTr, 3);
+        verify(handler, times(2)).handle("tr2", null);
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CachingNearestLocationsTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingNearestLocationsTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    private final List<WeatherStation> poiList = new ArrayList<>();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    private final WeatherStation w1 = new WeatherStation(new LngLat(1, 1), 0, "w1");
+    private final WeatherStation w2 = new WeatherStation(new LngLat(1, 2), 0, "w2");
+    private final WeatherStation w3 = new WeatherStation(new LngLat(1, 3), 0, "w3");
+
+    @Test
+    public void cachesExactLocations() {
+        poiList.add(w1);
+        poiList.add(w2);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler), 10);
+
+        Transformer t1 = new Transformer(new LngLat(1, 0), 0, "tr1");
+        Transformer t2 = new Transformer(new LngLat(1, 0.00001), 0, "tr2");
+        assertThat(cache.find(t1, lcprTr, 2), contains(w1, w2));
+        assertThat(cache.find(new Transformer(new LngLat(1, 0), 0, "tr1-copy"), lcprTr, 2), contains(w1, w2));
+        assertThat(cache.find(t2, lcprTr, 2), contains(w1, w2));
+        assertThat(cache.find(t1, lcprTr, 1), contains(w1));
+        assertThat(cache.find(t1, lcprTr), equalTo(w1));
+
+        assertThat(cache.hits(), equalTo(2L));
+        assertThat(cache.misses(), equalTo(3L));
+        assertThat(cache.size(), equalTo(3));
+
+        List<WeatherStation> results = cache.find(t1, lcprTr, 2);
+        expect(() -> results.add(w3)).toThrow(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void quantisesLocations() {
+        poiList.add(w1);
+        poiList.add(w2);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler), 10, 0.001, 10);
+
+        assertThat(cache.find(new Transformer(new LngLat(1, 0), 0, "tr1"), lcprTr, 2), contains(w1, w2));
+        assertThat(cache.find(new Transformer(new LngLat(1.0001, 0.0002), 2, "tr2"), lcprTr, 2), contains(w1, w2));
+        assertThat(cache.find(new Transformer(new LngLat(1, 0), 100, "tr3"), lcprTr, 2), contains(w1, w2));
+
+        assertThat(cache.hits(), equalTo(1L));
+        assertThat(cache.misses(), equalTo(2L));
+    }
+
+    @Test
+    public void findWithin() {
+        poiList.add(w1);
+        poiList.add(w2);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler), 10);
+
+        double oneDegree = LocationUtility.calculateDistance(0, 1, 0, 1, 1, 0);
+        Transformer t = new Transformer(new LngLat(1, 0), 0, "tr1");
+        assertThat(cache.findWithin(t, lcprTr, oneDegree * 1.5), contains(w1));
+        assertThat(cache.findWithin(t, lcprTr, oneDegree * 2.5), contains(w1, w2));
+        assertThat(cache.findWithin(t, lcprTr, oneDegree * 2.5, 1), contains(w1));
+        assertThat(cache.findWithin(t, lcprTr, oneDegree * 1.5), contains(w1));
+        assertThat(cache.find(t, lcprTr, 1), contains(w1));
+
+        assertThat(cache.hits(), equalTo(1L));
+        assertThat(cache.misses(), equalTo(4L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        poiList.add(w1);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler), 2);
+
+        Transformer t1 = new Transformer(new LngLat(1, 0), 0, "tr1");
+        Transformer t2 = new Transformer(new LngLat(2, 0), 0, "tr2");
+        Transformer t3 = new Transformer(new LngLat(3, 0), 0, "tr3");
+        cache.find(t1, lcprTr, 1);
+        cache.find(t2, lcprTr, 1);
+        cache.find(t1, lcprTr, 1);
+        cache.find(t3, lcprTr, 1);
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.hits(), equalTo(1L));
+
+        // t2 was the least recently used, so it was evicted.
+        cache.find(t1, lcprTr, 1);
+        assertThat(cache.hits(), equalTo(2L));
+        cache.find(t2, lcprTr, 1);
+        assertThat(cache.hits(), equalTo(2L));
+    }
+
+    @Test
+    public void concurrentSearches() throws Exception {
+        Random random = new Random(13);
+        for (int i = 0; i < 500; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "w" + i));
+        NearestLocations<WeatherStation> delegate = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(delegate, 1000);
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 1500; ++i)
+            transformers.add(new Transformer(new LngLat(140 + random.nextInt(50) * 0.2, -40 + random.nextInt(50) * 0.2), 0, "tr" + i));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> searches = new ArrayList<>();
+            for (int thread = 0; thread < 4; ++thread) {
+                searches.add(executor.submit(() -> {
+                    for (Transformer t : transformers)
+                        assertThat(cache.find(t, lcprTr, 3), equalTo(delegate.find(t, lcprTr, 3)));
+                }));
+            }
+            for (Future<?> search : searches)
+                search.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(cache.hits() + cache.misses(), equalTo(4L * transformers.size()));
+        assertTrue(cache.hits() > 0);
+        assertTrue(cache.size() <= 1000);
+
+        cache.invalidate();
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void invalidation() {
+        poiList.add(w2);
+        NearestLocationsDynamicPoi<WeatherStation> dynamic = new NearestLocationsDynamicPoi<>(poiList, lcprWs, missingLocationHandler);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(dynamic, 10);
+
+        Transformer t = new Transformer(new LngLat(1, 0), 0, "tr1");
+        assertThat(cache.find(t, lcprTr), equalTo(w2));
+        dynamic.add(w1);
+        assertThat(cache.find(t, lcprTr), equalTo(w1));
+        w1.lngLat = new LngLat(1, 5);
+        dynamic.moved(w1);
+        assertThat(cache.find(t, lcprTr), equalTo(w2));
+        assertThat(cache.hits(), equalTo(0L));
+
+        poiList.add(0, w3);
+        NearestLocationsMovablePoi<WeatherStation> movable = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        CachingNearestLocations<WeatherStation> movableCache = new CachingNearestLocations<>(movable, 10);
+        assertThat(movableCache.find(t, lcprTr), equalTo(w2));
+        w3.lngLat = new LngLat(1, 0.5);
+        assertThat(movableCache.find(t, lcprTr), equalTo(w2));
+        movableCache.invalidate();
+        assertThat(movableCache.size(), equalTo(0));
+        assertThat(movableCache.find(t, lcprTr), equalTo(w3));
+
+        NearestLocationsSnapshotPoi<WeatherStation> snapshot = new NearestLocationsSnapshotPoi<>(Collections.singletonList(w2), lcprWs, missingLocationHandler);
+        CachingNearestLocations<WeatherStation> snapshotCache = new CachingNearestLocations<>(snapshot, 10);
+        assertThat(snapshotCache.find(t, lcprTr), equalTo(w2));
+        assertThat(snapshotCache.find(t, lcprTr), equalTo(w2));
+        assertThat(snapshotCache.hits(), equalTo(1L));
+        snapshot.replace(Arrays.asList(w2, w3));
+        assertThat(snapshotCache.find(t, lcprTr), equalTo(w3));
+        assertThat(snapshotCache.hits(), equalTo(1L));
+    }
+
+    @Test
+    public void passesThroughOtherSearches() {
+        poiList.add(w1);
+        CachingNearestLocations<WeatherStation> cache = new CachingNearestLocations<>(new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler), 10);
+
+        Transformer t = new Transformer(new LngLat(1, 0), 0, "tr1");
+        assertThat(cache.findNeighbours(t, lcprTr, 1).get(0).poi(), equalTo(w1));
+        assertThat(cache.findNeighboursWithin(t, lcprTr, 1).size(), equalTo(0));
+        assertThat(cache.find(t, lcprTr, new WeatherStation[1], new double[1]), equalTo(1));
+        assertThat(cache.misses(), equalTo(0L));
+
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr2");
+        assertTrue(cache.find(noLocation, lcprTr, 1).isEmpty());
+        assertTrue(cache.findWithin(noLocation, lcprTr, 10).isEmpty());
+        assertThat(systemErrRule.getLog(), containsString("tr2 does not have location data"));
+        assertThat(cache.size(), equalTo(0));
+
+        Transformer invalid = new Transformer(new LngLat(1, -100), 0, "tr3");
+        expect(() -> cache.find(invalid, lcprTr, 1)).toThrow(InvalidLocationException.class);
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void invalidArguments() {
+        NearestLocations<WeatherStation> delegate = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        expect(() -> new CachingNearestLocations<>(delegate, 0)).toThrow(IllegalArgumentException.class);
+        expect(() -> new CachingNearestLocations<>(delegate, 1, -1, 0)).toThrow(IllegalArgumentException.class);
+        expect(() -> new CachingNearestLocations<>(delegate, 1, 0, Double.NaN)).toThrow(IllegalArgumentException.class);
+    }
+
+}
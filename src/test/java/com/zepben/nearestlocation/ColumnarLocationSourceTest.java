@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+
+public class ColumnarLocationSourceTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(ColumnarLocationSourceTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void enginesReadLocationsInBulk() {
+        Random random = new Random(19);
+        List<WeatherStation> stations = new ArrayList<>();
+        for (int i = 0; i < 500; ++i)
+            stations.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), random.nextInt(50), "w" + i));
+        @SuppressWarnings("ConstantConditions") WeatherStation missing = new WeatherStation(null, 0, "w-missing");
+        stations.add(missing);
+        stations.add(new WeatherStation(new LngLat(145, -95), 0, "w-invalid"));
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 100; ++i)
+            transformers.add(new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i));
+
+        List<NearestLocations<WeatherStation>> expected = Arrays.asList(
+            new NearestLocationsStaticPoi<>(stations, lcprWs, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.SKIP),
+            new NearestLocationsColumnarPoi<>(stations, lcprWs, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.SKIP),
+            new NearestLocationsRasterPoi<>(stations, lcprWs, missingLocationHandler, DistanceMetric.haversine(), 1 << 16, ValidationPolicy.SKIP));
+
+        ColumnarStations source = new ColumnarStations();
+        NearestLocationsStaticPoi<WeatherStation> staticPoi = new NearestLocationsStaticPoi<>(stations, source, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.SKIP);
+        NearestLocationsColumnarPoi<WeatherStation> columnarPoi = new NearestLocationsColumnarPoi<>(stations, source, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.SKIP);
+        NearestLocationsRasterPoi<WeatherStation> rasterPoi = new NearestLocationsRasterPoi<>(stations, source, missingLocationHandler, DistanceMetric.haversine(), 1 << 16, ValidationPolicy.SKIP);
+        List<NearestLocations<WeatherStation>> actual = Arrays.asList(staticPoi, columnarPoi, rasterPoi);
+
+        assertThat(source.bulkReads, equalTo(3));
+        assertThat(source.singleReads, equalTo(0));
+
+        for (ValidationReport report : Arrays.asList(staticPoi.validationReport(), columnarPoi.validationReport(), rasterPoi.validationReport())) {
+            assertThat(report.validCount(), equalTo(500));
+            assertThat(report.missingIds(), contains("w-missing"));
+            assertThat(report.skippedIds(), contains("w-invalid"));
+        }
+
+        for (int i = 0; i < actual.size(); ++i) {
+            for (Transformer t : transformers)
+                assertThat(actual.get(i).findNeighbours(t, lcprTr, 4), equalTo(expected.get(i).findNeighbours(t, lcprTr, 4)));
+        }
+    }
+
+    /**
+     * Provides the locations of weather stations in bulk, and counts the calls for single coordinates.
+     */
+    private class ColumnarStations implements ColumnarLocationSource<WeatherStation> {
+
+        private int bulkReads = 0;
+        private int singleReads = 0;
+
+        @Override
+        public void readLocations(List<WeatherStation> pois, double[] lats, double[] lons, double[] eles, BitSet hasLocation) {
+            ++bulkReads;
+            for (int i = 0; i < pois.size(); ++i) {
+                WeatherStation station = pois.get(i);
+                if (station.lngLat != null) {
+                    hasLocation.set(i);
+                    lats[i] = station.lngLat.latitude();
+                    lons[i] = station.lngLat.longitude();
+                    eles[i] = station.ele;
+                }
+            }
+        }
+
+        @Override
+        public double lon(WeatherStation entity) {
+            ++singleReads;
+            return lcprWs.lon(entity);
+        }
+
+        @Override
+        public double lat(WeatherStation entity) {
+            ++singleReads;
+            return lcprWs.lat(entity);
+        }
+
+        @Override
+        public double ele(WeatherStation entity) {
+            ++singleReads;
+            return lcprWs.ele(entity);
+        }
+
+        @Override
+        public String id(WeatherStation entity) {
+            return lcprWs.id(entity);
+        }
+
+        @Override
+        public boolean hasLocation(WeatherStation entity) {
+            ++singleReads;
+            return lcprWs.hasLocation(entity);
+        }
+
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.anyOf;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CsvPoiLoaderTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvPoiLoaderTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    private static final Path STATIONS = Paths.get("src", "test", "data", "output.csv");
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void loadsStations() throws IOException {
+        PoiColumns columns = CsvPoiLoader.builder().build().load(STATIONS, missingLocationHandler);
+
+        List<WeatherStation> stations = new ArrayList<>();
+        List<String> lines = Files.readAllLines(STATIONS);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            stations.add(new WeatherStation(new LngLat(Double.parseDouble(fields[3]), Double.parseDouble(fields[2])), Double.parseDouble(fields[4]), fields[1]));
+        }
+
+        assertThat(columns.size(), equalTo(stations.size()));
+        for (int i = 0; i < stations.size(); ++i) {
+            WeatherStation station = stations.get(i);
+            assertThat(columns.id(i), equalTo(station.id));
+            assertThat(columns.lat(i), equalTo(station.lngLat.latitude()));
+            assertThat(columns.lon(i), equalTo(station.lngLat.longitude()));
+            assertThat(columns.ele(i), equalTo(station.ele));
+        }
+
+        NearestLocations<String> actual = NearestLocationsColumnarPoi.of(columns, columns::id, missingLocationHandler);
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(stations, lcprWs, missingLocationHandler);
+        Transformer t = new Transformer(new LngLat(144.9631, -37.8136), 0, "tr1");
+        List<String> expectedIds = new ArrayList<>();
+        expected.find(t, lcprTr, 10).forEach(station -> expectedIds.add(station.id));
+        assertThat(actual.find(t, lcprTr, 10), equalTo(expectedIds));
+    }
+
+    @Test
+    public void customColumnsAndQuoting() throws IOException {
+        String csv = "lat;lon;\"id\"\r\n" +
+            "-35.5;149.25;\"a;b\"\r\n" +
+            "\r\n" +
+            "\"-36\";150;\"say \"\"hi\"\"\"\r\n" +
+            ";150;missing\n" +
+            "x;150;unparsable\n" +
+            "-37;151;last";
+
+        CsvPoiLoader loader = CsvPoiLoader.builder()
+            .delimiter(';')
+            .latitudeColumn(0)
+            .longitudeColumn(1)
+            .idColumn(2)
+            .elevationColumn(-1)
+            .build();
+        PoiColumns columns = loader.load(new StringReader(csv), missingLocationHandler);
+
+        assertThat(columns.size(), equalTo(3));
+        assertThat(columns.id(0), equalTo("a;b"));
+        assertThat(columns.lat(0), equalTo(-35.5));
+        assertThat(columns.lon(0), equalTo(149.25));
+        assertThat(columns.ele(0), equalTo(0.0));
+        assertThat(columns.id(1), equalTo("say \"hi\""));
+        assertThat(columns.lat(1), equalTo(-36.0));
+        assertThat(columns.id(2), equalTo("last"));
+
+        assertThat(systemErrRule.getLog(), containsString("missing does not have location data"));
+        assertThat(systemErrRule.getLog(), containsString("unparsable does not have location data"));
+
+        expect(() -> columns.id(3)).toThrow(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void manyRows() throws IOException {
+        StringBuilder csv = new StringBuilder("name,id,lat,lon,ele\n");
+        for (int i = 0; i < 20000; ++i)
+            csv.append("station ").append(i).append(',').append(i).append(',').append(-40 + i / 1000.0).append(',').append(140 + i / 2000.0).append(',').append(i % 7).append('\n');
+
+        PoiColumns columns = CsvPoiLoader.builder().build().load(new StringReader(csv.toString()), missingLocationHandler);
+        assertThat(columns.size(), equalTo(20000));
+        assertThat(columns.id(12345), equalTo("12345"));
+        assertThat(columns.lat(12345), equalTo(-40 + 12345 / 1000.0));
+        assertThat(columns.ele(12345), equalTo(12345 % 7 * 1.0));
+    }
+
+    @Test
+    public void headerAfterBlankLines() throws IOException {
+        String csv = "\uFEFF\n\r\nname,id,lat,lon,ele\nstation,1,-35,149,10\n";
+
+        List<String> missing = new ArrayList<>();
+        PoiColumns columns = CsvPoiLoader.builder().build().load(new StringReader(csv), (id, cause) -> missing.add(id));
+        assertThat(columns.size(), equalTo(1));
+        assertThat(columns.id(0), equalTo("1"));
+        assertThat(columns.ele(0), equalTo(10.0));
+        assertThat(missing.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void skipsWhiteSpaceRows() throws IOException {
+        String csv = "  \t\nname,id,lat,lon,ele\n \nstation,1,-35,149,10\n\t\r\n   \n";
+
+        PoiColumns columns = CsvPoiLoader.builder().build().load(new StringReader(csv), missingLocationHandler);
+        assertThat(columns.size(), equalTo(1));
+        assertThat(columns.id(0), equalTo("1"));
+
+        expect(() -> CsvPoiLoader.builder().build().load(new StringReader(csv + "station,2,-35\n"), missingLocationHandler))
+            .toThrow(IOException.class)
+            .withMessage("Line 7 has 3 columns, but at least 5 are required");
+    }
+
+    @Test
+    public void parsesNumbersLikeParseDouble() throws IOException {
+        List<String> values = new ArrayList<>(Arrays.asList(
+            "0", "-0", "+1", "1.", ".5", "-0.0000", "007.25", " 12.5 ", "1e2", "1.5E-3", "-2e+1", "1e0001", "1e22", "1e-22",
+            "1e23", "1e-23", "1e400", "149.13000920000002", "0.1234567890123456789", "123456789012345", "1234567890123456",
+            "Infinity", "0x1p3", "1d", "2.5f"));
+        Random random = new Random(12);
+        for (int i = 0; i < 5000; ++i) {
+            values.add(Double.toString(random.nextDouble() * 360 - 180));
+            values.add(String.format("%.6f", random.nextDouble() * 180 - 90));
+            values.add(Long.toString(Math.abs(random.nextLong() % 1000000000000000L)) + "e-" + random.nextInt(30));
+        }
+
+        // Each value is parsed as a longitude where it is in range, and as an elevation where it is not negative.
+        StringBuilder csv = new StringBuilder();
+        for (String value : values) {
+            double expected = Double.parseDouble(value);
+            csv.append("id,0,")
+                .append(Math.abs(expected) <= 180 ? value : "0")
+                .append(',')
+                .append(expected >= 0 ? value : "0")
+                .append('\n');
+        }
+
+        CsvPoiLoader loader = CsvPoiLoader.builder().hasHeader(false).idColumn(0).latitudeColumn(1).longitudeColumn(2).elevationColumn(3).build();
+        PoiColumns columns = loader.load(new StringReader(csv.toString()), missingLocationHandler);
+        assertThat(columns.size(), equalTo(values.size()));
+        for (int i = 0; i < values.size(); ++i) {
+            long expected = Double.doubleToRawLongBits(Double.parseDouble(values.get(i)));
+            assertThat(values.get(i), expected, anyOf(equalTo(Double.doubleToRawLongBits(columns.lon(i))), equalTo(Double.doubleToRawLongBits(columns.ele(i)))));
+        }
+
+        loader.load(new StringReader("bad,0,1e,0\nsign,0,-,0\npoint,0,.,0\nexponent,0,1e+,0\n"), missingLocationHandler);
+        assertThat(systemErrRule.getLog(), containsString("bad does not have location data"));
+        assertThat(systemErrRule.getLog(), containsString("sign does not have location data"));
+        assertThat(systemErrRule.getLog(), containsString("point does not have location data"));
+        assertThat(systemErrRule.getLog(), containsString("exponent does not have location data"));
+    }
+
+    @Test
+    public void invalidRows() {
+        CsvPoiLoader loader = CsvPoiLoader.builder().hasHeader(false).build();
+
+        expect(() -> loader.load(new StringReader("name,1,-35,149\n"), missingLocationHandler))
+            .toThrow(IOException.class)
+            .withMessage("Line 1 has 4 columns, but at least 5 are required");
+
+        expect(() -> loader.load(new StringReader("name,1,-35,149,0\nname,2,-95,149,0\n"), missingLocationHandler))
+            .toThrow(InvalidLocationException.class)
+            .withMessage("2 has an invalid location");
+    }
+
+    @Test
+    public void invalidBuilders() {
+        expect(() -> CsvPoiLoader.builder().latitudeColumn(-1).build()).toThrow(IllegalStateException.class);
+        expect(() -> CsvPoiLoader.builder().latitudeColumn(3).build()).toThrow(IllegalStateException.class);
+        expect(() -> CsvPoiLoader.builder().idColumn(-2)).toThrow(IllegalArgumentException.class);
+    }
+
+}
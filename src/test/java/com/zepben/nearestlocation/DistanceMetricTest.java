@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DistanceMetricTest {
+
+    private final DistanceMetric[] metrics = {
+        DistanceMetric.haversine(),
+        DistanceMetric.greatCircle(),
+        DistanceMetric.equirectangular(),
+        DistanceMetric.chord()
+    };
+
+    @Test
+    public void haversineMatchesLocationUtility() {
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; ++i) {
+            double lat1 = -90 + random.nextDouble() * 180;
+            double lon1 = -180 + random.nextDouble() * 360;
+            double ele1 = random.nextInt(500);
+            double lat2 = -90 + random.nextDouble() * 180;
+            double lon2 = -180 + random.nextDouble() * 360;
+            double ele2 = random.nextInt(500);
+
+            double[] terms = new double[8];
+            DistanceMetric.haversine().computeTerms(lat1, lon1, ele1, terms, 0);
+            DistanceMetric.haversine().computeTerms(lat2, lon2, ele2, terms, 4);
+
+            assertThat(DistanceMetric.haversine().rank(terms, 0, terms, 4), equalTo(LocationUtility.calculateSquaredDistance(lat1, lon1, ele1, lat2, lon2, ele2)));
+            assertThat(DistanceMetric.haversine().distance(lat1, lon1, ele1, lat2, lon2, ele2), equalTo(LocationUtility.calculateDistance(lat1, lon1, ele1, lat2, lon2, ele2)));
+        }
+    }
+
+    @Test
+    public void shortDistances() {
+        for (DistanceMetric metric : metrics) {
+            assertThat(metric.toString(), metric.distance(38.898556, -77.037852, 0, 38.897147, -77.043934, 0), closeTo(549, 1));
+            assertThat(metric.toString(), metric.distance(35.27536003090657, 149.1295158862522, 0, 35.248203361051694, 149.13393080245442, 0), closeTo(3050, 5));
+            assertThat(metric.toString(), metric.distance(-35, 149, 0, -35, 149, 0), equalTo(0.0));
+        }
+
+        // The equirectangular metric wraps longitudes across the antimeridian.
+        assertThat(DistanceMetric.equirectangular().distance(0, 179.99, 0, 0, -179.99, 0), closeTo(2224, 1));
+    }
+
+    @Test
+    public void elevation() {
+        assertThat(DistanceMetric.haversine().distance(-35, 149, 0, -35, 149, 100), closeTo(100, 1e-6));
+        assertThat(DistanceMetric.equirectangular().distance(-35, 149, 0, -35, 149, 100), closeTo(100, 1e-6));
+        assertThat(DistanceMetric.chord().distance(-35, 149, 0, -35, 149, 100), closeTo(100, 1e-6));
+        assertThat(DistanceMetric.greatCircle().distance(-35, 149, 0, -35, 149, 100), equalTo(0.0));
+    }
+
+    @Test
+    public void ranksConvertToMetres() {
+        for (DistanceMetric metric : metrics) {
+            for (double metres : new double[]{0, 1, 1000, 250000, 5000000}) {
+                assertThat(metric.toString(), metric.rankToMetres(metric.metresToRank(metres)), closeTo(metres, 1e-6 * Math.max(1, metres)));
+                assertThat(metric.toString(), metric.maxCentralAngle(metres), greaterThanOrEqualTo(metres / UnitSphere.EARTH_RADIUS * (1 - 1e-12)));
+            }
+        }
+    }
+
+    @Test
+    public void centralAngleBoundsDistance() {
+        Random random = new Random(5);
+        for (DistanceMetric metric : metrics) {
+            for (int i = 0; i < 1000; ++i) {
+                double lat1 = -89 + random.nextDouble() * 178;
+                double lon1 = -180 + random.nextDouble() * 360;
+                double lat2 = -89 + random.nextDouble() * 178;
+                double lon2 = -180 + random.nextDouble() * 360;
+
+                double angle = LocationUtility.calculateDistance(lat1, lon1, 0, lat2, lon2, 0) / UnitSphere.EARTH_RADIUS;
+                double metres = metric.distance(lat1, lon1, 0, lat2, lon2, 0);
+                assertThat(metric.toString(), metric.maxCentralAngle(metres), greaterThanOrEqualTo(angle * (1 - 1e-9)));
+            }
+        }
+    }
+
+}
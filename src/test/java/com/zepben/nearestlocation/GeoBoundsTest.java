@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.number.OrderingComparison.greaterThan;
+import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GeoBoundsTest {
+
+    private static final double EARTH_RADIUS = 6371008;
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @Test
+    public void of() {
+        @SuppressWarnings("ConstantConditions") List<WeatherStation> stations = Arrays.asList(
+            new WeatherStation(new LngLat(149, -35), 0, "w1"),
+            new WeatherStation(new LngLat(151, -33), 0, "w2"),
+            new WeatherStation(new LngLat(150, -36), 0, "w3"),
+            new WeatherStation(new LngLat(200, -80), 0, "invalid"),
+            new WeatherStation(null, 0, "missing"));
+
+        GeoBounds bounds = GeoBounds.of(stations, lcprWs);
+        assertThat(bounds, equalTo(new GeoBounds(-36, 149, -33, 151)));
+        assertTrue(bounds.contains(-35, 150));
+        assertFalse(bounds.contains(-32, 150));
+        assertFalse(bounds.contains(-35, 152));
+
+        assertThat(GeoBounds.of(Collections.<WeatherStation>emptyList(), lcprWs), nullValue());
+        assertThat(GeoBounds.of(stations.subList(3, 5), lcprWs), nullValue());
+    }
+
+    @Test
+    public void validatesCoordinates() {
+        expect(() -> new GeoBounds(-91, 0, 0, 0))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Bounds must be valid latitudes and longitudes");
+        expect(() -> new GeoBounds(0, 0, 0, 181))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Bounds must be valid latitudes and longitudes");
+        expect(() -> new GeoBounds(10, 0, 0, 0))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("The minimum latitude must not be greater than the maximum latitude");
+    }
+
+    @Test
+    public void crossesAntimeridian() {
+        GeoBounds bounds = new GeoBounds(-50, 170, -30, -170);
+        assertTrue(bounds.contains(-40, 175));
+        assertTrue(bounds.contains(-40, -175));
+        assertFalse(bounds.contains(-40, 0));
+        assertThat(bounds.minDistance(-40, 180), equalTo(0.0));
+        assertThat(bounds.minDistance(-40, 0), greaterThan(0.0));
+    }
+
+    @Test
+    public void minDistanceIsATightLowerBound() {
+        Random random = new Random(3);
+        for (int i = 0; i < 200; ++i) {
+            double minLat = -90 + random.nextDouble() * 170;
+            double maxLat = minLat + random.nextDouble() * (90 - minLat);
+            double minLon = -180 + random.nextDouble() * 360;
+            double maxLon = -180 + random.nextDouble() * 360;
+            GeoBounds bounds = new GeoBounds(minLat, minLon, maxLat, maxLon);
+
+            double lat = -90 + random.nextDouble() * 180;
+            double lon = -180 + random.nextDouble() * 360;
+            double bound = bounds.minDistance(lat, lon);
+            if (bounds.contains(lat, lon)) {
+                assertThat(bound, equalTo(0.0));
+                continue;
+            }
+
+            // The nearest point of a box that does not hold the location is on its edges.
+            double width = maxLon >= minLon ? maxLon - minLon : maxLon - minLon + 360;
+            int samples = 2000;
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int s = 0; s <= samples; ++s) {
+                double edgeLat = minLat + (maxLat - minLat) * s / samples;
+                double edgeLon = minLon + width * s / samples;
+                if (edgeLon > 180)
+                    edgeLon -= 360;
+
+                nearest = Math.min(nearest, chord(lat, lon, edgeLat, minLon));
+                nearest = Math.min(nearest, chord(lat, lon, edgeLat, maxLon));
+                nearest = Math.min(nearest, chord(lat, lon, minLat, edgeLon));
+                nearest = Math.min(nearest, chord(lat, lon, maxLat, edgeLon));
+            }
+
+            double spacing = EARTH_RADIUS * Math.toRadians(Math.max(maxLat - minLat, width)) / samples;
+            assertThat(bound, lessThanOrEqualTo(nearest));
+            assertThat(bound, greaterThanOrEqualTo(nearest - spacing));
+        }
+    }
+
+    private static double chord(double lat1, double lon1, double lat2, double lon2) {
+        double arc = LocationUtility.calculateDistance(lat1, lon1, 0, lat2, lon2, 0);
+        return 2 * EARTH_RADIUS * Math.sin(arc / (2 * EARTH_RADIUS));
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import org.junit.jupiter.api.Test;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets() {
+        long previous = -1;
+        for (int bucket = 0; bucket < (Long.SIZE - 4) * LatencyHistogram.SUB_BUCKETS; ++bucket) {
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertThat(LatencyHistogram.bucket(previous + 1), equalTo(bucket));
+            assertThat(LatencyHistogram.bucket(highest), equalTo(bucket));
+            assertThat(highest, greaterThan(previous));
+            previous = highest;
+        }
+        assertThat(previous, equalTo(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.snapshot().count(), equalTo(0L));
+        assertThat(histogram.snapshot().percentile(50), equalTo(0L));
+        assertThat(histogram.snapshot().mean(), equalTo(0.0));
+
+        for (int i = 1; i <= 1000; ++i)
+            histogram.record(i * 1000L);
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.count(), equalTo(1001L));
+        assertThat(snapshot.max(), equalTo(1000000L));
+        assertThat(snapshot.mean(), closeTo(500500000.0 / 1001, 1e-6));
+        assertThat(snapshot.percentile(0), equalTo(0L));
+        assertThat((double) snapshot.percentile(50), closeTo(500000, 500000.0 / LatencyHistogram.SUB_BUCKETS));
+        assertThat((double) snapshot.percentile(99), closeTo(990000, 990000.0 / LatencyHistogram.SUB_BUCKETS));
+        assertThat(snapshot.percentile(100), equalTo(1000000L));
+        assertThat(snapshot.toString(), containsString("count=1001"));
+
+        // Later values are not included in the snapshot.
+        histogram.record(1);
+        assertThat(snapshot.count(), equalTo(1001L));
+
+        expect(() -> snapshot.percentile(101)).toThrow(IllegalArgumentException.class).withMessage("Percentile must be between 0 and 100");
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NearestLocationsMappedPoiTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestLocationsMappedPoiTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    @TempDir
+    public Path tempDir;
+
+    private final List<WeatherStation> poiList = new ArrayList<>();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void findNearestLocations() throws IOException {
+        WeatherStation w1 = new WeatherStation(new LngLat(152.19558816, -33.62731914), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(144.2834462, -34.63053747), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(149.13, -35.28), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(149.13, -35.28), 0, "w4");
+        @SuppressWarnings("ConstantConditions") WeatherStation w5 = new WeatherStation(null, 0, "w5");
+        poiList.addAll(Arrays.asList(w1, w2, w3, w4, w5));
+
+        Path file = tempDir.resolve("stations.idx");
+        new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler).save(file, lcprWs);
+
+        NearestLocationsMappedPoi<WeatherStation> entity = NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.size(), equalTo(4));
+
+        Transformer t1 = new Transformer(new LngLat(149.13000920000002, -35.2809368), 0, "tr1");
+        assertThat(entity.find(t1, lcprTr, 10), contains(w3, w4, w1, w2));
+        assertThat(entity.find(t1, lcprTr), equalTo(w3));
+
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr2");
+        assertTrue(entity.find(noLocation, lcprTr, 1).isEmpty());
+        assertThat(systemErrRule.getLog(), containsString("tr2 does not have location data"));
+    }
+
+    @Test
+    public void matchesStaticPoi() throws IOException {
+        Random random = new Random(21);
+        for (int i = 0; i < 3000; ++i) {
+            LngLat lngLat = new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180);
+            poiList.add(new WeatherStation(lngLat, random.nextInt(3) * 100, "w" + i));
+
+            // Duplicate some locations so that ties are exercised.
+            if (i % 10 == 0)
+                poiList.add(new WeatherStation(lngLat, poiList.get(poiList.size() - 1).ele, "d" + i + "é"));
+        }
+
+        for (DistanceMetric metric : new DistanceMetric[]{DistanceMetric.haversine(), DistanceMetric.greatCircle(), DistanceMetric.equirectangular(), DistanceMetric.chord()}) {
+            Path file = tempDir.resolve(metric + ".idx");
+            NearestLocationsStaticPoi<WeatherStation> expected = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler, metric);
+            expected.save(file, lcprWs);
+
+            Map<String, WeatherStation> byId = new HashMap<>();
+            poiList.forEach(poi -> byId.put(poi.id, poi));
+            NearestLocationsMappedPoi<WeatherStation> actual = NearestLocationsMappedPoi.open(file, byId::get, missingLocationHandler);
+            assertThat(actual.metric(), equalTo(metric));
+
+            for (int i = 0; i < 100; ++i) {
+                Transformer t = new Transformer(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), random.nextInt(2) * 150, "tr" + i);
+                double radius = random.nextDouble() * 2000000;
+
+                assertThat(actual.findNeighbours(t, lcprTr, 10), equalTo(expected.findNeighbours(t, lcprTr, 10)));
+                assertThat(actual.findWithin(t, lcprTr, radius), equalTo(expected.findWithin(t, lcprTr, radius)));
+            }
+
+            List<Transformer> transformers = new ArrayList<>();
+            for (int i = 0; i < 200; ++i)
+                transformers.add(new Transformer(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), 0, "tr" + i));
+
+            Map<Transformer, List<WeatherStation>> results = new HashMap<>();
+            actual.join(transformers, lcprTr, 3, results::put);
+            for (Transformer transformer : transformers)
+                assertThat(results.get(transformer), equalTo(expected.find(transformer, lcprTr, 3)));
+        }
+    }
+
+    @Test
+    public void emptyIndex() throws IOException {
+        Path file = tempDir.resolve("empty.idx");
+        new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler).save(file, lcprWs);
+
+        NearestLocationsMappedPoi<WeatherStation> entity = NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.size(), equalTo(0));
+        assertTrue(entity.find(new Transformer(new LngLat(149, -35), 0, "tr1"), lcprTr, 3).isEmpty());
+    }
+
+    @Test
+    public void unknownPoi() throws IOException {
+        poiList.add(new WeatherStation(new LngLat(149, -35), 0, "w1"));
+        Path file = tempDir.resolve("stations.idx");
+        new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler).save(file, lcprWs);
+
+        NearestLocationsMappedPoi<WeatherStation> entity = NearestLocationsMappedPoi.open(file, Collections.emptyList(), lcprWs, missingLocationHandler);
+        Transformer t = new Transformer(new LngLat(149, -35), 0, "tr1");
+        expect(() -> entity.find(t, lcprTr, 1)).toThrow(IllegalStateException.class).withMessage("w1 is in the index but could not be found");
+    }
+
+    @Test
+    public void duplicateIds() throws IOException {
+        WeatherStation w1 = new WeatherStation(new LngLat(149, -35), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(150, -35), 0, "w2");
+        WeatherStation duplicate = new WeatherStation(new LngLat(151, -35), 0, "w1");
+        Path file = tempDir.resolve("stations.idx");
+
+        NearestLocationsStaticPoi<WeatherStation> entity = new NearestLocationsStaticPoi<>(Arrays.asList(w1, w2, duplicate), lcprWs, missingLocationHandler);
+        expect(() -> entity.save(file, lcprWs)).toThrow(IllegalArgumentException.class).withMessage("w1 is the ID of more than one POI");
+
+        // The default ID is the same for every POI.
+        LocationProvider<WeatherStation> noIds = LocationProvider.<WeatherStation>builder()
+            .latitudeProvider(lcprWs::lat)
+            .longitudeProvider(lcprWs::lon)
+            .build();
+        expect(() -> entity.save(file, noIds)).toThrow(IllegalArgumentException.class).withMessage(" is the ID of more than one POI");
+
+        poiList.addAll(Arrays.asList(w1, w2, w1));
+        new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler).save(file, lcprWs);
+        assertThat(NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler).size(), equalTo(2));
+
+        poiList.add(duplicate);
+        expect(() -> NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("w1 is the ID of more than one POI");
+    }
+
+    @Test
+    public void invalidFiles() throws IOException {
+        Path file = tempDir.resolve("invalid.idx");
+        Files.write(file, "not an index".getBytes());
+        expect(() -> NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler)).toThrow(IOException.class);
+
+        Files.write(file, new byte[64]);
+        expect(() -> NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler)).toThrow(IOException.class);
+
+        poiList.add(new WeatherStation(new LngLat(149, -35), 0, "w1"));
+        new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler).save(file, lcprWs);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        expect(() -> NearestLocationsMappedPoi.open(file, poiList, lcprWs, missingLocationHandler)).toThrow(IOException.class).withMessage(file + " is truncated");
+
+        expect(() -> NearestLocationsMappedPoi.open(tempDir.resolve("missing.idx"), poiList, lcprWs, missingLocationHandler)).toThrow(IOException.class);
+    }
+
+    @Test
+    public void unsupportedMetric() {
+        DistanceMetric custom = new DistanceMetric() {
+            @Override
+            public int termCount() {
+                return DistanceMetric.haversine().termCount();
+            }
+
+            @Override
+            public void computeTerms(double lat, double lon, double ele, double[] terms, int offset) {
+                DistanceMetric.haversine().computeTerms(lat, lon, ele, terms, offset);
+            }
+
+            @Override
+            public double rank(double[] queryTerms, int queryOffset, double[] poiTerms, int poiOffset) {
+                return DistanceMetric.haversine().rank(queryTerms, queryOffset, poiTerms, poiOffset);
+            }
+
+            @Override
+            public double rankToMetres(double rank) {
+                return DistanceMetric.haversine().rankToMetres(rank);
+            }
+
+            @Override
+            public double metresToRank(double metres) {
+                return DistanceMetric.haversine().metresToRank(metres);
+            }
+
+            @Override
+            public double maxCentralAngle(double metres) {
+                return DistanceMetric.haversine().maxCentralAngle(metres);
+            }
+        };
+
+        poiList.add(new WeatherStation(new LngLat(149, -35), 0, "w1"));
+        NearestLocationsStaticPoi<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler, custom);
+        expect(() -> entity.save(tempDir.resolve("custom.idx"), lcprWs)).toThrow(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NearestLocationsPartitionedPoiTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestLocationsPartitionedPoiTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void matchesSingleEngine() {
+        Random random = new Random(5);
+        List<WeatherStation> stations = new ArrayList<>();
+        for (int i = 0; i < 3000; ++i)
+            stations.add(new WeatherStation(new LngLat(110 + random.nextDouble() * 45, -44 + random.nextDouble() * 34), random.nextInt(100), "w" + i));
+
+        // Split the stations into a 3x3 grid of tiles.
+        List<List<WeatherStation>> tiles = new ArrayList<>();
+        for (int i = 0; i < 9; ++i)
+            tiles.add(new ArrayList<>());
+        for (WeatherStation station : stations) {
+            int col = Math.min(2, (int) ((lcprWs.lon(station) - 110) / 15));
+            int row = Math.min(2, (int) ((lcprWs.lat(station) + 44) / 34 * 3));
+            tiles.get(row * 3 + col).add(station);
+        }
+
+        List<LocalNearestLocationsShard<WeatherStation>> shards = new ArrayList<>();
+        for (List<WeatherStation> tile : tiles)
+            shards.add(new LocalNearestLocationsShard<>(tile, lcprWs, missingLocationHandler));
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsStaticPoi<>(stations, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> entity = new NearestLocationsPartitionedPoi<>(shards, missingLocationHandler);
+
+        WeatherStation[] pois = new WeatherStation[4];
+        double[] distances = new double[4];
+        WeatherStation[] expectedPois = new WeatherStation[4];
+        double[] expectedDistances = new double[4];
+        for (int i = 0; i < 200; ++i) {
+            Transformer t = new Transformer(new LngLat(100 + random.nextDouble() * 65, -50 + random.nextDouble() * 45), random.nextInt(100), "tr" + i);
+
+            assertThat(entity.findNeighbours(t, lcprTr, 5), equalTo(expected.findNeighbours(t, lcprTr, 5)));
+            assertThat(entity.find(t, lcprTr, 12), equalTo(expected.find(t, lcprTr, 12)));
+            assertThat(entity.findWithin(t, lcprTr, 50000), equalTo(expected.findWithin(t, lcprTr, 50000)));
+            assertThat(entity.findNeighboursWithin(t, lcprTr, 200000, 3), equalTo(expected.findNeighboursWithin(t, lcprTr, 200000, 3)));
+
+            assertThat(entity.find(t, lcprTr, pois, distances), equalTo(expected.find(t, lcprTr, expectedPois, expectedDistances)));
+            assertThat(pois, equalTo(expectedPois));
+            assertThat(distances, equalTo(expectedDistances));
+        }
+
+        Transformer t = new Transformer(new LngLat(130, -25), 0, "tr");
+        assertThat(entity.find(t, lcprTr, stations.size() + 1), equalTo(expected.find(t, lcprTr, stations.size() + 1)));
+
+        // Filtered searches ask the shards for more POIs until enough of them match.
+        Predicate<WeatherStation> filter = s -> s.id.endsWith("7");
+        assertThat(entity.find(t, lcprTr, 20, filter), equalTo(expected.find(t, lcprTr, 20, filter)));
+        assertThat(entity.find(t, lcprTr, 20, s -> s.id.equals("w7")), contains(stations.get(7)));
+        assertTrue(entity.find(t, lcprTr, 20, s -> false).isEmpty());
+    }
+
+    @Test
+    public void skipsShardsThatCannotBeCloser() {
+        WeatherStation w1 = new WeatherStation(new LngLat(149.1, -35.3), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(149.2, -35.2), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(115.9, -32.0), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(151.2, -33.9), 0, "w4");
+
+        CountingShard canberra = new CountingShard(Arrays.asList(w1, w2));
+        CountingShard perth = new CountingShard(Collections.singletonList(w3));
+        CountingShard sydney = new CountingShard(Collections.singletonList(w4));
+        CountingShard empty = new CountingShard(Collections.emptyList());
+        NearestLocations<WeatherStation> entity = new NearestLocationsPartitionedPoi<>(Arrays.asList(perth, empty, sydney, canberra), missingLocationHandler);
+
+        Transformer t = new Transformer(new LngLat(149.15, -35.25), 0, "tr1");
+        assertThat(entity.find(t, lcprTr, 2), contains(w1, w2));
+        assertThat(canberra.searches, equalTo(1));
+        assertThat(sydney.searches + perth.searches + empty.searches, equalTo(0));
+
+        assertThat(entity.find(t, lcprTr, 3), contains(w1, w2, w4));
+        assertThat(canberra.searches, equalTo(2));
+        assertThat(sydney.searches, equalTo(1));
+        assertThat(perth.searches + empty.searches, equalTo(0));
+
+        assertThat(entity.find(t, lcprTr, 10), contains(w1, w2, w4, w3));
+        assertThat(perth.searches, equalTo(1));
+        assertThat(empty.searches, equalTo(0));
+
+        // Shards entirely outside the radius are never searched.
+        assertThat(entity.findWithin(t, lcprTr, 500000), contains(w1, w2, w4));
+        assertThat(perth.searches, equalTo(1));
+    }
+
+    @Test
+    public void missingAndInvalidLocations() {
+        WeatherStation w1 = new WeatherStation(new LngLat(149.1, -35.3), 0, "w1");
+        NearestLocations<WeatherStation> entity = new NearestLocationsPartitionedPoi<>(
+            Collections.singletonList(new LocalNearestLocationsShard<>(Collections.singletonList(w1), lcprWs, missingLocationHandler)),
+            missingLocationHandler);
+
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr-none");
+        assertTrue(entity.find(noLocation, lcprTr, 1).isEmpty());
+        assertThat(systemErrRule.getLog(), containsString("tr-none does not have location data"));
+        assertThat(entity.find(noLocation, lcprTr), nullValue());
+
+        Transformer t = new Transformer(new LngLat(149, -35), 0, "tr1");
+        assertTrue(entity.find(t, lcprTr, 0).isEmpty());
+        expect(() -> entity.findWithin(t, lcprTr, -1))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Radius must not be negative");
+
+        Transformer invalid = new Transformer(new LngLat(149, -91), 0, "tr2");
+        expect(() -> entity.find(invalid, lcprTr, 1)).toThrow(InvalidLocationException.class);
+    }
+
+    private class CountingShard extends LocalNearestLocationsShard<WeatherStation> {
+
+        private int searches = 0;
+
+        CountingShard(Collection<WeatherStation> stations) {
+            super(stations, lcprWs, missingLocationHandler);
+        }
+
+        @Override
+        public List<Neighbour<WeatherStation>> findNeighboursWithin(double lat, double lon, double ele, double radius, int maxN) {
+            ++searches;
+            return super.findNeighboursWithin(lat, lon, ele, radius, maxN);
+        }
+
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NearestLocationsRasterPoiTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestLocationsRasterPoiTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    private final List<WeatherStation> poiList = new ArrayList<>();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void findNearestLocations() {
+        WeatherStation w1 = new WeatherStation(new LngLat(152.19558816, -33.62731914), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(144.2834462, -34.63053747), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(149.13, -35.28), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(149.13, -35.28), 0, "w4");
+        poiList.add(w1);
+        poiList.add(w2);
+        poiList.add(w3);
+        poiList.add(w4);
+
+        Transformer t1 = new Transformer(new LngLat(149.13000920000002, -35.2809368), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.find(t1, lcprTr, 4), contains(w3, w4, w1, w2));
+        assertThat(entity.find(t1, lcprTr, 10), contains(w3, w4, w1, w2));
+        assertThat(entity.find(t1, lcprTr), equalTo(w3));
+    }
+
+    @Test
+    public void findNearestLocationsReturnsNResultsInOrder() {
+        WeatherStation w1 = new WeatherStation(new LngLat(1, 1), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(1, 2), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(1, 3), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(1, 4), 0, "w4");
+        poiList.add(w1);
+        poiList.add(w2);
+        poiList.add(w3);
+        poiList.add(w4);
+
+        Transformer t1 = new Transformer(new LngLat(1, 0), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.find(t1, lcprTr, 2), contains(w1, w2));
+
+        Collections.reverse(poiList);
+
+        entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.find(t1, lcprTr, 2), contains(w1, w2));
+        assertTrue(entity.find(t1, lcprTr, 0).isEmpty());
+    }
+
+    @Test
+    public void matchesMovablePoi() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; ++i) {
+            LngLat lngLat = new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15);
+            poiList.add(new WeatherStation(lngLat, random.nextInt(3) * 100, "w" + i));
+
+            // Duplicate some locations so that ties are exercised.
+            if (i % 10 == 0)
+                poiList.add(new WeatherStation(lngLat, poiList.get(poiList.size() - 1).ele, "d" + i));
+        }
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> actual = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+
+        for (int i = 0; i < 200; ++i) {
+            Transformer t = new Transformer(new LngLat(135 + random.nextDouble() * 25, -45 + random.nextDouble() * 25), random.nextInt(2) * 150, "tr" + i);
+            for (int n : new int[]{1, 2, 5, 25}) {
+                assertThat(actual.find(t, lcprTr, n), equalTo(expected.find(t, lcprTr, n)));
+            }
+        }
+
+        Transformer farAway = new Transformer(new LngLat(-30, 50), 0, "far");
+        assertThat(actual.find(farAway, lcprTr, 10), equalTo(expected.find(farAway, lcprTr, 10)));
+    }
+
+    @Test
+    public void testIncorrectPoiLocation() {
+        poiList.add(new WeatherStation(new LngLat(13, -190), 10, "w3"));
+
+        expect(() -> new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler)).toThrow(InvalidLocationException.class);
+    }
+
+    @Test
+    public void testIncorrectEntityLocation() {
+        poiList.add(new WeatherStation(new LngLat(149, -35), 10, "w3"));
+        Transformer t = new Transformer(new LngLat(149.13000920000002, -181.2809368), 0, "tr");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        expect(() -> entity.find(t, lcprTr)).toThrow(InvalidLocationException.class);
+    }
+
+    @Test
+    public void testNullPoiLocation() {
+        @SuppressWarnings("ConstantConditions") WeatherStation w1 = new WeatherStation(null, 10, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(140, -34), 10, "w2");
+        poiList.add(w1);
+        poiList.add(w2);
+        Transformer t = new Transformer(new LngLat(149.13000920000002, -35.2809368), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(systemErrRule.getLog(), containsString("w1 does not have location data"));
+
+        assertThat(entity.find(t, lcprTr, 2), contains(w2));
+    }
+
+    @Test
+    public void testNullEntityLocation() {
+        poiList.add(new WeatherStation(new LngLat(149.13000920000002, -35.2809368), 10, "w1"));
+        @SuppressWarnings("ConstantConditions") Transformer t = new Transformer(null, 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertTrue(entity.find(t, lcprTr, 1).isEmpty());
+        assertThat(systemErrRule.getLog(), containsString("tr1 does not have location data"));
+        assertThat(entity.find(t, lcprTr), nullValue());
+    }
+
+    @Test
+    public void emptyPoiCollection() {
+        Transformer t = new Transformer(new LngLat(149, -35), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertTrue(entity.find(t, lcprTr, 3).isEmpty());
+    }
+
+    @Test
+    public void findWithinMatchesMovablePoi() {
+        Random random = new Random(9);
+        for (int i = 0; i < 2000; ++i)
+            poiList.add(new WeatherStation(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), random.nextInt(500), "w" + i));
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> actual = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        for (int i = 0; i < 100; ++i) {
+            Transformer t = new Transformer(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), 0, "tr" + i);
+            double radius = random.nextDouble() * 2000000;
+
+            assertThat(actual.findWithin(t, lcprTr, radius), equalTo(expected.findWithin(t, lcprTr, radius)));
+            assertThat(actual.findWithin(t, lcprTr, radius, 3), equalTo(expected.findWithin(t, lcprTr, radius, 3)));
+        }
+    }
+
+    @Test
+    public void otherMetricsMatchMovablePoi() {
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15), random.nextInt(3) * 100, "w" + i));
+
+        for (DistanceMetric metric : new DistanceMetric[]{DistanceMetric.greatCircle(), DistanceMetric.equirectangular(), DistanceMetric.chord()}) {
+            NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler, metric);
+            NearestLocations<WeatherStation> actual = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler, metric);
+            for (int i = 0; i < 100; ++i) {
+                Transformer t = new Transformer(new LngLat(135 + random.nextDouble() * 25, -45 + random.nextDouble() * 25), random.nextInt(2) * 150, "tr" + i);
+                double radius = random.nextDouble() * 500000;
+
+                assertThat(actual.find(t, lcprTr, 5), equalTo(expected.find(t, lcprTr, 5)));
+                assertThat(actual.find(t, lcprTr), equalTo(expected.find(t, lcprTr)));
+                assertThat(actual.findWithin(t, lcprTr, radius, 1), equalTo(expected.findWithin(t, lcprTr, radius, 1)));
+                assertThat(actual.findWithin(t, lcprTr, radius, 20), equalTo(expected.findWithin(t, lcprTr, radius, 20)));
+            }
+        }
+    }
+
+    @Test
+    public void singleNearestMatchesMovablePoi() {
+        Random random = new Random(17);
+        for (int i = 0; i < 3000; ++i) {
+            // Cluster most POIs so that the raster has both large and small cells.
+            LngLat lngLat = i % 3 == 0
+                ? new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180)
+                : new LngLat(140 + random.nextDouble() * 5, -40 + random.nextDouble() * 5);
+            poiList.add(new WeatherStation(lngLat, i % 7 == 0 ? random.nextInt(2000) : 0, "w" + i));
+
+            // Duplicate some locations so that ties are exercised.
+            if (i % 10 == 0)
+                poiList.add(new WeatherStation(lngLat, poiList.get(poiList.size() - 1).ele, "d" + i));
+        }
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocationsRasterPoi<WeatherStation> actual = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocationsRasterPoi<WeatherStation> limited = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler, DistanceMetric.haversine(), 0);
+        assertTrue(actual.cellCount() > limited.cellCount());
+        assertThat(limited.cellCount(), equalTo(32));
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            LngLat lngLat = i % 2 == 0
+                ? new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180)
+                : new LngLat(140 + random.nextDouble() * 5, -40 + random.nextDouble() * 5);
+            transformers.add(new Transformer(lngLat, i % 5 == 0 ? random.nextInt(2000) : 0, "tr" + i));
+        }
+        transformers.add(new Transformer(new LngLat(180, 90), 0, "north"));
+        transformers.add(new Transformer(new LngLat(-180, -90), 0, "south"));
+
+        for (Transformer t : transformers) {
+            assertThat(actual.find(t, lcprTr), equalTo(expected.find(t, lcprTr)));
+            assertThat(actual.findNeighbours(t, lcprTr, 1), equalTo(expected.findNeighbours(t, lcprTr, 1)));
+            assertThat(limited.find(t, lcprTr), equalTo(expected.find(t, lcprTr)));
+        }
+
+        Map<Transformer, List<WeatherStation>> joined = new HashMap<>();
+        actual.join(transformers, lcprTr, 1, joined::put);
+        assertThat(joined, equalTo(expected.findAll(transformers, lcprTr, 1)));
+    }
+
+    @Test
+    public void singleNearestWithFilter() {
+        Random random = new Random(31);
+        for (int i = 0; i < 2000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 5, -40 + random.nextDouble() * 5), 0, "w" + i));
+
+        Predicate<WeatherStation> filter = s -> s.id.endsWith("3");
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocationsRasterPoi<WeatherStation> actual = new NearestLocationsRasterPoi<>(poiList, lcprWs, missingLocationHandler);
+        PoiAttribute<WeatherStation> attribute = actual.attribute(filter);
+
+        for (int i = 0; i < 200; ++i) {
+            Transformer t = new Transformer(new LngLat(140 + random.nextDouble() * 5, -40 + random.nextDouble() * 5), 0, "tr" + i);
+            List<WeatherStation> matches = expected.find(t, lcprTr, 1, filter);
+            assertThat(matches.size(), equalTo(1));
+            assertThat(actual.find(t, lcprTr, 1, filter), equalTo(matches));
+            assertThat(actual.find(t, lcprTr, 1, attribute), equalTo(matches));
+        }
+    }
+
+}
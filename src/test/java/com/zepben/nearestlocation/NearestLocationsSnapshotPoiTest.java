@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+
+public class NearestLocationsSnapshotPoiTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestLocationsSnapshotPoiTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    private final List<WeatherStation> poiList = new ArrayList<>();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void replace() {
+        WeatherStation w1 = new WeatherStation(new LngLat(1, 1), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(1, 2), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(1, 0.5), 0, "w3");
+        poiList.add(w1);
+        poiList.add(w2);
+
+        Transformer t = new Transformer(new LngLat(1, 0), 0, "tr1");
+        NearestLocationsSnapshotPoi<WeatherStation> entity = new NearestLocationsSnapshotPoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> before = entity.snapshot();
+        assertThat(entity.find(t, lcprTr, 3), contains(w1, w2));
+
+        // Changing the original collection does not change the snapshot.
+        poiList.add(w3);
+        assertThat(entity.find(t, lcprTr, 3), contains(w1, w2));
+
+        entity.replace(poiList);
+        assertThat(entity.find(t, lcprTr, 3), contains(w3, w1, w2));
+        assertThat(entity.findNeighbours(t, lcprTr, 1).get(0).poi(), equalTo(w3));
+        assertThat(before.find(t, lcprTr, 3), contains(w1, w2));
+
+        WeatherStation invalid = new WeatherStation(new LngLat(1, 100), 0, "invalid");
+        expect(() -> entity.replace(Collections.singletonList(invalid))).toThrow(InvalidLocationException.class);
+        assertThat(entity.find(t, lcprTr, 3), contains(w3, w1, w2));
+
+        NearestLocationsSnapshotPoi<WeatherStation> movable = new NearestLocationsSnapshotPoi<>(poiList, pois -> new NearestLocationsMovablePoi<>(pois, lcprWs, missingLocationHandler));
+        assertThat(movable.snapshot(), instanceOf(NearestLocationsMovablePoi.class));
+        assertThat(movable.find(t, lcprTr, 3), contains(w3, w1, w2));
+    }
+
+    @Test
+    public void findAllAsyncUsesASingleSnapshot() throws Exception {
+        WeatherStation w1 = new WeatherStation(new LngLat(1, 1), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(1, 0.5), 0, "w2");
+        poiList.add(w1);
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 200; ++i)
+            transformers.add(new Transformer(new LngLat(1, 0), 0, "tr" + i));
+
+        // Run the first chunk, then replace the POIs before running the rest.
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        NearestLocationsSnapshotPoi<WeatherStation> entity = new NearestLocationsSnapshotPoi<>(poiList, lcprWs, missingLocationHandler);
+        CompletableFuture<Map<Transformer, List<WeatherStation>>> future = entity.findAllAsync(transformers, lcprTr, 1, tasks::add);
+        assertThat(tasks.size() > 1, equalTo(true));
+        Objects.requireNonNull(tasks.poll()).run();
+
+        entity.replace(Arrays.asList(w1, w2));
+        while (!tasks.isEmpty())
+            Objects.requireNonNull(tasks.poll()).run();
+
+        Map<Transformer, List<WeatherStation>> results = future.get(30, TimeUnit.SECONDS);
+        assertThat(results.size(), equalTo(transformers.size()));
+        for (Transformer t : transformers)
+            assertThat(results.get(t), contains(w1));
+    }
+
+    @Test
+    public void readersSeeWholeSnapshots() throws Exception {
+        Random random = new Random(5);
+        List<List<WeatherStation>> sets = new ArrayList<>();
+        for (int s = 0; s < 2; ++s) {
+            List<WeatherStation> set = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i)
+                set.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, s + "-" + i));
+            sets.add(set);
+        }
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 50; ++i)
+            transformers.add(new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i));
+
+        List<Map<Transformer, List<WeatherStation>>> expected = new ArrayList<>();
+        for (List<WeatherStation> set : sets) {
+            NearestLocations<WeatherStation> reference = new NearestLocationsMovablePoi<>(set, lcprWs, missingLocationHandler);
+            Map<Transformer, List<WeatherStation>> results = new HashMap<>();
+            transformers.forEach(t -> results.put(t, reference.find(t, lcprTr, 5)));
+            expected.add(results);
+        }
+
+        NearestLocationsSnapshotPoi<WeatherStation> entity = new NearestLocationsSnapshotPoi<>(sets.get(0), lcprWs, missingLocationHandler);
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; ++r) {
+                readers.add(executor.submit(() -> {
+                    int count = 0;
+                    while (running.get() || count == 0) {
+                        for (Transformer t : transformers) {
+                            List<WeatherStation> results = entity.find(t, lcprTr, 5);
+                            assertThat(results, anyOf(equalTo(expected.get(0).get(t)), equalTo(expected.get(1).get(t))));
+                            ++count;
+                        }
+                    }
+                    return count;
+                }));
+            }
+
+            for (int i = 0; i < 20; ++i)
+                entity.replace(sets.get(i % 2 == 0 ? 1 : 0));
+            running.set(false);
+
+            for (Future<Integer> reader : readers)
+                assertThat(reader.get(30, TimeUnit.SECONDS) > 0, equalTo(true));
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+
+        for (Transformer t : transformers)
+            assertThat(entity.find(t, lcprTr, 5), equalTo(expected.get(0).get(t)));
+        assertThat(entity.findAll(transformers, lcprTr, 5), equalTo(expected.get(0)));
+
+        Map<Transformer, List<WeatherStation>> joined = new HashMap<>();
+        entity.join(transformers, lcprTr, 5, joined::put);
+        assertThat(joined, equalTo(expected.get(0)));
+    }
+
+}
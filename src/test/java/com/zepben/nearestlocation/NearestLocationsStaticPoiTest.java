@@ -0,0 +1,358 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.hamcrest.number.OrderingComparison.greaterThan;
+import static org.hamcrest.number.OrderingComparison.lessThan;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NearestLocationsStaticPoiTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestLocationsStaticPoiTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    private final List<WeatherStation> poiList = new ArrayList<>();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void findNearestLocations() {
+        WeatherStation w1 = new WeatherStation(new LngLat(152.19558816, -33.62731914), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(144.2834462, -34.63053747), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(149.13, -35.28), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(149.13, -35.28), 0, "w4");
+        poiList.add(w1);
+        poiList.add(w2);
+        poiList.add(w3);
+        poiList.add(w4);
+
+        Transformer t1 = new Transformer(new LngLat(149.13000920000002, -35.2809368), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.find(t1, lcprTr, 4), contains(w3, w4, w1, w2));
+        assertThat(entity.find(t1, lcprTr, 10), contains(w3, w4, w1, w2));
+        assertThat(entity.find(t1, lcprTr), equalTo(w3));
+    }
+
+    @Test
+    public void findNearestLocationsReturnsNResultsInOrder() {
+        WeatherStation w1 = new WeatherStation(new LngLat(1, 1), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(1, 2), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(1, 3), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(1, 4), 0, "w4");
+        poiList.add(w1);
+        poiList.add(w2);
+        poiList.add(w3);
+        poiList.add(w4);
+
+        Transformer t1 = new Transformer(new LngLat(1, 0), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.find(t1, lcprTr, 2), contains(w1, w2));
+
+        Collections.reverse(poiList);
+
+        entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.find(t1, lcprTr, 2), contains(w1, w2));
+        assertTrue(entity.find(t1, lcprTr, 0).isEmpty());
+    }
+
+    @Test
+    public void matchesMovablePoi() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; ++i) {
+            LngLat lngLat = new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15);
+            poiList.add(new WeatherStation(lngLat, random.nextInt(3) * 100, "w" + i));
+
+            // Duplicate some locations so that ties are exercised.
+            if (i % 10 == 0)
+                poiList.add(new WeatherStation(lngLat, poiList.get(poiList.size() - 1).ele, "d" + i));
+        }
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> actual = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+
+        for (int i = 0; i < 200; ++i) {
+            Transformer t = new Transformer(new LngLat(135 + random.nextDouble() * 25, -45 + random.nextDouble() * 25), random.nextInt(2) * 150, "tr" + i);
+            for (int n : new int[]{1, 2, 5, 25}) {
+                assertThat(actual.find(t, lcprTr, n), equalTo(expected.find(t, lcprTr, n)));
+            }
+        }
+
+        Transformer farAway = new Transformer(new LngLat(-30, 50), 0, "far");
+        assertThat(actual.find(farAway, lcprTr, 10), equalTo(expected.find(farAway, lcprTr, 10)));
+    }
+
+    @Test
+    public void testIncorrectPoiLocation() {
+        poiList.add(new WeatherStation(new LngLat(13, -190), 10, "w3"));
+
+        expect(() -> new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler)).toThrow(InvalidLocationException.class);
+    }
+
+    @Test
+    public void testIncorrectEntityLocation() {
+        poiList.add(new WeatherStation(new LngLat(149, -35), 10, "w3"));
+        Transformer t = new Transformer(new LngLat(149.13000920000002, -181.2809368), 0, "tr");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        expect(() -> entity.find(t, lcprTr)).toThrow(InvalidLocationException.class);
+    }
+
+    @Test
+    public void testNullPoiLocation() {
+        @SuppressWarnings("ConstantConditions") WeatherStation w1 = new WeatherStation(null, 10, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(140, -34), 10, "w2");
+        poiList.add(w1);
+        poiList.add(w2);
+        Transformer t = new Transformer(new LngLat(149.13000920000002, -35.2809368), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(systemErrRule.getLog(), containsString("w1 does not have location data"));
+
+        assertThat(entity.find(t, lcprTr, 2), contains(w2));
+    }
+
+    @Test
+    public void testNullEntityLocation() {
+        poiList.add(new WeatherStation(new LngLat(149.13000920000002, -35.2809368), 10, "w1"));
+        @SuppressWarnings("ConstantConditions") Transformer t = new Transformer(null, 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertTrue(entity.find(t, lcprTr, 1).isEmpty());
+        assertThat(systemErrRule.getLog(), containsString("tr1 does not have location data"));
+        assertThat(entity.find(t, lcprTr), nullValue());
+    }
+
+    @Test
+    public void emptyPoiCollection() {
+        Transformer t = new Transformer(new LngLat(149, -35), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertTrue(entity.find(t, lcprTr, 3).isEmpty());
+    }
+
+    @Test
+    public void findWithinMatchesMovablePoi() {
+        Random random = new Random(9);
+        for (int i = 0; i < 2000; ++i)
+            poiList.add(new WeatherStation(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), random.nextInt(500), "w" + i));
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> actual = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        for (int i = 0; i < 100; ++i) {
+            Transformer t = new Transformer(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), 0, "tr" + i);
+            double radius = random.nextDouble() * 2000000;
+
+            assertThat(actual.findWithin(t, lcprTr, radius), equalTo(expected.findWithin(t, lcprTr, radius)));
+            assertThat(actual.findWithin(t, lcprTr, radius, 3), equalTo(expected.findWithin(t, lcprTr, radius, 3)));
+        }
+    }
+
+    @Test
+    public void otherMetricsMatchMovablePoi() {
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15), random.nextInt(3) * 100, "w" + i));
+
+        for (DistanceMetric metric : new DistanceMetric[]{DistanceMetric.greatCircle(), DistanceMetric.equirectangular(), DistanceMetric.chord()}) {
+            NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler, metric);
+            NearestLocations<WeatherStation> actual = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler, metric);
+            for (int i = 0; i < 100; ++i) {
+                Transformer t = new Transformer(new LngLat(135 + random.nextDouble() * 25, -45 + random.nextDouble() * 25), random.nextInt(2) * 150, "tr" + i);
+                double radius = random.nextDouble() * 500000;
+
+                assertThat(actual.find(t, lcprTr, 5), equalTo(expected.find(t, lcprTr, 5)));
+                assertThat(actual.findWithin(t, lcprTr, radius, 20), equalTo(expected.findWithin(t, lcprTr, radius, 20)));
+            }
+        }
+    }
+
+    @Test
+    public void findApproximate() {
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15), 0, "w" + i));
+
+        NearestLocationsStaticPoi<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        int exactNodes = 0;
+        int approximateNodes = 0;
+        for (int i = 0; i < 100; ++i) {
+            Transformer t = new Transformer(new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15), 0, "tr" + i);
+            List<Neighbour<WeatherStation>> expected = entity.findNeighbours(t, lcprTr, 10);
+
+            ApproximateResult<WeatherStation> exact = entity.findApproximate(t, lcprTr, 10, 0);
+            assertThat(exact.neighbours(), equalTo(expected));
+            assertThat(exact.pois(), equalTo(entity.find(t, lcprTr, 10)));
+            assertThat(exact.isExact(), equalTo(true));
+            exactNodes += exact.nodesVisited();
+
+            ApproximateResult<WeatherStation> approximate = entity.findApproximate(t, lcprTr, 10, 0.5);
+            assertThat(approximate.neighbours().size(), equalTo(10));
+            for (int j = 0; j < 10; ++j)
+                assertTrue(approximate.neighbours().get(j).distance() <= expected.get(j).distance() * 1.5 + 1e-6);
+            if (approximate.isExact())
+                assertThat(approximate.neighbours(), equalTo(expected));
+            approximateNodes += approximate.nodesVisited();
+
+            ApproximateResult<WeatherStation> limited = entity.findApproximate(t, lcprTr, 10, 0, 1);
+            assertThat(limited.neighbours().size(), equalTo(10));
+            assertThat(limited.isExact(), equalTo(false));
+            assertTrue(limited.nodesVisited() < exact.nodesVisited());
+        }
+        assertTrue(approximateNodes < exactNodes);
+
+        Transformer t = new Transformer(new LngLat(145, -35), 0, "tr");
+        expect(() -> entity.findApproximate(t, lcprTr, 10, -1)).toThrow(IllegalArgumentException.class).withMessage("Epsilon must be a finite value that is not negative");
+        expect(() -> entity.findApproximate(t, lcprTr, 10, Double.NaN)).toThrow(IllegalArgumentException.class);
+        expect(() -> entity.findApproximate(t, lcprTr, 10, 0, 0)).toThrow(IllegalArgumentException.class).withMessage("The maximum number of nodes must be positive");
+    }
+
+    @Test
+    public void validationPolicies() {
+        WeatherStation w1 = new WeatherStation(new LngLat(149, -35), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(190, -35), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(149, -95), -10, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(Double.NaN, -35), 0, "w4");
+        @SuppressWarnings("ConstantConditions") WeatherStation w5 = new WeatherStation(null, 0, "w5");
+        poiList.add(w1);
+        poiList.add(w2);
+        poiList.add(w3);
+        poiList.add(w4);
+        poiList.add(w5);
+
+        expect(() -> new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.THROW))
+            .toThrow(InvalidLocationException.class)
+            .withMessage("w2 has an invalid location");
+
+        NearestLocationsStaticPoi<WeatherStation> skipped = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.SKIP);
+        ValidationReport report = skipped.validationReport();
+        assertThat(report.policy(), equalTo(ValidationPolicy.SKIP));
+        assertThat(report.validCount(), equalTo(1));
+        assertThat(report.missingIds(), contains("w5"));
+        assertThat(report.invalidIds(), contains("w2", "w3", "w4"));
+        assertThat(report.skippedIds(), contains("w2", "w3", "w4"));
+        assertThat(report.isClean(), equalTo(false));
+        assertThat(report.toString(), containsString("skippedIds=[w2, w3, w4]"));
+
+        Transformer t = new Transformer(new LngLat(-170, -90), 0, "tr1");
+        assertThat(skipped.find(t, lcprTr, 5), contains(w1));
+
+        // w2 wraps to (-170, -35) and w3 clamps to the south pole.
+        NearestLocationsStaticPoi<WeatherStation> clamped = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler, DistanceMetric.haversine(), ValidationPolicy.CLAMP);
+        report = clamped.validationReport();
+        assertThat(report.validCount(), equalTo(3));
+        assertThat(report.invalidIds(), contains("w2", "w3", "w4"));
+        assertThat(report.skippedIds(), contains("w4"));
+        assertThat(clamped.findNeighbours(t, lcprTr, 1).get(0).distance(), closeTo(0, 1e-6));
+        assertThat(clamped.find(t, lcprTr), equalTo(w3));
+
+        Transformer wrapped = new Transformer(new LngLat(-170, -35), 0, "tr2");
+        assertThat(clamped.find(wrapped, lcprTr, 5), contains(w2, w1, w3));
+        assertThat(clamped.findNeighbours(wrapped, lcprTr, 1).get(0).distance(), closeTo(0, 1e-6));
+
+        poiList.remove(w2);
+        poiList.remove(w3);
+        poiList.remove(w4);
+        poiList.remove(w5);
+        assertThat(new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler).validationReport().isClean(), equalTo(true));
+    }
+
+    @Test
+    public void findWithFilter() {
+        Random random = new Random(29);
+        for (int i = 0; i < 3000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "w" + i));
+
+        // Only a few stations report wind data, and they are all in the south west.
+        Predicate<WeatherStation> reportsWind = s -> (Integer.parseInt(s.id.substring(1)) % 7 == 0) && (lcprWs.lat(s) < -37) && (lcprWs.lon(s) < 143);
+        NearestLocationsStaticPoi<WeatherStation> entity = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+
+        AtomicInteger tests = new AtomicInteger();
+        PoiAttribute<WeatherStation> windAttribute = entity.attribute(s -> {
+            tests.incrementAndGet();
+            return reportsWind.test(s);
+        });
+        assertThat(tests.get(), equalTo(poiList.size()));
+        assertThat(windAttribute.count(), equalTo((int) poiList.stream().filter(reportsWind).count()));
+
+        for (int i = 0; i < 50; ++i) {
+            Transformer t = new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i);
+            List<WeatherStation> matches = expected.find(t, lcprTr, poiList.size()).stream().filter(reportsWind).limit(10).collect(Collectors.toList());
+            assertThat(matches.size(), equalTo(10));
+
+            assertThat(entity.find(t, lcprTr, 10, reportsWind), equalTo(matches));
+            assertThat(entity.find(t, lcprTr, 10, windAttribute), equalTo(matches));
+            assertThat(expected.find(t, lcprTr, 10, reportsWind), equalTo(matches));
+        }
+
+        // The attribute is answered from its precalculated bits, and skips most of the tree.
+        assertThat(tests.get(), equalTo(poiList.size()));
+        RecordingNearestLocationsMetrics metrics = new RecordingNearestLocationsMetrics();
+        entity.metrics(metrics);
+        Transformer far = new Transformer(new LngLat(149.9, -30.1), 0, "far");
+        entity.find(far, lcprTr, 1, windAttribute);
+        assertThat(metrics.snapshot().distanceEvaluations(), lessThan(20L));
+        assertThat(metrics.snapshot().pruned(), greaterThan(2500L));
+
+        // Attributes of the same tree can be combined, and attributes of other engines are tested like any other filter.
+        PoiAttribute<WeatherStation> even = entity.attribute(s -> Integer.parseInt(s.id.substring(1)) % 2 == 0);
+        assertThat(entity.find(far, lcprTr, 5, windAttribute.and(even)), equalTo(entity.find(far, lcprTr, 5, reportsWind.and(even))));
+        NearestLocationsStaticPoi<WeatherStation> other = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(other.find(far, lcprTr, 5, windAttribute), equalTo(entity.find(far, lcprTr, 5, windAttribute)));
+        expect(() -> windAttribute.and(other.attribute(reportsWind)))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Attributes can only be combined with attributes of the same engine");
+
+        // Fewer matches than requested.
+        assertThat(entity.find(far, lcprTr, 5, s -> s.id.equals("w7")), contains(poiList.get(7)));
+        assertTrue(entity.find(far, lcprTr, 5, s -> false).isEmpty());
+    }
+
+}
@@ -14,9 +14,10 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static com.zepben.testutils.exception.ExpectException.expect;
 import static java.util.Objects.nonNull;
@@ -253,5 +254,300 @@ public class NearestLocationsTest {
         assertThat(entity.find(t, lcprTr), nullValue());
     }
 
-}
+    @Test
+    public void findAll() {
+        poiList.clear();
+        Random random = new Random(11);
+        for (int i = 0; i < 500; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "w" + i));
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i)
+            transformers.add(new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i));
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr-none");
+        transformers.add(noLocation);
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        Map<Transformer, List<WeatherStation>> results = entity.findAll(transformers, lcprTr, 3);
+
+        assertThat(new ArrayList<>(results.keySet()), equalTo(transformers));
+        for (Transformer transformer : transformers)
+            assertThat(results.get(transformer), equalTo(entity.find(transformer, lcprTr, 3)));
+        assertTrue(results.get(noLocation).isEmpty());
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertThat(entity.findAll(transformers, lcprTr, 3, pool), equalTo(results));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void findAllPropagatesInvalidLocations() {
+        poiList.clear();
+        poiList.add(new WeatherStation(new LngLat(149, -35), 0, "w1"));
+        List<Transformer> transformers = Arrays.asList(
+            new Transformer(new LngLat(149, -35), 0, "tr1"),
+            new Transformer(new LngLat(149, -181), 0, "tr2"));
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        expect(() -> entity.findAll(transformers, lcprTr, 1)).toThrow(InvalidLocationException.class);
+    }
+
+    @Test
+    public void findAsync() throws Exception {
+        poiList.clear();
+        poiList.add(new WeatherStation(new LngLat(149, -35), 0, "w1"));
+        poiList.add(new WeatherStation(new LngLat(150, -35), 0, "w2"));
+        poiList.add(new WeatherStation(new LngLat(151, -35), 0, "w3"));
+        Transformer t = new Transformer(new LngLat(150.9, -35), 0, "tr1");
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(entity.findAsync(t, lcprTr, 2).get(), contains(poiList.get(2), poiList.get(1)));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat(entity.findAsync(t, lcprTr, 1, executor).get(), contains(poiList.get(2)));
+        } finally {
+            executor.shutdown();
+        }
+
+        Transformer invalid = new Transformer(new LngLat(149, -181), 0, "tr2");
+        expect(() -> entity.findAsync(invalid, lcprTr, 1).get())
+            .toThrow(ExecutionException.class);
+    }
+
+    @Test
+    public void findAllAsync() throws Exception {
+        poiList.clear();
+        Random random = new Random(17);
+        for (int i = 0; i < 500; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "w" + i));
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i)
+            transformers.add(new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i));
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        Map<Transformer, List<WeatherStation>> expected = entity.findAll(transformers, lcprTr, 3);
+
+        Map<Transformer, List<WeatherStation>> results = entity.findAllAsync(transformers, lcprTr, 3).get();
+        assertThat(new ArrayList<>(results.keySet()), equalTo(transformers));
+        assertThat(results, equalTo(expected));
+
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Executor counting = task -> {
+                tasks.incrementAndGet();
+                executor.execute(task);
+            };
+            assertThat(entity.findAllAsync(transformers, lcprTr, 3, counting).get(), equalTo(expected));
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(tasks.get(), equalTo((transformers.size() + FindAllAsync.CHUNK_SIZE - 1) / FindAllAsync.CHUNK_SIZE));
+
+        assertTrue(entity.findAllAsync(Collections.<Transformer>emptyList(), lcprTr, 3).get().isEmpty());
+    }
+
+    @Test
+    public void findAllAsyncPropagatesInvalidLocations() {
+        poiList.clear();
+        poiList.add(new WeatherStation(new LngLat(149, -35), 0, "w1"));
+        List<Transformer> transformers = Arrays.asList(
+            new Transformer(new LngLat(149, -35), 0, "tr1"),
+            new Transformer(new LngLat(149, -181), 0, "tr2"));
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        CompletableFuture<Map<Transformer, List<WeatherStation>>> future = entity.findAllAsync(transformers, lcprTr, 1);
+        expect(future::join).toThrow(CompletionException.class);
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void join() {
+        poiList.clear();
+        Random random = new Random(13);
+        for (int i = 0; i < 2000; ++i) {
+            LngLat lngLat = new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10);
+            poiList.add(new WeatherStation(lngLat, random.nextInt(3) * 100, "w" + i));
+
+            // Duplicate some locations so that ties are exercised.
+            if (i % 10 == 0)
+                poiList.add(new WeatherStation(lngLat, poiList.get(poiList.size() - 1).ele, "d" + i));
+        }
+
+        List<Transformer> transformers = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i)
+            transformers.add(new Transformer(new LngLat(138 + random.nextDouble() * 14, -42 + random.nextDouble() * 14), random.nextInt(2) * 150, "tr" + i));
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr-none");
+        transformers.add(500, noLocation);
+
+        NearestLocations<WeatherStation> expected = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        List<NearestLocations<WeatherStation>> engines = Arrays.asList(
+            expected,
+            new NearestLocationsColumnarPoi<>(poiList, lcprWs, missingLocationHandler),
+            new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler),
+            new NearestLocationsDynamicPoi<>(poiList, lcprWs, missingLocationHandler, 10000));
+
+        for (NearestLocations<WeatherStation> engine : engines) {
+            for (int k : new int[]{1, 5}) {
+                Map<Transformer, List<WeatherStation>> results = new LinkedHashMap<>();
+                engine.join(transformers, lcprTr, k, (transformer, nearest) -> assertThat(results.put(transformer, nearest), nullValue()));
+
+                assertThat(results.size(), equalTo(transformers.size()));
+                for (Transformer transformer : transformers)
+                    assertThat(results.get(transformer), equalTo(expected.find(transformer, lcprTr, k)));
+
+                // Entities without a location are visited last.
+                assertThat(new ArrayList<>(results.keySet()).get(transformers.size() - 1), equalTo(noLocation));
+            }
+        }
+        assertThat(systemErrRule.getLog(), containsString("tr-none does not have location data"));
+    }
+
+    @Test
+    public void findNeighbours() {
+        poiList.clear();
+        Random random = new Random(17);
+        for (int i = 0; i < 1000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), random.nextInt(3) * 100, "w" + i));
+
+        List<NearestLocations<WeatherStation>> engines = Arrays.asList(
+            new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler),
+            new NearestLocationsColumnarPoi<>(poiList, lcprWs, missingLocationHandler),
+            new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler),
+            new NearestLocationsDynamicPoi<>(poiList, lcprWs, missingLocationHandler));
+
+        WeatherStation[] pois = new WeatherStation[5];
+        double[] distances = new double[5];
+        for (NearestLocations<WeatherStation> entity : engines) {
+            for (int i = 0; i < 50; ++i) {
+                Transformer t = new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i);
+
+                List<Neighbour<WeatherStation>> neighbours = entity.findNeighbours(t, lcprTr, 5);
+                assertThat(neighbours.stream().map(Neighbour::poi).collect(Collectors.toList()), equalTo(entity.find(t, lcprTr, 5)));
+                for (Neighbour<WeatherStation> neighbour : neighbours)
+                    assertThat(neighbour.distance(), equalTo(LocationUtility.calculateDistance(t.lngLat.latitude(), t.lngLat.longitude(), t.ele, neighbour.poi().lngLat.latitude(), neighbour.poi().lngLat.longitude(), neighbour.poi().ele)));
+
+                double radius = random.nextDouble() * 50000;
+                List<Neighbour<WeatherStation>> within = entity.findNeighboursWithin(t, lcprTr, radius);
+                assertThat(within.stream().map(Neighbour::poi).collect(Collectors.toList()), equalTo(entity.findWithin(t, lcprTr, radius)));
+                assertTrue(within.stream().allMatch(neighbour -> neighbour.distance() <= radius));
+                assertThat(entity.findNeighboursWithin(t, lcprTr, radius, 2), equalTo(within.subList(0, Math.min(2, within.size()))));
+
+                assertThat(entity.find(t, lcprTr, pois, distances), equalTo(5));
+                for (int j = 0; j < 5; ++j)
+                    assertThat(new Neighbour<>(pois[j], distances[j]), equalTo(neighbours.get(j)));
+            }
+        }
+
+        NearestLocations<WeatherStation> entity = engines.get(0);
+        Transformer t = new Transformer(new LngLat(145, -35), 0, "tr");
+        assertThat(entity.find(t, lcprTr, new WeatherStation[0], distances), equalTo(0));
+        expect(() -> entity.find(t, lcprTr, pois, new double[4])).toThrow(IllegalArgumentException.class);
+
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr-none");
+        assertTrue(entity.findNeighbours(noLocation, lcprTr, 3).isEmpty());
+        assertThat(entity.find(noLocation, lcprTr, pois, distances), equalTo(0));
+    }
+
+    @Test
+    public void defaultDistanceSearches() {
+        poiList.clear();
+        Random random = new Random(19);
+        for (int i = 0; i < 200; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "w" + i));
+
+        // An implementation that only provides the searches that every implementation must, along with findNeighbours.
+        NearestLocations<WeatherStation> engine = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocations<WeatherStation> custom = new NearestLocations<WeatherStation>() {
+            @Override
+            public <U> List<WeatherStation> find(U entity, LocationProvider<U> lcprEntity, int n) {
+                return engine.find(entity, lcprEntity, n);
+            }
+
+            @Override
+            public <U> List<Neighbour<WeatherStation>> findNeighbours(U entity, LocationProvider<U> lcprEntity, int n) {
+                return engine.findNeighbours(entity, lcprEntity, n);
+            }
+        };
+
+        WeatherStation[] pois = new WeatherStation[5];
+        double[] distances = new double[5];
+        for (int i = 0; i < 20; ++i) {
+            Transformer t = new Transformer(new LngLat(140 + random.nextDouble() * 10, -40 + random.nextDouble() * 10), 0, "tr" + i);
+            double radius = random.nextDouble() * 200000;
+            assertThat(custom.findNeighboursWithin(t, lcprTr, radius), equalTo(engine.findNeighboursWithin(t, lcprTr, radius)));
+            assertThat(custom.findNeighboursWithin(t, lcprTr, radius, 20), equalTo(engine.findNeighboursWithin(t, lcprTr, radius, 20)));
+            assertThat(custom.findWithin(t, lcprTr, radius), equalTo(engine.findWithin(t, lcprTr, radius)));
+
+            assertThat(custom.find(t, lcprTr, pois, distances), equalTo(5));
+            for (int j = 0; j < 5; ++j)
+                assertThat(new Neighbour<>(pois[j], distances[j]), equalTo(engine.findNeighbours(t, lcprTr, 5).get(j)));
+        }
+
+        Transformer t = new Transformer(new LngLat(145, -35), 0, "tr");
+        assertThat(custom.findWithin(t, lcprTr, 1e8), equalTo(engine.find(t, lcprTr, poiList.size())));
+        assertTrue(custom.findWithin(t, lcprTr, 1e8, 0).isEmpty());
+        expect(() -> custom.findWithin(t, lcprTr, -1)).toThrow(IllegalArgumentException.class).withMessage("Radius must not be negative");
+
+        // Without findNeighbours, the searches that need distances are not supported.
+        NearestLocations<WeatherStation> findOnly = engine::find;
+        expect(() -> findOnly.findNeighbours(t, lcprTr, 1)).toThrow(UnsupportedOperationException.class);
+        expect(() -> findOnly.findWithin(t, lcprTr, 1000)).toThrow(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void findWithin() {
+        poiList.clear();
+        WeatherStation w1 = new WeatherStation(new LngLat(1, 1), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(1, 2), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(1, 3), 0, "w3");
+        WeatherStation w4 = new WeatherStation(new LngLat(179.9, 0), 0, "w4");
+        poiList.add(w3);
+        poiList.add(w2);
+        poiList.add(w1);
+        poiList.add(w4);
+
+        Transformer t1 = new Transformer(new LngLat(1, 0), 0, "tr1");
+        Transformer t2 = new Transformer(new LngLat(-179.9, 0), 0, "tr2");
 
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        double oneDegree = LocationUtility.calculateDistance(0, 1, 0, 1, 1, 0);
+
+        assertThat(entity.findWithin(t1, lcprTr, oneDegree), contains(w1));
+        assertThat(entity.findWithin(t1, lcprTr, 2.5 * oneDegree), contains(w1, w2));
+        assertThat(entity.findWithin(t1, lcprTr, 10 * oneDegree, 2), contains(w1, w2));
+        assertTrue(entity.findWithin(t1, lcprTr, 0.5 * oneDegree).isEmpty());
+        assertThat(entity.findWithin(t2, lcprTr, oneDegree), contains(w4));
+
+        expect(() -> entity.findWithin(t1, lcprTr, -1)).toThrow(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void findWithinMatchesDistances() {
+        poiList.clear();
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; ++i)
+            poiList.add(new WeatherStation(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), random.nextInt(500), "w" + i));
+
+        NearestLocations<WeatherStation> entity = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        for (int i = 0; i < 100; ++i) {
+            Transformer t = new Transformer(new LngLat(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180), 0, "tr" + i);
+            double radius = random.nextDouble() * 2000000;
+
+            List<WeatherStation> expected = new ArrayList<>();
+            for (WeatherStation w : entity.find(t, lcprTr, poiList.size())) {
+                double distance = LocationUtility.calculateDistance(t.lngLat.latitude(), t.lngLat.longitude(), t.ele, w.lngLat.latitude(), w.lngLat.longitude(), w.ele);
+                if (distance <= radius)
+                    expected.add(w);
+            }
+
+            assertThat(entity.findWithin(t, lcprTr, radius), equalTo(expected));
+        }
+    }
+
+}
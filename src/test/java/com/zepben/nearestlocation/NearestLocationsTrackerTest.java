@@ -0,0 +1,201 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.number.OrderingComparison.lessThan;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NearestLocationsTrackerTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestLocationsTrackerTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void matchesSearchesAlongARoute() {
+        Random random = new Random(23);
+        List<WeatherStation> stations = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i)
+            stations.add(new WeatherStation(new LngLat(145 + random.nextDouble() * 5, -38 + random.nextDouble() * 5), random.nextInt(50), "w" + i));
+
+        List<AbstractNearestLocations<WeatherStation>> engines = Arrays.asList(
+            new NearestLocationsMovablePoi<>(stations, lcprWs, missingLocationHandler),
+            new NearestLocationsStaticPoi<>(stations, lcprWs, missingLocationHandler),
+            new NearestLocationsStaticPoi<>(stations, lcprWs, missingLocationHandler, DistanceMetric.chord()),
+            new NearestLocationsColumnarPoi<>(stations, lcprWs, missingLocationHandler),
+            new NearestLocationsRasterPoi<>(stations, lcprWs, missingLocationHandler),
+            new NearestLocationsDynamicPoi<>(stations, lcprWs, missingLocationHandler));
+
+        for (AbstractNearestLocations<WeatherStation> engine : engines) {
+            for (int n : new int[]{1, 3}) {
+                // A vehicle driving about 20 metres between updates.
+                Transformer vehicle = new Transformer(new LngLat(146, -37), 0, "vehicle");
+                NearestLocationsTracker<WeatherStation, Transformer> tracker = engine.track(vehicle, lcprTr, n);
+                double heading = 0;
+                for (int i = 0; i < 2000; ++i) {
+                    assertThat(tracker.findNeighbours(), equalTo(engine.findNeighbours(vehicle, lcprTr, n)));
+
+                    heading += (random.nextDouble() - 0.5) * 0.2;
+                    vehicle.lngLat = new LngLat(lcprTr.lon(vehicle) + Math.cos(heading) * 0.0002, lcprTr.lat(vehicle) + Math.sin(heading) * 0.0002);
+                }
+
+                assertThat(tracker.find(), equalTo(engine.find(vehicle, lcprTr, n)));
+                assertThat(tracker.updateCount(), equalTo(2001L));
+                assertThat(tracker.searchCount(), lessThan(tracker.updateCount() / 8));
+            }
+        }
+    }
+
+    @Test
+    public void searchesOnEveryUpdateWithoutTheTriangleInequality() {
+        Random random = new Random(29);
+        List<WeatherStation> stations = new ArrayList<>();
+        for (int i = 0; i < 500; ++i)
+            stations.add(new WeatherStation(new LngLat(145 + random.nextDouble(), -38 + random.nextDouble()), 0, "w" + i));
+
+        NearestLocationsStaticPoi<WeatherStation> engine = new NearestLocationsStaticPoi<>(stations, lcprWs, missingLocationHandler, DistanceMetric.equirectangular());
+        Transformer vehicle = new Transformer(new LngLat(145.5, -37.5), 0, "vehicle");
+        NearestLocationsTracker<WeatherStation, Transformer> tracker = engine.track(vehicle, lcprTr, 3);
+        for (int i = 0; i < 100; ++i) {
+            assertThat(tracker.findNeighbours(), equalTo(engine.findNeighbours(vehicle, lcprTr, 3)));
+            vehicle.lngLat = new LngLat(lcprTr.lon(vehicle) + 0.0001, lcprTr.lat(vehicle));
+        }
+        assertThat(tracker.searchCount(), equalTo(100L));
+    }
+
+    @Test
+    public void detectsChangedPois() {
+        WeatherStation w1 = new WeatherStation(new LngLat(149, -35), 0, "w1");
+        WeatherStation w2 = new WeatherStation(new LngLat(149.1, -35), 0, "w2");
+        WeatherStation w3 = new WeatherStation(new LngLat(149.02, -35), 0, "w3");
+        NearestLocationsDynamicPoi<WeatherStation> dynamic = new NearestLocationsDynamicPoi<>(Arrays.asList(w1, w2), lcprWs, missingLocationHandler);
+
+        Transformer t = new Transformer(new LngLat(149.01, -35), 0, "tr1");
+        NearestLocationsTracker<WeatherStation, Transformer> tracker = dynamic.track(t, lcprTr, 1);
+        assertThat(tracker.find(), contains(w1));
+        assertThat(tracker.find(), contains(w1));
+        assertThat(tracker.searchCount(), equalTo(1L));
+
+        dynamic.add(w3);
+        t.lngLat = new LngLat(149.016, -35);
+        assertThat(tracker.find(), contains(w3));
+        assertThat(tracker.searchCount(), equalTo(2L));
+
+        // Every POI is found, so the result set can not change until the POIs do.
+        List<WeatherStation> stations = new ArrayList<>(Arrays.asList(w1, w2));
+        NearestLocationsMovablePoi<WeatherStation> movable = new NearestLocationsMovablePoi<>(stations, lcprWs, missingLocationHandler);
+        NearestLocationsTracker<WeatherStation, Transformer> all = movable.track(t, lcprTr, 2);
+        assertThat(all.find(), contains(w1, w2));
+        t.lngLat = new LngLat(149.09, -35);
+        assertThat(all.find(), contains(w2, w1));
+        assertThat(all.searchCount(), equalTo(1L));
+
+        w2.lngLat = new LngLat(150, -35);
+        all.reset();
+        assertThat(all.findNeighbours(), equalTo(movable.findNeighbours(t, lcprTr, 2)));
+        assertThat(all.searchCount(), equalTo(2L));
+    }
+
+    @Test
+    public void forgetsPreviousPoisWhenPoisAreRemovedOrLoseTheirLocation() {
+        List<WeatherStation> stations = new ArrayList<>();
+        for (int i = 0; i < 20; ++i)
+            stations.add(new WeatherStation(new LngLat(149, -35 + i * 0.01), 0, "w" + i));
+
+        // Removing a previous POI.
+        NearestLocationsDynamicPoi<WeatherStation> dynamic = new NearestLocationsDynamicPoi<>(stations, lcprWs, missingLocationHandler);
+        Transformer t = new Transformer(new LngLat(149, -34.981), 0, "tr1");
+        NearestLocationsTracker<WeatherStation, Transformer> tracker = dynamic.track(t, lcprTr, 3);
+        assertThat(tracker.find(), contains(stations.get(2), stations.get(1), stations.get(3)));
+
+        dynamic.remove(stations.get(1));
+        assertThat(tracker.findNeighbours(), equalTo(dynamic.findNeighbours(t, lcprTr, 3)));
+
+        // Removing enough POIs to compact the index, which renumbers the remaining POIs.
+        for (int i = 11; i < 20; ++i)
+            dynamic.remove(stations.get(i));
+        dynamic.remove(stations.get(4));
+        assertThat(tracker.findNeighbours(), equalTo(dynamic.findNeighbours(t, lcprTr, 3)));
+        t.lngLat = new LngLat(149, -34.95);
+        assertThat(tracker.findNeighbours(), equalTo(dynamic.findNeighbours(t, lcprTr, 3)));
+
+        // Moving a previous POI to no location.
+        dynamic = new NearestLocationsDynamicPoi<>(stations, lcprWs, missingLocationHandler);
+        t.lngLat = new LngLat(149, -34.981);
+        tracker = dynamic.track(t, lcprTr, 3);
+        assertThat(tracker.find(), contains(stations.get(2), stations.get(1), stations.get(3)));
+
+        dynamic.remove(stations.get(1));
+        assertThat(tracker.find(), contains(stations.get(2), stations.get(3), stations.get(0)));
+
+        stations.get(0).lngLat = null;
+        dynamic.moved(stations.get(0));
+        t.lngLat = new LngLat(149, -34.9);
+        assertThat(tracker.find(), contains(stations.get(10), stations.get(9), stations.get(11)));
+
+        // Resetting also forgets the previous POIs.
+        tracker.reset();
+        assertThat(tracker.findNeighbours(), equalTo(dynamic.findNeighbours(t, lcprTr, 3)));
+    }
+
+    @Test
+    public void missingAndInvalidLocations() {
+        WeatherStation w1 = new WeatherStation(new LngLat(149, -35), 0, "w1");
+        NearestLocationsStaticPoi<WeatherStation> entity = new NearestLocationsStaticPoi<>(Collections.singletonList(w1), lcprWs, missingLocationHandler);
+
+        expect(() -> entity.track(new Transformer(new LngLat(149, -35), 0, "tr1"), lcprTr, 0))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("The number of POIs to track must be positive");
+
+        @SuppressWarnings("ConstantConditions") Transformer t = new Transformer(null, 0, "tr-none");
+        NearestLocationsTracker<WeatherStation, Transformer> tracker = entity.track(t, lcprTr, 1);
+        assertTrue(tracker.find().isEmpty());
+        assertThat(systemErrRule.getLog(), containsString("tr-none does not have location data"));
+
+        t.lngLat = new LngLat(149, -35.1);
+        assertThat(tracker.find(), contains(w1));
+
+        t.lngLat = new LngLat(149, -91);
+        expect(tracker::find).toThrow(InvalidLocationException.class);
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.zepben.testutils.exception.ExpectException.expect;
+import static java.util.Objects.nonNull;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NearestSegmentsTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(NearestSegmentsTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    private final SegmentProvider<Line> segmentProvider = new SegmentProvider<Line>() {
+        @Override
+        public int vertexCount(Line line) {
+            return line.vertices.size();
+        }
+
+        @Override
+        public double lat(Line line, int vertex) {
+            return line.vertices.get(vertex).latitude();
+        }
+
+        @Override
+        public double lon(Line line, int vertex) {
+            return line.vertices.get(vertex).longitude();
+        }
+
+        @Override
+        public String id(Line line) {
+            return line.id;
+        }
+    };
+
+    @Test
+    public void projectsOntoSpans() {
+        Line equator = new Line("equator", new LngLat(0, 0), new LngLat(10, 0));
+        Line meridian = new Line("meridian", new LngLat(20, -5), new LngLat(20, 5));
+        NearestSegments<Line> segments = new NearestSegments<>(Arrays.asList(equator, meridian), segmentProvider, missingLocationHandler);
+        assertThat(segments.segmentCount(), equalTo(2));
+
+        List<SegmentNeighbour<Line>> neighbours = segments.findNeighbours(new Transformer(new LngLat(5, 1), 0, "t"), lcprTr, 2);
+        assertThat(neighbours, hasSize(2));
+        assertThat(neighbours.get(0).poi(), equalTo(equator));
+        assertThat(neighbours.get(0).segment(), equalTo(0));
+        assertThat(neighbours.get(0).lat(), closeTo(0, 1e-9));
+        assertThat(neighbours.get(0).lon(), closeTo(5, 1e-9));
+        assertThat(neighbours.get(0).distance(), closeTo(UnitSphere.EARTH_RADIUS * Math.toRadians(1), 1e-6));
+        assertThat(neighbours.get(1).poi(), equalTo(meridian));
+
+        // Past the end of the span the closest point is the end, returned exactly as it was provided.
+        neighbours = segments.findNeighbours(new Transformer(new LngLat(-3, 4), 0, "t"), lcprTr, 1);
+        assertThat(neighbours, contains(new SegmentNeighbour<>(equator, neighbours.get(0).distance(), 0, 0, 0)));
+        assertThat(neighbours.get(0).distance(), closeTo(distance(new LngLat(-3, 4), new LngLat(0, 0)), 1e-6));
+
+        assertThat(segments.find(new Transformer(new LngLat(19, 1), 0, "t"), lcprTr, 2), contains(meridian, equator));
+    }
+
+    @Test
+    public void returnsTheClosestSegmentOfEachPolyline() {
+        Line zigzag = new Line("zigzag", new LngLat(0, 0), new LngLat(1, 1), new LngLat(2, 0), new LngLat(3, 1), new LngLat(4, 0));
+        Line point = new Line("point", new LngLat(2, 0.5));
+        NearestSegments<Line> segments = new NearestSegments<>(Arrays.asList(zigzag, point, zigzag), segmentProvider, missingLocationHandler);
+        assertThat(segments.segmentCount(), equalTo(5));
+
+        List<SegmentNeighbour<Line>> neighbours = segments.findNeighbours(new Transformer(new LngLat(3.1, 1.2), 0, "t"), lcprTr, 5);
+        assertThat(neighbours, hasSize(2));
+        assertThat(neighbours.get(0).poi(), equalTo(zigzag));
+        assertThat(neighbours.get(0).segment(), equalTo(2));
+        assertThat(neighbours.get(1).poi(), equalTo(point));
+        assertThat(neighbours.get(1).segment(), equalTo(0));
+        assertThat(neighbours.get(1).lat(), equalTo(0.5));
+        assertThat(neighbours.get(1).lon(), equalTo(2.0));
+
+        // At a shared vertex the first segment is returned.
+        neighbours = segments.findNeighbours(new Transformer(new LngLat(2, -1), 0, "t"), lcprTr, 1);
+        assertThat(neighbours.get(0).segment(), equalTo(1));
+        assertThat(neighbours.get(0).lat(), equalTo(0.0));
+        assertThat(neighbours.get(0).lon(), equalTo(2.0));
+    }
+
+    @Test
+    public void matchesSampledSegments() {
+        Random random = new Random(25);
+        for (int i = 0; i < 200; ++i) {
+            LngLat start = new LngLat(random.nextDouble() * 40 - 20, random.nextDouble() * 40 - 20);
+            LngLat end = new LngLat(random.nextDouble() * 40 - 20, random.nextDouble() * 40 - 20);
+            LngLat location = new LngLat(random.nextDouble() * 60 - 30, random.nextDouble() * 60 - 30);
+            NearestSegments<Line> segments = new NearestSegments<>(Collections.singletonList(new Line("l", start, end)), segmentProvider, missingLocationHandler);
+
+            SegmentNeighbour<Line> neighbour = segments.findNeighbours(new Transformer(location, 0, "t"), lcprTr, 1).get(0);
+            double sampled = sampledDistance(start, end, location);
+            assertThat(neighbour.distance(), lessThanOrEqualTo(sampled + 1e-3));
+            assertThat(neighbour.distance(), greaterThan(sampled - 50));
+            assertThat(distance(new LngLat(neighbour.lon(), neighbour.lat()), location), closeTo(neighbour.distance(), 1e-3));
+        }
+    }
+
+    @Test
+    public void matchesAnExhaustiveSearch() {
+        Random random = new Random(26);
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            List<LngLat> vertices = new ArrayList<>();
+            double lon = 145 + random.nextDouble() * 5;
+            double lat = -38 + random.nextDouble() * 5;
+            for (int v = 0, count = 1 + random.nextInt(6); v < count; ++v) {
+                vertices.add(new LngLat(lon, lat));
+                lon += (random.nextDouble() - 0.5) * 0.05;
+                lat += (random.nextDouble() - 0.5) * 0.05;
+            }
+            lines.add(new Line("l" + i, vertices.toArray(new LngLat[0])));
+        }
+
+        NearestSegments<Line> segments = new NearestSegments<>(lines, segmentProvider, missingLocationHandler);
+        for (int i = 0; i < 200; ++i) {
+            Transformer transformer = new Transformer(new LngLat(144.9 + random.nextDouble() * 5.2, -38.1 + random.nextDouble() * 5.2), 0, "t" + i);
+            List<SegmentNeighbour<Line>> all = segments.findNeighbours(transformer, lcprTr, lines.size());
+            assertThat(all, hasSize(lines.size()));
+
+            for (int n : new int[]{1, 5, 20})
+                assertThat(segments.findNeighbours(transformer, lcprTr, n), equalTo(all.subList(0, n)));
+
+            double radius = (all.get(10).distance() + all.get(11).distance()) / 2;
+            assertThat(segments.findNeighboursWithin(transformer, lcprTr, radius, lines.size()), equalTo(all.subList(0, 11)));
+            assertThat(segments.findNeighboursWithin(transformer, lcprTr, radius, 3), equalTo(all.subList(0, 3)));
+        }
+    }
+
+    @Test
+    public void handlesMissingAndInvalidLocations() {
+        List<String> missing = new ArrayList<>();
+        NearestSegments<Line> segments = new NearestSegments<>(
+            Arrays.asList(new Line("empty"), new Line("span", new LngLat(0, 0), new LngLat(1, 0))),
+            segmentProvider,
+            (id, location) -> missing.add(id));
+        assertThat(missing, contains("empty"));
+        assertThat(segments.segmentCount(), equalTo(1));
+
+        assertThat(segments.find(new Transformer(null, 0, "no location"), lcprTr, 1), empty());
+        assertThat(missing, contains("empty", "no location"));
+
+        expect(() -> segments.find(new Transformer(new LngLat(0, 91), 0, "t"), lcprTr, 1)).toThrow(InvalidLocationException.class);
+        expect(() -> segments.findNeighboursWithin(new Transformer(new LngLat(0, 0), 0, "t"), lcprTr, -1, 1))
+            .toThrow(IllegalArgumentException.class)
+            .withMessage("Radius must not be negative");
+        expect(() -> new NearestSegments<>(Collections.singletonList(new Line("bad", new LngLat(0, 0), new LngLat(181, 0))), segmentProvider, missingLocationHandler))
+            .toThrow(InvalidLocationException.class)
+            .withMessage("bad has an invalid location");
+
+        NearestSegments<Line> empty = new NearestSegments<>(Collections.emptyList(), segmentProvider, missingLocationHandler);
+        assertThat(empty.find(new Transformer(new LngLat(0, 0), 0, "t"), lcprTr, 1), empty());
+    }
+
+    private static double sampledDistance(LngLat start, LngLat end, LngLat location) {
+        double[] a = unitVector(start);
+        double[] b = unitVector(end);
+        double theta = Math.acos(Math.min(1, a[0] * b[0] + a[1] * b[1] + a[2] * b[2]));
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i <= 10000; ++i) {
+            double t = i / 10000.0;
+            double wa = theta == 0 ? 1 - t : Math.sin((1 - t) * theta) / Math.sin(theta);
+            double wb = theta == 0 ? t : Math.sin(t * theta) / Math.sin(theta);
+            double x = wa * a[0] + wb * b[0];
+            double y = wa * a[1] + wb * b[1];
+            double z = wa * a[2] + wb * b[2];
+            LngLat sample = new LngLat(Math.toDegrees(Math.atan2(y, x)), Math.toDegrees(Math.atan2(z, Math.hypot(x, y))));
+            best = Math.min(best, distance(sample, location));
+        }
+        return best;
+    }
+
+    private static double[] unitVector(LngLat lngLat) {
+        double lat = lngLat.latitude();
+        double lon = lngLat.longitude();
+        return new double[]{UnitSphere.x(lat, lon), UnitSphere.y(lat, lon), UnitSphere.z(lat)};
+    }
+
+    private static double distance(LngLat a, LngLat b) {
+        double[] u = unitVector(a);
+        double[] v = unitVector(b);
+        double cx = u[1] * v[2] - u[2] * v[1];
+        double cy = u[2] * v[0] - u[0] * v[2];
+        double cz = u[0] * v[1] - u[1] * v[0];
+        return UnitSphere.EARTH_RADIUS * Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), u[0] * v[0] + u[1] * v[1] + u[2] * v[2]);
+    }
+
+    private static class Line {
+
+        final String id;
+        final List<LngLat> vertices;
+
+        Line(String id, LngLat... vertices) {
+            this.id = id;
+            this.vertices = Arrays.asList(vertices);
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+
+    }
+
+}
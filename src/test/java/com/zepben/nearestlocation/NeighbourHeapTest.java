@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class NeighbourHeapTest {
+
+    @Test
+    public void keepsClosestInOrder() {
+        NeighbourHeap heap = new NeighbourHeap(1);
+        heap.reset(3);
+        assertThat(heap.bound(), equalTo(Double.POSITIVE_INFINITY));
+
+        heap.offer(5, 0);
+        heap.offer(1, 1);
+        heap.offer(4, 2);
+        assertThat(heap.isFull(), is(true));
+        assertThat(heap.bound(), equalTo(5.0));
+
+        assertThat(heap.offer(6, 3), is(false));
+        assertThat(heap.offer(2, 4), is(true));
+
+        assertThat(heap.sort(), equalTo(3));
+        assertThat(heap.index(0), equalTo(1));
+        assertThat(heap.index(1), equalTo(4));
+        assertThat(heap.index(2), equalTo(2));
+        assertThat(heap.key(2), equalTo(4.0));
+    }
+
+    @Test
+    public void tiesAreBrokenByIndex() {
+        NeighbourHeap heap = new NeighbourHeap();
+        heap.reset(2);
+        heap.offer(1, 5);
+        heap.offer(1, 3);
+        heap.offer(1, 4);
+        heap.offer(1, 9);
+
+        assertThat(heap.sort(), equalTo(2));
+        assertThat(heap.index(0), equalTo(3));
+        assertThat(heap.index(1), equalTo(4));
+    }
+
+    @Test
+    public void zeroCapacity() {
+        NeighbourHeap heap = new NeighbourHeap();
+        heap.reset(0);
+        assertThat(heap.offer(1, 0), is(false));
+        assertThat(heap.sort(), equalTo(0));
+    }
+
+    @Test
+    public void matchesSorting() {
+        Random random = new Random(3);
+        NeighbourHeap heap = new NeighbourHeap(1);
+        for (int round = 0; round < 50; ++round) {
+            int capacity = 1 + random.nextInt(40);
+            heap.reset(capacity);
+
+            double[] keys = new double[200];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = random.nextInt(50);
+                heap.offer(keys[i], i);
+            }
+
+            int count = heap.sort();
+            assertThat(count, equalTo(capacity));
+            for (int i = 1; i < count; ++i) {
+                boolean ordered = heap.key(i - 1) < heap.key(i) || (heap.key(i - 1) == heap.key(i) && heap.index(i - 1) < heap.index(i));
+                assertThat(ordered, is(true));
+            }
+
+            int closer = 0;
+            for (double key : keys) {
+                if (key < heap.key(count - 1))
+                    ++closer;
+            }
+            assertThat(closer <= count, is(true));
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NeighbourTest {
+
+    @Test
+    public void equality() {
+        Neighbour<String> neighbour = new Neighbour<>("a", 1.5);
+        assertThat(neighbour.poi(), equalTo("a"));
+        assertThat(neighbour.distance(), equalTo(1.5));
+
+        assertThat(neighbour, equalTo(neighbour));
+        assertThat(neighbour, equalTo(new Neighbour<>("a", 1.5)));
+        assertThat(neighbour.hashCode(), equalTo(new Neighbour<>("a", 1.5).hashCode()));
+        assertThat(neighbour, not(equalTo(new Neighbour<>("b", 1.5))));
+        assertThat(neighbour, not(equalTo(new Neighbour<>("a", 2.5))));
+        assertThat(neighbour, not(equalTo((Object) "a")));
+        assertThat(neighbour.toString(), containsString("distance=1.5"));
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Zeppelin Bend Pty Ltd
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.zepben.nearestlocation;
+
+import com.zepben.testutils.junit.SystemLogExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Objects.nonNull;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RecordingNearestLocationsMetricsTest {
+
+    @RegisterExtension
+    public final SystemLogExtension systemErrRule = SystemLogExtension.SYSTEM_ERR.captureLog().muteOnSuccess();
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordingNearestLocationsMetricsTest.class);
+    private final MissingLocationHandler missingLocationHandler = new LoggingMissingLocationHandler(logger);
+
+    private final List<WeatherStation> poiList = new ArrayList<>();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<WeatherStation> lcprWs = LocationProvider.<WeatherStation>builder()
+        .latitudeProvider(s -> s.lngLat.latitude())
+        .longitudeProvider(s -> s.lngLat.longitude())
+        .elevationProvider(s -> s.ele)
+        .idProvider(s -> s.id)
+        .hasLocationProvider(s -> nonNull(s.lngLat))
+        .build();
+
+    @SuppressWarnings("ConstantConditions")
+    private final LocationProvider<Transformer> lcprTr = LocationProvider.<Transformer>builder()
+        .latitudeProvider(t -> t.lngLat.latitude())
+        .longitudeProvider(t -> t.lngLat.longitude())
+        .elevationProvider(t -> t.ele)
+        .idProvider(t -> t.id)
+        .hasLocationProvider(t -> nonNull(t.lngLat))
+        .build();
+
+    @Test
+    public void recordsSearches() {
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15), 0, "w" + i));
+        @SuppressWarnings("ConstantConditions") WeatherStation unlocated = new WeatherStation(null, 0, "unlocated");
+        poiList.add(unlocated);
+
+        RecordingNearestLocationsMetrics metrics = new RecordingNearestLocationsMetrics();
+        NearestLocationsMovablePoi<WeatherStation> movable = new NearestLocationsMovablePoi<>(poiList, lcprWs, missingLocationHandler);
+        NearestLocationsStaticPoi<WeatherStation> tree = new NearestLocationsStaticPoi<>(poiList, lcprWs, missingLocationHandler);
+        assertThat(movable.metrics(), sameInstance(NearestLocationsMetrics.none()));
+
+        movable.metrics(metrics);
+        assertThat(movable.metrics(), sameInstance(metrics));
+        assertThat(metrics.snapshot().indexBuilds(), equalTo(0L));
+
+        Transformer t = new Transformer(new LngLat(147, -33), 0, "tr1");
+        movable.find(t, lcprTr, 5);
+
+        RecordingNearestLocationsMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.queries(), equalTo(1L));
+        assertThat(snapshot.poisExamined(), equalTo(1000L));
+        assertThat(snapshot.distanceEvaluations() + snapshot.pruned(), equalTo(1000L));
+        assertThat(snapshot.pruned(), greaterThan(0L));
+        assertThat(snapshot.missingLocations(), equalTo(1L));
+        assertThat(snapshot.latency().max(), greaterThan(0L));
+
+        tree.metrics(metrics);
+        snapshot = metrics.snapshot();
+        assertThat(snapshot.indexBuilds(), equalTo(1L));
+        assertThat(snapshot.indexSize(), equalTo(1000L));
+        assertThat(snapshot.indexBuildNanos(), greaterThan(0L));
+
+        tree.find(t, lcprTr, 5);
+        snapshot = metrics.snapshot();
+        assertThat(snapshot.queries(), equalTo(2L));
+        assertThat(snapshot.distanceEvaluations(), lessThan(1000L + 1000L));
+
+        @SuppressWarnings("ConstantConditions") Transformer noLocation = new Transformer(null, 0, "tr2");
+        tree.find(noLocation, lcprTr, 5);
+        snapshot = metrics.snapshot();
+        assertThat(snapshot.queries(), equalTo(2L));
+        assertThat(snapshot.missingLocations(), equalTo(2L));
+        assertThat(snapshot.toString(), containsString("missingLocations=2"));
+
+        tree.metrics(NearestLocationsMetrics.none());
+        tree.find(t, lcprTr, 5);
+        assertThat(metrics.snapshot().queries(), equalTo(2L));
+    }
+
+    @Test
+    public void columnarCountsPrunedBlocks() {
+        Random random = new Random(4);
+        for (int i = 0; i < 1000; ++i)
+            poiList.add(new WeatherStation(new LngLat(140 + random.nextDouble() * 15, -40 + random.nextDouble() * 15), 0, "w" + i));
+
+        RecordingNearestLocationsMetrics metrics = new RecordingNearestLocationsMetrics();
+        NearestLocationsColumnarPoi<WeatherStation> columnar = new NearestLocationsColumnarPoi<>(poiList, lcprWs, missingLocationHandler);
+        columnar.metrics(metrics);
+        columnar.find(new Transformer(new LngLat(147, -33), 0, "tr1"), lcprTr, 1);
+
+        RecordingNearestLocationsMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.indexSize(), equalTo(1000L));
+        assertThat(snapshot.poisExamined(), equalTo(1000L));
+        assertThat(snapshot.pruned(), greaterThan(snapshot.distanceEvaluations()));
+    }
+
+}